@@ -0,0 +1,133 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Timing of the hot paths: progress coalescing, status block write and read, and apk hashing.
+ * Each result is printed as one line of JSON prefixed with "benchmark ". Run with the benchmark task,
+ * it is not part of the unit tests, HotPathTest checks the behaviour and allocations of the same paths.
+ */
+public class HotPathBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+
+    public static void main(String[] args) throws IOException {
+        dispatcherProgressEvent();
+        statusBlockWriteRead();
+        digestUpdate();
+        digestUpdateFromFile();
+    }
+
+    private static void dispatcherProgressEvent() {
+        final FakeHandler handler = new FakeHandler();
+        final RecordingListener listener = new RecordingListener();
+        final UpdateEventDispatcher dispatcher = new UpdateEventDispatcher(listener, handler);
+        final int burst = 100;
+        final long[] bytes = new long[1];
+
+        measure("dispatcher_progress_event", 20000 * burst, new Runnable() {
+            @Override
+            public void run() {
+                listener.events.clear();
+                for (int i = 0; i < 20000; i++) {
+                    for (int j = 0; j < burst; j++) {
+                        bytes[0] += UpdateEventDispatcher.DEFAULT_PROGRESS_BYTES;
+                        dispatcher.onUpdateDownloading(bytes[0], Long.MAX_VALUE);
+                    }
+                    handler.runAll();
+                }
+            }
+        });
+    }
+
+    private static void statusBlockWriteRead() {
+        final UpdateStatusBlock statusBlock = new UpdateStatusBlock(new RecordingListener());
+        statusBlock.setPollingMode(true);
+        final ByteBuffer buffer = statusBlock.getBuffer();
+        final long[] read = new long[2];
+        final int count = 200000;
+
+        measure("status_block_write_read", count, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= count; i++) {
+                    statusBlock.onUpdateDownloading(i, count);
+                    HotPathTest.readProgress(buffer, read);
+                }
+            }
+        });
+    }
+
+    private static void digestUpdate() {
+        final byte[] chunk = new byte[64 * 1024];
+        new Random(1).nextBytes(chunk);
+        final int chunks = 256;
+
+        measure("digest_update_64k", chunks, new Runnable() {
+            @Override
+            public void run() {
+                DigestVerifier verifier = new DigestVerifier(null, 0);
+                for (int i = 0; i < chunks; i++) {
+                    verifier.update(chunk, 0, chunk.length);
+                }
+            }
+        });
+    }
+
+    private static void digestUpdateFromFile() throws IOException {
+        final byte[] chunk = new byte[64 * 1024];
+        new Random(2).nextBytes(chunk);
+        final int chunks = 256;
+        File file = File.createTempFile("digest", ".apk");
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            for (int i = 0; i < chunks; i++) {
+                randomAccessFile.write(chunk);
+            }
+            final FileChannel channel = randomAccessFile.getChannel();
+
+            measure("digest_update_from_file_64k", chunks, new Runnable() {
+                @Override
+                public void run() {
+                    DigestVerifier verifier = new DigestVerifier(null, 0);
+                    try {
+                        verifier.updateFromFile(channel, (long) chunks * chunk.length);
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+        } finally {
+            randomAccessFile.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * Run the round a few times to warm up, then time one round and print the result
+     *
+     * @param name       the result name
+     * @param operations the operations of one round
+     * @param round      the round
+     */
+    private static void measure(String name, int operations, Runnable round) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            round.run();
+        }
+        long allocatedBefore = HotPathTest.getAllocatedBytes();
+        long start = System.nanoTime();
+        round.run();
+        long elapsed = System.nanoTime() - start;
+        long allocatedAfter = HotPathTest.getAllocatedBytes();
+
+        double bytesPerOp = allocatedBefore < 0 ? -1 : (double) (allocatedAfter - allocatedBefore) / operations;
+        System.out.println(String.format(Locale.US, "benchmark {\"name\":\"%s\",\"nsPerOp\":%.1f,\"bytesPerOp\":%.2f}",
+                name, (double) elapsed / operations, bytesPerOp));
+    }
+}
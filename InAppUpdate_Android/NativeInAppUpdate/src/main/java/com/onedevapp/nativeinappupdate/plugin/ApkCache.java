@@ -0,0 +1,290 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * ApkCache owns the third party apks downloaded into the app specific Downloads directory.
+ * Every release gets its own file named by version and digest, like update-1042-3f9a0c1d2e4b5a67.apk, so a
+ * finished download is found again by its key and a new release never collides with an old file.
+ * Downloads are written into a .part file, renamed once complete and verified, so only finished apks are hits.
+ * Apks of versions installed by now are evicted, and the least recently used files go first once the
+ * cache grows over its size cap. The files of the journaled download are never evicted, neither its .part
+ * while it is written or waits to be resumed nor its finished apk waiting for the install.
+ */
+class ApkCache {
+
+    // region Declarations
+    static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;   //a few releases of a large game
+
+    private static final String PREFIX = "update-";
+    private static final String APK_SUFFIX = ".apk";
+    private static final String PART_SUFFIX = ".part";
+    private static final String LEGACY_FILE_NAME = "app_release.apk";  //fixed name used before the cache
+    private static final int HASH_LENGTH = 16;
+
+    private final Context mContext;
+    private final DownloadJournal mDownloadJournal; //download in progress, its files are kept
+    private File mDir;  //resolved on first use, off the thread building the manager
+    private volatile long mMaxBytes = DEFAULT_MAX_BYTES;
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param context         the context
+     * @param downloadJournal the journal of the download in progress
+     */
+    ApkCache(Context context, DownloadJournal downloadJournal) {
+        this.mContext = context.getApplicationContext();
+        this.mDownloadJournal = downloadJournal;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Set the size cap of the cache
+     *
+     * @param maxBytes the cap in bytes, 0 to only keep the current download
+     */
+    void setMaxBytes(long maxBytes) {
+        this.mMaxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * Returns the size cap of the cache
+     */
+    long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Returns the key of a release, the same release always gets the same key
+     *
+     * @param versionCode the version from the manifest, 0 if unknown
+     * @param digest      the expected SHA-256, null if unknown
+     * @param url         the link of the apk
+     * @param size        the expected size, 0 if unknown
+     * @return the key
+     */
+    static String getKey(long versionCode, String digest, String url, long size) {
+        String hash;
+        if (DigestVerifier.isValidDigest(digest)) {
+            hash = digest.substring(0, HASH_LENGTH).toLowerCase(Locale.US);
+        } else {
+            //Without a digest the link and size tell the release apart
+            try {
+                MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+                byte[] bytes = messageDigest.digest((url + "#" + size).getBytes(Charset.forName("UTF-8")));
+                hash = DigestVerifier.toHex(bytes).substring(0, HASH_LENGTH);
+            } catch (NoSuchAlgorithmException e) {
+                hash = Integer.toHexString((url + "#" + size).hashCode());
+            }
+        }
+        return Math.max(0, versionCode) + "-" + hash;
+    }
+
+    /**
+     * Returns the key of a cached apk from its uri
+     *
+     * @param apkUri the uri of the apk, null for none
+     * @return the key, null if the uri is not of a cached apk
+     */
+    static String getKey(Uri apkUri) {
+        String name = apkUri != null ? apkUri.getLastPathSegment() : null;
+        if (name == null || !name.startsWith(PREFIX) || !name.endsWith(APK_SUFFIX)) return null;
+        return getKey(name);
+    }
+
+    /**
+     * Returns the name of the file to download a release into, relative to the Downloads directory
+     *
+     * @param key the key of the release
+     */
+    String getPartName(String key) {
+        return PREFIX + key + PART_SUFFIX;
+    }
+
+    /**
+     * Returns the finished apk of a release, marked as just used
+     *
+     * @param key the key of the release
+     * @return the apk, null if not cached
+     */
+    File get(String key) {
+        File apk = new File(getDir(), PREFIX + key + APK_SUFFIX);
+        if (!apk.isFile() || apk.length() == 0) return null;
+        if (!apk.setLastModified(System.currentTimeMillis()))
+            Constants.WriteLog("ApkCache : failed to touch " + apk.getName());
+        return apk;
+    }
+
+    /**
+     * Returns an uri for a cached apk the package installer can read
+     *
+     * @param apk the apk
+     */
+    Uri getUri(File apk) {
+        return Constants.getFileUri(mContext, apk);
+    }
+
+    /**
+     * Turn the finished download of a release into a cached apk, then trim the cache
+     *
+     * @param key the key of the release
+     * @return the apk
+     * @throws IOException if the download is missing or can't be renamed
+     */
+    File commit(String key) throws IOException {
+        File part = new File(getDir(), getPartName(key));
+        File apk = new File(getDir(), PREFIX + key + APK_SUFFIX);
+        if (!part.isFile())
+            throw new IOException("Download missing : " + part.getName());
+        if (apk.exists() && !apk.delete())
+            throw new IOException("Can't replace " + apk.getName());
+        if (!part.renameTo(apk))
+            throw new IOException("Can't rename " + part.getName());
+        if (!apk.setLastModified(System.currentTimeMillis()))
+            Constants.WriteLog("ApkCache : failed to touch " + apk.getName());
+        Constants.WriteLog("ApkCache : cached " + apk.getName());
+        trim(key);
+        return apk;
+    }
+
+    /**
+     * Delete the finished and partial download of a release
+     *
+     * @param key the key of the release
+     */
+    void remove(String key) {
+        delete(new File(getDir(), PREFIX + key + APK_SUFFIX));
+        delete(new File(getDir(), getPartName(key)));
+    }
+
+    /**
+     * Evict the apks of versions installed by now and the file left by earlier plugin versions, then the least
+     * recently used files until the cache fits its size cap. The files of the journaled download are kept.
+     *
+     * @param keepKey the key of the release in use, never evicted, null for none
+     */
+    void trim(String keepKey) {
+        long installedVersionCode;
+        try {
+            installedVersionCode = Constants.getInstalledVersionCode(mContext);
+        } catch (Exception e) {
+            Constants.WriteLog("ApkCache : trim failed : " + e.toString());
+            return;
+        }
+
+        delete(new File(getDir(), LEGACY_FILE_NAME));
+        File[] files = getDir().listFiles();
+        if (files == null) return;
+
+        DownloadJournal.Entry entry = mDownloadJournal.get();
+        String journalKey = entry != null ? getKey(entry.versionCode, entry.digest, entry.url, entry.size) : null;
+
+        List<File> entries = new ArrayList<>();
+        long totalBytes = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(PREFIX) || !(name.endsWith(APK_SUFFIX) || name.endsWith(PART_SUFFIX))) continue;
+            String key = getKey(name);
+            if (key.equals(keepKey) || key.equals(journalKey) || isJournaled(entry, file)) {
+                totalBytes += file.length();
+                continue;
+            }
+
+            //Superseded, the installed version is the same or newer
+            long versionCode = getVersionCode(key);
+            if (versionCode > 0 && versionCode <= installedVersionCode) {
+                delete(file);
+                continue;
+            }
+            entries.add(file);
+            totalBytes += file.length();
+        }
+
+        if (totalBytes <= mMaxBytes) return;
+        //Hits and writes touch a file, the oldest one was used least recently
+        Collections.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long firstModified = first.lastModified();
+                long secondModified = second.lastModified();
+                return firstModified < secondModified ? -1 : (firstModified == secondModified ? 0 : 1);
+            }
+        });
+        for (File file : entries) {
+            if (totalBytes <= mMaxBytes) break;
+            totalBytes -= file.length();
+            delete(file);
+        }
+        Constants.WriteLog("ApkCache : trimmed to " + totalBytes + " bytes");
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Returns the Downloads directory, resolving it touches the disk
+     */
+    private synchronized File getDir() {
+        if (mDir == null)
+            mDir = Constants.getDownloadDir(mContext);
+        return mDir;
+    }
+
+    /**
+     * Check whether the journaled download points at a cache file, by path as written or by its apk uri
+     */
+    private static boolean isJournaled(DownloadJournal.Entry entry, File file) {
+        if (entry == null) return false;
+        if (file.getAbsolutePath().equals(entry.filePath)) return true;
+        return entry.fileUri != null && file.getName().equals(entry.fileUri.getLastPathSegment());
+    }
+
+    /**
+     * Returns the key of a cache file name
+     */
+    private static String getKey(String name) {
+        int end = name.endsWith(APK_SUFFIX) ? name.length() - APK_SUFFIX.length() : name.length() - PART_SUFFIX.length();
+        return name.substring(PREFIX.length(), end);
+    }
+
+    /**
+     * Returns the version in a key, 0 if unknown
+     */
+    private static long getVersionCode(String key) {
+        int index = key.indexOf('-');
+        return index < 0 ? 0 : Math.max(0, SegmentedDownloadEngine.parseLong(key.substring(0, index)));
+    }
+
+    /**
+     * Delete a file if it exists
+     */
+    private static void delete(File file) {
+        if (!file.exists()) return;
+        if (file.delete())
+            Constants.WriteLog("ApkCache : deleted " + file.getName());
+        else
+            Constants.WriteLog("ApkCache : failed to delete " + file.getName());
+    }
+    //endregion
+}
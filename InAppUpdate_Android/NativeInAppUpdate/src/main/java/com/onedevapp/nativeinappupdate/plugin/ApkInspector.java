@@ -0,0 +1,437 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * ApkInspector reads the package name, version code and signing certificates of an apk without
+ * extracting it. Only the end of central directory, the central directory, the APK Signing Block and
+ * the AndroidManifest.xml entry are mapped read only, the rest of the archive is never touched.
+ * <p>
+ * Certificates come from the v2/v3 APK Signing Block, or the v1 META-INF signature file if there is none.
+ * Signatures are not verified here, the system installer still does that.
+ */
+final class ApkInspector {
+
+    // region Declarations
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_MIN_SIZE = 22;
+    private static final int EOCD_MAX_COMMENT = 0xFFFF;
+    private static final int CENTRAL_ENTRY_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final String MANIFEST_NAME = "AndroidManifest.xml";
+
+    private static final long SIGNING_BLOCK_MAGIC_LO = 0x20676953204b5041L;    //"APK Sig "
+    private static final long SIGNING_BLOCK_MAGIC_HI = 0x3234206b636f6c42L;    //"Block 42"
+    private static final int SIGNATURE_SCHEME_V2_ID = 0x7109871a;
+    private static final int SIGNATURE_SCHEME_V3_ID = 0xf05368c0;
+
+    private static final int CHUNK_STRING_POOL = 0x0001;
+    private static final int CHUNK_XML = 0x0003;
+    private static final int CHUNK_XML_RESOURCE_MAP = 0x0180;
+    private static final int CHUNK_XML_START_ELEMENT = 0x0102;
+    private static final int STRING_POOL_UTF8_FLAG = 1 << 8;
+    private static final int ATTR_VERSION_CODE = 0x0101021b;
+    private static final int ATTR_VERSION_CODE_MAJOR = 0x01010576;
+    private static final int TYPE_STRING = 0x03;
+    private static final int TYPE_INT_DEC = 0x10;
+    private static final int TYPE_INT_HEX = 0x11;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+
+    //endregion
+
+    /**
+     * Identity of an apk.
+     */
+    static class ApkInfo {
+        String packageName;
+        long versionCode;
+        final List<String> certificateDigests = new ArrayList<>();   //SHA-256 of every signer certificate as hex
+    }
+
+    private ApkInspector() {
+    }
+
+    // region Public functions
+
+    /**
+     * Inspect the apk behind an uri
+     *
+     * @param context the context
+     * @param apkUri  the uri of the apk, either file or content
+     * @return the apk identity
+     * @throws IOException if the apk can't be opened or is invalid
+     */
+    static ApkInfo inspect(Context context, Uri apkUri) throws IOException {
+        ParcelFileDescriptor fileDescriptor = context.getContentResolver().openFileDescriptor(apkUri, "r");
+        if (fileDescriptor == null)
+            throw new IOException("Can't open " + apkUri);
+        FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
+        try {
+            return inspect(inputStream.getChannel());
+        } finally {
+            inputStream.close();
+            fileDescriptor.close();
+        }
+    }
+
+    /**
+     * Inspect the apk
+     *
+     * @param channel the channel of the apk, read only access is enough
+     * @return the apk identity
+     * @throws IOException if the apk is not a valid archive or has no readable manifest
+     */
+    static ApkInfo inspect(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < EOCD_MIN_SIZE) throw new IOException("Not a zip archive");
+
+        //Find the end of central directory record, it is followed only by an optional comment
+        int tailSize = (int) Math.min(fileSize, EOCD_MIN_SIZE + EOCD_MAX_COMMENT);
+        ByteBuffer tail = map(channel, fileSize - tailSize, tailSize);
+        int eocd = -1;
+        for (int i = tailSize - EOCD_MIN_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE && i + EOCD_MIN_SIZE + (tail.getShort(i + 20) & 0xFFFF) == tailSize) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) throw new IOException("End of central directory not found");
+
+        long centralDirSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+        long centralDirOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (centralDirOffset + centralDirSize > fileSize) throw new IOException("Invalid central directory");
+
+        ApkInfo info = new ApkInfo();
+        ByteBuffer centralDir = map(channel, centralDirOffset, centralDirSize);
+        long manifestOffset = -1;
+        List<long[]> v1SignatureEntries = new ArrayList<>();
+
+        int position = 0;
+        while (position + 46 <= centralDir.limit() && centralDir.getInt(position) == CENTRAL_ENTRY_SIGNATURE) {
+            int nameLength = centralDir.getShort(position + 28) & 0xFFFF;
+            int extraLength = centralDir.getShort(position + 30) & 0xFFFF;
+            int commentLength = centralDir.getShort(position + 32) & 0xFFFF;
+            String name = readString(centralDir, position + 46, nameLength, UTF_8);
+            long[] entry = {
+                    centralDir.getShort(position + 10) & 0xFFFF,        //compression method
+                    centralDir.getInt(position + 20) & 0xFFFFFFFFL,     //compressed size
+                    centralDir.getInt(position + 24) & 0xFFFFFFFFL,     //uncompressed size
+                    centralDir.getInt(position + 42) & 0xFFFFFFFFL      //local header offset
+            };
+
+            if (MANIFEST_NAME.equals(name)) {
+                manifestOffset = entry[3];
+                parseManifest(readEntry(channel, entry), info);
+            } else if (isV1SignatureFile(name)) {
+                v1SignatureEntries.add(entry);
+            }
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        if (manifestOffset < 0 || info.packageName == null)
+            throw new IOException("AndroidManifest.xml not found");
+
+        readSigningBlockCertificates(channel, centralDirOffset, info);
+        if (info.certificateDigests.isEmpty()) {
+            for (long[] entry : v1SignatureEntries) {
+                readPkcs7Certificates(readEntry(channel, entry), info);
+            }
+        }
+        return info;
+    }
+
+    /**
+     * SHA-256 of a certificate as hex
+     *
+     * @param encoded the DER encoded certificate
+     * @return the digest
+     */
+    static String certificateDigest(byte[] encoded) {
+        try {
+            return DigestVerifier.toHex(MessageDigest.getInstance("SHA-256").digest(encoded));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Map a region read only in little endian
+     */
+    private static ByteBuffer map(FileChannel channel, long offset, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) throw new IOException("Region too large");
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Read the uncompressed data of an entry found in the central directory
+     */
+    private static ByteBuffer readEntry(FileChannel channel, long[] entry) throws IOException {
+        long method = entry[0];
+        long compressedSize = entry[1];
+        long uncompressedSize = entry[2];
+        long headerOffset = entry[3];
+
+        ByteBuffer header = map(channel, headerOffset, LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) throw new IOException("Invalid local header");
+        long dataOffset = headerOffset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+        ByteBuffer data = map(channel, dataOffset, compressedSize);
+
+        if (method == METHOD_STORED) {
+            return data;
+        } else if (method == METHOD_DEFLATED) {
+            byte[] input = new byte[(int) compressedSize];
+            data.get(input);
+            byte[] output = new byte[(int) uncompressedSize];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(input);
+                int inflated = inflater.inflate(output);
+                if (inflated != output.length) throw new IOException("Entry inflated to " + inflated + " bytes");
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            } finally {
+                inflater.end();
+            }
+            return ByteBuffer.wrap(output).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        throw new IOException("Unsupported compression method " + method);
+    }
+
+    /**
+     * Read package and versionCode of the manifest element from binary xml
+     */
+    private static void parseManifest(ByteBuffer xml, ApkInfo info) throws IOException {
+        if ((xml.getShort(0) & 0xFFFF) != CHUNK_XML) throw new IOException("Invalid binary manifest");
+
+        int chunk = xml.getShort(2) & 0xFFFF;
+        int stringPool = -1;
+        while (chunk + 8 <= xml.limit()) {
+            int type = xml.getShort(chunk) & 0xFFFF;
+            int headerSize = xml.getShort(chunk + 2) & 0xFFFF;
+            int size = xml.getInt(chunk + 4);
+            if (size <= 0) break;
+
+            if (type == CHUNK_STRING_POOL) {
+                stringPool = chunk;
+            } else if (type == CHUNK_XML_START_ELEMENT && stringPool >= 0) {
+                int element = chunk + headerSize;
+                String name = poolString(xml, stringPool, xml.getInt(element + 4));
+                if (!"manifest".equals(name)) break;
+
+                int attributeStart = xml.getShort(element + 8) & 0xFFFF;
+                int attributeSize = xml.getShort(element + 10) & 0xFFFF;
+                int attributeCount = xml.getShort(element + 12) & 0xFFFF;
+                long versionCode = 0;
+                long versionCodeMajor = 0;
+                for (int i = 0; i < attributeCount; i++) {
+                    int attribute = element + attributeStart + i * attributeSize;
+                    int nameIndex = xml.getInt(attribute + 4);
+                    int rawValue = xml.getInt(attribute + 8);
+                    int dataType = xml.get(attribute + 15) & 0xFF;
+                    int data = xml.getInt(attribute + 16);
+                    int resourceId = resourceId(xml, nameIndex);
+
+                    if (resourceId == ATTR_VERSION_CODE || (resourceId == 0 && "versionCode".equals(poolString(xml, stringPool, nameIndex)))) {
+                        if (dataType == TYPE_INT_DEC || dataType == TYPE_INT_HEX) versionCode = data & 0xFFFFFFFFL;
+                    } else if (resourceId == ATTR_VERSION_CODE_MAJOR) {
+                        if (dataType == TYPE_INT_DEC || dataType == TYPE_INT_HEX) versionCodeMajor = data & 0xFFFFFFFFL;
+                    } else if (resourceId == 0 && "package".equals(poolString(xml, stringPool, nameIndex))) {
+                        info.packageName = poolString(xml, stringPool, dataType == TYPE_STRING ? data : rawValue);
+                    }
+                }
+                info.versionCode = (versionCodeMajor << 32) | versionCode;
+                return;
+            }
+            chunk += size;
+        }
+        throw new IOException("Manifest element not found");
+    }
+
+    /**
+     * Resource id of an attribute name from the resource map chunk, 0 if none
+     */
+    private static int resourceId(ByteBuffer xml, int nameIndex) {
+        int chunk = xml.getShort(2) & 0xFFFF;
+        while (chunk + 8 <= xml.limit()) {
+            int type = xml.getShort(chunk) & 0xFFFF;
+            int headerSize = xml.getShort(chunk + 2) & 0xFFFF;
+            int size = xml.getInt(chunk + 4);
+            if (size <= 0) break;
+            if (type == CHUNK_XML_RESOURCE_MAP) {
+                int count = (size - headerSize) / 4;
+                return nameIndex >= 0 && nameIndex < count ? xml.getInt(chunk + headerSize + nameIndex * 4) : 0;
+            }
+            chunk += size;
+        }
+        return 0;
+    }
+
+    /**
+     * Read a string from the string pool chunk
+     */
+    private static String poolString(ByteBuffer xml, int pool, int index) {
+        int stringCount = xml.getInt(pool + 8);
+        if (index < 0 || index >= stringCount) return null;
+
+        int headerSize = xml.getShort(pool + 2) & 0xFFFF;
+        int flags = xml.getInt(pool + 16);
+        int stringsStart = xml.getInt(pool + 20);
+        int offset = pool + stringsStart + xml.getInt(pool + headerSize + index * 4);
+
+        if ((flags & STRING_POOL_UTF8_FLAG) != 0) {
+            //utf16 length then utf8 length, each 1 or 2 bytes
+            offset += (xml.get(offset) & 0x80) != 0 ? 2 : 1;
+            int length = xml.get(offset) & 0xFF;
+            if ((length & 0x80) != 0) {
+                length = ((length & 0x7F) << 8) | (xml.get(offset + 1) & 0xFF);
+                offset += 2;
+            } else {
+                offset += 1;
+            }
+            return readString(xml, offset, length, UTF_8);
+        }
+
+        int length = xml.getShort(offset) & 0xFFFF;
+        if ((length & 0x8000) != 0) {
+            length = ((length & 0x7FFF) << 16) | (xml.getShort(offset + 2) & 0xFFFF);
+            offset += 4;
+        } else {
+            offset += 2;
+        }
+        return readString(xml, offset, length * 2, UTF_16LE);
+    }
+
+    /**
+     * Read the certificates of every signer in the v2 and v3 schemes of the APK Signing Block
+     */
+    private static void readSigningBlockCertificates(FileChannel channel, long centralDirOffset, ApkInfo info) throws IOException {
+        if (centralDirOffset < 32) return;
+
+        ByteBuffer footer = map(channel, centralDirOffset - 24, 24);
+        if (footer.getLong(8) != SIGNING_BLOCK_MAGIC_LO || footer.getLong(16) != SIGNING_BLOCK_MAGIC_HI) return;
+
+        long blockSize = footer.getLong(0);
+        long blockOffset = centralDirOffset - blockSize - 8;
+        if (blockSize < 24 || blockOffset < 0) throw new IOException("Invalid APK Signing Block");
+
+        //Pairs of uint64 length, uint32 id and value, between the leading size and the footer
+        ByteBuffer pairs = map(channel, blockOffset + 8, blockSize - 24);
+        while (pairs.remaining() >= 12) {
+            long length = pairs.getLong();
+            if (length < 4 || length > pairs.remaining()) throw new IOException("Invalid APK Signing Block pair");
+            int id = pairs.getInt();
+            int valueEnd = pairs.position() + (int) length - 4;
+
+            if (id == SIGNATURE_SCHEME_V2_ID || id == SIGNATURE_SCHEME_V3_ID) {
+                ByteBuffer value = slice(pairs, pairs.position(), valueEnd);
+                ByteBuffer signers = lengthPrefixed(value);
+                while (signers.hasRemaining()) {
+                    ByteBuffer signer = lengthPrefixed(signers);
+                    ByteBuffer signedData = lengthPrefixed(signer);
+                    lengthPrefixed(signedData);     //digests
+                    ByteBuffer certificates = lengthPrefixed(signedData);
+                    while (certificates.hasRemaining()) {
+                        ByteBuffer certificate = lengthPrefixed(certificates);
+                        byte[] encoded = new byte[certificate.remaining()];
+                        certificate.get(encoded);
+                        addDigest(info, certificateDigest(encoded));
+                    }
+                }
+            }
+            pairs.position(valueEnd);
+        }
+    }
+
+    /**
+     * Read the certificates of a v1 PKCS#7 signature file
+     */
+    private static void readPkcs7Certificates(ByteBuffer data, ApkInfo info) throws IOException {
+        byte[] encoded = new byte[data.remaining()];
+        data.get(encoded);
+        try {
+            for (Certificate certificate : CertificateFactory.getInstance("X.509").generateCertificates(new ByteArrayInputStream(encoded))) {
+                addDigest(info, certificateDigest(certificate.getEncoded()));
+            }
+        } catch (CertificateException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Add a certificate digest once
+     */
+    private static void addDigest(ApkInfo info, String digest) {
+        if (!info.certificateDigests.contains(digest)) info.certificateDigests.add(digest);
+    }
+
+    /**
+     * Read a uint32 length prefixed value and move past it
+     */
+    private static ByteBuffer lengthPrefixed(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 4) throw new IOException("Truncated signature data");
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) throw new IOException("Invalid signature data length");
+        ByteBuffer value = slice(buffer, buffer.position(), buffer.position() + length);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * Slice [start, end) of a buffer in little endian
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.limit(end);
+        duplicate.position(start);
+        return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Read a string of length bytes at offset
+     */
+    private static String readString(ByteBuffer buffer, int offset, int length, Charset charset) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, charset);
+    }
+
+    /**
+     * Whether the entry is a v1 signature block file
+     */
+    private static boolean isV1SignatureFile(String name) {
+        String upper = name.toUpperCase(Locale.US);
+        return upper.startsWith("META-INF/") && upper.indexOf('/', 9) < 0
+                && (upper.endsWith(".RSA") || upper.endsWith(".DSA") || upper.endsWith(".EC"));
+    }
+    //endregion
+}
@@ -0,0 +1,170 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.content.Context;
+import android.os.Build;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * ApkSplit describes one split apk of a release in the version manifest, like
+ * {"name":"config.arm64_v8a","url":"https://host/arm64.apk","size":123,"sha256":"...","abi":"arm64-v8a"}
+ * Config splits carry an "abi" or a "density", either a dpi value or a bucket name like "xxhdpi".
+ * Only the splits matching the device are downloaded, splits without abi and density always are.
+ */
+class ApkSplit {
+
+    // region Declarations
+    final String name;      //name of the split in the install session
+    final String url;       //link to download the split
+    final long size;        //size in bytes, 0 if unknown
+    final String sha256;    //SHA-256 as hex, null if unknown
+    final String abi;       //abi of a native code config split, null if none
+    final int density;      //dpi of a density config split, 0 if none
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param name    the name in the install session
+     * @param url     the link to download
+     * @param size    the size in bytes, 0 if unknown
+     * @param sha256  the SHA-256 as hex, null if unknown
+     * @param abi     the abi of a config split, null if none
+     * @param density the dpi of a config split, 0 if none
+     */
+    ApkSplit(String name, String url, long size, String sha256, String abi, int density) {
+        this.name = name;
+        this.url = url;
+        this.size = size;
+        this.sha256 = sha256;
+        this.abi = abi;
+        this.density = density;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Parse the splits of a manifest
+     *
+     * @param array the "splits" array, null if none
+     * @return the splits, null if none
+     * @throws JSONException if a split has no name or url
+     */
+    static List<ApkSplit> parse(JSONArray array) throws JSONException {
+        if (array == null || array.length() == 0) return null;
+        List<ApkSplit> splits = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject object = array.getJSONObject(i);
+            String sha256 = object.optString("sha256", "");
+            String abi = object.optString("abi", "");
+            splits.add(new ApkSplit(object.getString("name"), object.getString("url"), object.optLong("size", 0),
+                    sha256.isEmpty() ? null : sha256, abi.isEmpty() ? null : abi, parseDensity(object.optString("density", ""))));
+        }
+        return splits;
+    }
+
+    /**
+     * Select the splits for this device: every split without abi and density, the split of the most
+     * preferred supported abi, and the density split the system would pick for the screen
+     *
+     * @param context the context
+     * @param splits  all splits of the release
+     * @return the splits to install
+     */
+    static List<ApkSplit> selectForDevice(Context context, List<ApkSplit> splits) {
+        return select(splits, Build.SUPPORTED_ABIS, context.getResources().getDisplayMetrics().densityDpi);
+    }
+
+    /**
+     * Select the splits for the abis and screen density
+     *
+     * @param splits        all splits of the release
+     * @param supportedAbis the abis of the device, most preferred first
+     * @param densityDpi    the screen density
+     * @return the splits to install
+     */
+    static List<ApkSplit> select(List<ApkSplit> splits, String[] supportedAbis, int densityDpi) {
+        List<ApkSplit> selected = new ArrayList<>();
+        ApkSplit abiSplit = null;
+        int abiRank = Integer.MAX_VALUE;
+        ApkSplit densitySplit = null;
+
+        for (ApkSplit split : splits) {
+            if (split.abi != null) {
+                for (int i = 0; i < supportedAbis.length && i < abiRank; i++) {
+                    if (supportedAbis[i].equals(split.abi)) {
+                        abiSplit = split;
+                        abiRank = i;
+                    }
+                }
+            } else if (split.density > 0) {
+                if (densitySplit == null || isBetterDensity(split.density, densitySplit.density, densityDpi))
+                    densitySplit = split;
+            } else {
+                selected.add(split);
+            }
+        }
+
+        if (abiSplit != null) selected.add(abiSplit);
+        if (densitySplit != null) selected.add(densitySplit);
+        Constants.WriteLog("Selected " + selected.size() + " of " + splits.size() + " splits");
+        return selected;
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Like the resource system, the closest density at or above the screen wins, else the highest below it
+     */
+    private static boolean isBetterDensity(int candidate, int current, int densityDpi) {
+        boolean isCandidateAbove = candidate >= densityDpi;
+        boolean isCurrentAbove = current >= densityDpi;
+        if (isCandidateAbove != isCurrentAbove) return isCandidateAbove;
+        return isCandidateAbove ? candidate < current : candidate > current;
+    }
+
+    /**
+     * Parse a density given as dpi or bucket name, 0 if missing or unknown
+     */
+    private static int parseDensity(String value) {
+        switch (value.toLowerCase(Locale.US)) {
+            case "":
+                return 0;
+            case "ldpi":
+                return 120;
+            case "mdpi":
+                return 160;
+            case "tvdpi":
+                return 213;
+            case "hdpi":
+                return 240;
+            case "xhdpi":
+                return 320;
+            case "xxhdpi":
+                return 480;
+            case "xxxhdpi":
+                return 640;
+            default:
+                try {
+                    return Integer.parseInt(value.trim());
+                } catch (NumberFormatException e) {
+                    Constants.WriteLog("Unknown split density " + value);
+                    return 0;
+                }
+        }
+    }
+    //endregion
+}
@@ -8,7 +8,15 @@ public abstract class BaseUpdateClass {
     // region Declarations
     public int mUpdateType; //update type wither flexible or immediate
     public String mUpdateLink;  //link to download apk for third party
-    public OnUpdateListener mOnUpdateListener;  //Callback listener
+    public String[] mMirrorLinks;   //other links serving the same apk for third party, null for none
+    public String mManifestLink;    //link to the version manifest for third party
+    public String mPatchLink;   //link to download patch against the installed apk for third party
+    public String mExpectedDigest;  //expected SHA-256 of the apk for third party
+    public long mExpectedSize;  //expected size of the apk for third party
+    public boolean mApkValidation = true;   //check package, version and certificate of the apk before install for third party
+    public int mDownloadEngineType = Constants.DOWNLOAD_ENGINE_SYSTEM;    //engine to download apk for third party
+    public int mDownloadSegments = SegmentedDownloadEngine.DEFAULT_SEGMENT_COUNT;    //max parallel segments for segmented engine
+    protected volatile OnUpdateListener mOnUpdateListener;  //Callback listener, set once before any event
     public UpdateManager mUpdateManager;    //Manager reference
 
     //endregion
@@ -37,6 +45,64 @@ public abstract class BaseUpdateClass {
         this.mUpdateLink = mUpdateLink;
     }
 
+    /**
+     * Set the mirror links for download
+     *
+     * @param mMirrorLinks the other links serving the same apk as the update link, null for none
+     */
+    public void setMirrorLinks(String[] mMirrorLinks) {
+        this.mMirrorLinks = mMirrorLinks;
+    }
+
+    /**
+     * Set the version manifest link
+     *
+     * @param mManifestLink the link of the version manifest
+     */
+    public void setManifestLink(String mManifestLink) {
+        this.mManifestLink = mManifestLink;
+    }
+
+    /**
+     * Set the patch link for download
+     *
+     * @param mPatchLink the link of the patch against the installed apk
+     */
+    public void setPatchLink(String mPatchLink) {
+        this.mPatchLink = mPatchLink;
+    }
+
+    /**
+     * Set the expected digest and size of the downloaded apk
+     *
+     * @param sha256 the SHA-256 as hex, null or empty to skip
+     * @param size   the size in bytes, 0 to skip
+     */
+    public void setExpectedDigest(String sha256, long size) {
+        this.mExpectedDigest = sha256;
+        this.mExpectedSize = size;
+    }
+
+    /**
+     * Set whether the downloaded apk is checked before install
+     *
+     * @param apkValidation true to check package, version and signing certificate
+     */
+    public void setApkValidation(boolean apkValidation) {
+        this.mApkValidation = apkValidation;
+    }
+
+    /**
+     * Set the download engine and its max parallel segments
+     *
+     * @param downloadEngine   the engine, system, segmented or session, session streams a third party update into the installer
+     * @param downloadSegments the max parallel segments for segmented engine
+     */
+    public void setDownloadEngine(int downloadEngine, int downloadSegments) {
+        this.mDownloadEngineType = downloadEngine;
+        this.mDownloadSegments = downloadSegments;
+    }
+
     /**
      * Set the update type.
      *
@@ -57,6 +123,68 @@ public abstract class BaseUpdateClass {
 
     //endregion
 
+    // region helper functions
+
+    /**
+     * Create a new engine for a single download as configured
+     *
+     * @param journal the journal to resume from and record into, null for none
+     * @return the download engine
+     */
+    protected DownloadEngine newDownloadEngine(DownloadJournal journal) {
+        return createDownloadEngine(mDownloadEngineType, mDownloadSegments, mMirrorLinks, mPatchLink, mExpectedDigest, mExpectedSize, journal);
+    }
+
+    /**
+     * Create a new engine for a single download
+     *
+     * @param downloadEngine   the engine, system or segmented, session falls back to segmented as a session download
+     *                         is made by ThirdPartyUpdate only
+     * @param downloadSegments the max parallel segments for segmented engine
+     * @param mirrorLinks      the other links serving the same apk, null for none
+     * @param patchLink        the link of the patch against the installed apk, null for the full apk
+     * @param expectedDigest   the expected SHA-256 as hex, null to skip
+     * @param expectedSize     the expected size in bytes, 0 to skip
+     * @param journal          the journal to resume from and record into, null for none
+     * @return the download engine
+     */
+    static DownloadEngine createDownloadEngine(int downloadEngine, int downloadSegments, String[] mirrorLinks,
+                                               String patchLink, String expectedDigest, long expectedSize,
+                                               DownloadJournal journal) {
+        DigestVerifier verifier = createVerifier(expectedDigest, expectedSize);
+        boolean isPatch = patchLink != null && !patchLink.isEmpty();
+        //The patched apk goes into the same file, a journaled file could be half patch output
+        if (isPatch) journal = null;
+
+        DownloadEngine engine;
+        if (downloadEngine == Constants.DOWNLOAD_ENGINE_SEGMENTED || downloadEngine == Constants.DOWNLOAD_ENGINE_SESSION) {
+            engine = new SegmentedDownloadEngine(downloadSegments, verifier, mirrorLinks, journal);
+        } else {
+            engine = new SystemDownloadEngine(verifier, mirrorLinks, journal);
+        }
+
+        if (isPatch) {
+            return new PatchDownloadEngine(patchLink, verifier, engine);
+        }
+        return engine;
+    }
+
+    /**
+     * Create the verifier of a downloaded apk
+     *
+     * @param expectedDigest the expected SHA-256 as hex, null to skip
+     * @param expectedSize   the expected size in bytes, 0 to skip
+     * @return the verifier, null if there is nothing to verify
+     */
+    static DigestVerifier createVerifier(String expectedDigest, long expectedSize) {
+        if ((expectedDigest != null && !expectedDigest.isEmpty()) || expectedSize > 0) {
+            return new DigestVerifier(expectedDigest, expectedSize);
+        }
+        return null;
+    }
+
+    //endregion
+
     // region abstract Public functions
     public abstract void checkUpdate() throws Exception;
 
@@ -66,5 +194,23 @@ public abstract class BaseUpdateClass {
 
     public abstract void continueUpdate() throws Exception;
 
+    public abstract void cancelUpdate() throws Exception;
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Refresh the cached update state in background, nothing to refresh by default
+     */
+    public void refreshUpdateState() {
+    }
+
+    /**
+     * Do the costly setup ahead of the first operation, called on the worker thread, nothing to do by default
+     */
+    public void prewarm() {
+    }
+
     //endregion
 }
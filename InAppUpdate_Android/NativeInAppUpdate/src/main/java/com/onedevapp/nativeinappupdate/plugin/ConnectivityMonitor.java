@@ -0,0 +1,247 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.os.SystemClock;
+
+/**
+ * ConnectivityMonitor follows the default network through a NetworkCallback and caches its state,
+ * so a read is a single volatile load instead of a ConnectivityManager query.
+ * On Nougat and above the state comes from registerDefaultNetworkCallback, below it any network change
+ * triggers one query of the active network. Downloads wait here while offline and resume on reconnect.
+ */
+class ConnectivityMonitor {
+
+    // region Declarations
+    static final int TRANSPORT_NONE = -1;
+    static final int TRANSPORT_OTHER = 0;
+    static final int TRANSPORT_WIFI = 1;
+    static final int TRANSPORT_CELLULAR = 2;
+    static final int TRANSPORT_ETHERNET = 3;
+    static final int TRANSPORT_VPN = 4;
+
+    private static ConnectivityMonitor sInstance;
+
+    private final ConnectivityManager mConnectivityManager;
+    private volatile NetworkState mState;
+    private final Object mWaitLock = new Object();
+
+    //endregion
+
+    /**
+     * Immutable state of the default network.
+     */
+    static class NetworkState {
+        final boolean isConnected;
+        final int transport;        //one of the TRANSPORT_ values
+        final boolean isMetered;
+        final int downstreamKbps;   //estimated link bandwidth, 0 if unknown
+        final int upstreamKbps;     //estimated link bandwidth, 0 if unknown
+
+        NetworkState(boolean isConnected, int transport, boolean isMetered, int downstreamKbps, int upstreamKbps) {
+            this.isConnected = isConnected;
+            this.transport = transport;
+            this.isMetered = isMetered;
+            this.downstreamKbps = downstreamKbps;
+            this.upstreamKbps = upstreamKbps;
+        }
+
+        @Override
+        public String toString() {
+            return isConnected ? "transport " + transport + (isMetered ? " metered " : " unmetered ") + downstreamKbps + "kbps" : "offline";
+        }
+    }
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param context the context
+     */
+    @SuppressLint("MissingPermission")
+    private ConnectivityMonitor(Context context) {
+        mConnectivityManager = (ConnectivityManager) context.getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+        refresh();
+
+        ConnectivityManager.NetworkCallback networkCallback;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            networkCallback = new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
+                    setState(toState(networkCapabilities));
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    setState(toState(null));
+                }
+            };
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                mConnectivityManager.registerDefaultNetworkCallback(networkCallback, PluginExecutor.get().getHandler());
+            } else {
+                mConnectivityManager.registerDefaultNetworkCallback(networkCallback);
+            }
+        } else {
+            //Any network may change the default one, ask which is active after each change
+            networkCallback = new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    refresh();
+                }
+
+                @Override
+                public void onCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
+                    refresh();
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    refresh();
+                }
+            };
+            NetworkRequest request = new NetworkRequest.Builder()
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    .build();
+            mConnectivityManager.registerNetworkCallback(request, networkCallback);
+        }
+    }
+
+    /**
+     * Returns the monitor of the process, registered on first use
+     *
+     * @param context the context
+     */
+    static synchronized ConnectivityMonitor get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ConnectivityMonitor(context);
+        }
+        return sInstance;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Returns the cached state of the default network
+     */
+    NetworkState getState() {
+        return mState;
+    }
+
+    /**
+     * Returns whether the default network has internet
+     */
+    boolean isConnected() {
+        return mState.isConnected;
+    }
+
+    /**
+     * Wait until the default network has internet
+     *
+     * @param timeoutMs the max time to wait
+     * @return true if connected else false on timeout
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    boolean awaitConnected(long timeoutMs) throws InterruptedException {
+        if (mState.isConnected) return true;
+
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        synchronized (mWaitLock) {
+            while (!mState.isConnected) {
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                if (remaining <= 0) return false;
+                mWaitLock.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Publish a new state and wake up the waiting downloads
+     */
+    private void setState(NetworkState state) {
+        mState = state;
+        Constants.WriteLog("Network : " + state);
+        if (state.isConnected) {
+            synchronized (mWaitLock) {
+                mWaitLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Query the active network once
+     */
+    @SuppressLint("MissingPermission")
+    @SuppressWarnings("deprecation")
+    private void refresh() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            Network network = mConnectivityManager.getActiveNetwork();
+            setState(toState(network == null ? null : mConnectivityManager.getNetworkCapabilities(network)));
+            return;
+        }
+
+        NetworkInfo networkInfo = mConnectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            setState(toState(null));
+            return;
+        }
+        int transport;
+        switch (networkInfo.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+                transport = TRANSPORT_WIFI;
+                break;
+            case ConnectivityManager.TYPE_MOBILE:
+                transport = TRANSPORT_CELLULAR;
+                break;
+            case ConnectivityManager.TYPE_ETHERNET:
+                transport = TRANSPORT_ETHERNET;
+                break;
+            case ConnectivityManager.TYPE_VPN:
+                transport = TRANSPORT_VPN;
+                break;
+            default:
+                transport = TRANSPORT_OTHER;
+        }
+        setState(new NetworkState(true, transport, mConnectivityManager.isActiveNetworkMetered(), 0, 0));
+    }
+
+    /**
+     * Convert network capabilities to a state
+     *
+     * @param capabilities the capabilities, null when there is no network
+     */
+    private static NetworkState toState(NetworkCapabilities capabilities) {
+        if (capabilities == null || !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET))
+            return new NetworkState(false, TRANSPORT_NONE, false, 0, 0);
+
+        int transport;
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_VPN)) {
+            transport = TRANSPORT_VPN;
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            transport = TRANSPORT_WIFI;
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            transport = TRANSPORT_ETHERNET;
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            transport = TRANSPORT_CELLULAR;
+        } else {
+            transport = TRANSPORT_OTHER;
+        }
+        return new NetworkState(true, transport,
+                !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED),
+                capabilities.getLinkDownstreamBandwidthKbps(), capabilities.getLinkUpstreamBandwidthKbps());
+    }
+    //endregion
+}
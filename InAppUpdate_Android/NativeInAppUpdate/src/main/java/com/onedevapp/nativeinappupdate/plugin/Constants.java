@@ -1,14 +1,18 @@
 package com.onedevapp.nativeinappupdate.plugin;
 
-import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.content.Context;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
+import android.net.Uri;
 import android.os.Build;
+import android.os.Environment;
 import android.util.Log;
 
+import androidx.core.content.FileProvider;
+
+import java.io.File;
+
 /**
  * Some Constant values
  */
@@ -16,6 +20,30 @@ public class Constants {
     public static final int PLAY_STORE_UPDATE = 0;
     public static final int THIRD_PARTY_UPDATE = 1;
 
+    public static final int DOWNLOAD_ENGINE_SYSTEM = 0;     //Download through the system DownloadManager
+    public static final int DOWNLOAD_ENGINE_SEGMENTED = 1;  //Download with parallel HTTP range requests
+    public static final int DOWNLOAD_ENGINE_SESSION = 2;    //Stream into a PackageInstaller session, no file is kept
+
+    public static final int DELIVERY_MODE_CALLBACK = 0;     //Every event goes to the handler
+    public static final int DELIVERY_MODE_STATUS_BLOCK = 1; //Progress is polled from the status buffer, the rest goes to the handler
+
+    public static final int ACTIVITY_LEVEL_MENU = 0;        //Game is idle in menus, download at full speed
+    public static final int ACTIVITY_LEVEL_LOADING = 1;     //Game is loading assets, fewer download threads
+    public static final int ACTIVITY_LEVEL_IN_MATCH = 2;    //Game is in realtime play, one slow low priority download thread
+
+    public static final int CHANNEL_PLAY_STORE = 0;         //App binary in the Play Store
+    public static final int CHANNEL_APP_MANIFEST = 1;       //App binary described by a third party version manifest
+    public static final int CHANNEL_CONTENT_MANIFEST = 2;   //Content versioned apart from the app, described by a version manifest
+
+    public static final int ERROR_VERIFICATION_FAILED = -103;   //Downloaded apk doesn't match the expected digest or size
+    public static final int ERROR_APK_INVALID = -104;   //Downloaded apk can't be read
+    public static final int ERROR_APK_PACKAGE_MISMATCH = -105;  //Downloaded apk is a different package
+    public static final int ERROR_APK_VERSION_NOT_NEWER = -106; //Downloaded apk is not newer than the installed one
+    public static final int ERROR_APK_SIGNATURE_MISMATCH = -107;    //Downloaded apk is signed with another certificate
+    public static final int ERROR_MANIFEST_FAILED = -108;   //Version manifest can't be fetched or parsed
+    public static final int ERROR_INSTALL_FAILED = -109;    //Package installer rejected the streamed apk
+    public static final int ERROR_CHECK_TIMEOUT = -110;     //Channel of a batched check didn't answer in time
+
     /**
      * To write library messages to logcat
      */
@@ -34,32 +62,15 @@ public class Constants {
 
 
     /**
-     * Check whether any network is available or not
+     * Check whether any network is available or not, read from the cached default network state
      *
      * @param activity current context
-     * @return boolean true if any network available else false
+     * @return boolean true if the default network has internet, of any transport, else false
      */
-    @SuppressLint("MissingPermission")
     public static boolean IsNetworkAvailable(final Activity activity) {
-
-        ConnectivityManager connMgr = (ConnectivityManager) activity.getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo activeNetworkInfo = connMgr.getActiveNetworkInfo();
-        if (activeNetworkInfo != null) { // connected to the internet
-            if (activeNetworkInfo.getType() == ConnectivityManager.TYPE_WIFI) {
-                // connected to wifi
-                Constants.WriteLog("Active network is wifi");
-                return true;
-            } else if (activeNetworkInfo.getType() == ConnectivityManager.TYPE_MOBILE) {
-                // connected to the mobile provider's data plan
-                Constants.WriteLog("Active network is mobile");
-                return true;
-            } else {
-                return false;
-            }
-        } else {
-            Constants.WriteLog("No active network found");
-            return false;
-        }
+        ConnectivityMonitor.NetworkState networkState = ConnectivityMonitor.get(activity).getState();
+        Constants.WriteLog("Active network : " + networkState);
+        return networkState.isConnected;
     }
 
     /**
@@ -86,4 +97,44 @@ public class Constants {
         return context.checkSelfPermission(permission) == PackageManager.PERMISSION_GRANTED;
     }
 
+    /**
+     * Get the version code of the running app
+     *
+     * @param context current context
+     * @return the long version code on Pie and above else the version code
+     * @throws PackageManager.NameNotFoundException never for the own package
+     */
+    @SuppressWarnings("deprecation")
+    public static long getInstalledVersionCode(Context context) throws PackageManager.NameNotFoundException {
+        PackageInfo packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)
+            return packageInfo.getLongVersionCode();
+        return packageInfo.versionCode;
+    }
+
+    /**
+     * Get the app specific directory where the plugin keeps downloaded apks, no permission needed
+     *
+     * @param context current context
+     * @return external files Downloads directory if available else internal files directory
+     */
+    public static File getDownloadDir(Context context) {
+        File dir = context.getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS);
+        return dir != null ? dir : context.getFilesDir();
+    }
+
+    /**
+     * Get an uri for a private file which the package installer can read
+     *
+     * @param context current context
+     * @param file    the file
+     * @return content uri from the plugin file provider on Nougat and above else file uri
+     */
+    public static Uri getFileUri(Context context, File file) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return FileProvider.getUriForFile(context, context.getPackageName() + ".native_in_app_update-file-provider", file);
+        }
+        return Uri.fromFile(file);
+    }
+
 }
@@ -0,0 +1,221 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * DeltaPatcher rebuilds the new apk from the installed base apk and a bsdiff patch read as a stream,
+ * so the patch itself is never stored. The new apk is written strictly in order.
+ * <p>
+ * The patch starts with the base it was made from, checked before anything is written, as a patch applied to
+ * another build would rebuild a corrupt apk. The rest is the ENDSLEY/BSDIFF43 format of bsdiff 4.3 by
+ * Matthew Endsley, with the body gzip compressed instead of bzip2:
+ * <pre>
+ *   magic "INAPPUPDATE/BASE", offset baseSize, 32 bytes SHA-256 of the base
+ *   magic "ENDSLEY/BSDIFF43", offset newSize, then a gzip stream of entries until newSize bytes are written:
+ *     offset addLength, offset copyLength, offset seek
+ *     addLength bytes added byte-wise to the base bytes at the base position, which then moves on by addLength
+ *     copyLength bytes carried in the patch
+ *     seek moves the base position, may be negative
+ * </pre>
+ * An offset is 8 bytes of magnitude, little endian, with the sign in the top bit.
+ * Patches are made with PatchGenerator of the PatchTool module, or with the bsdiff tool by recompressing its body,
+ * see the PatchTool README.
+ */
+final class DeltaPatcher {
+
+    // region Declarations
+    static final byte[] BASE_MAGIC = {'I', 'N', 'A', 'P', 'P', 'U', 'P', 'D', 'A', 'T', 'E', '/', 'B', 'A', 'S', 'E'};
+    static final byte[] MAGIC = {'E', 'N', 'D', 'S', 'L', 'E', 'Y', '/', 'B', 'S', 'D', 'I', 'F', 'F', '4', '3'};
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    //endregion
+
+    private DeltaPatcher() {
+    }
+
+    // region Public functions
+
+    /**
+     * Apply the patch on base and write the new apk, blocks until done
+     *
+     * @param base     the installed base apk
+     * @param patch    the patch stream as served
+     * @param output   the new apk, replaced if exists
+     * @param listener the progress listener reporting written bytes of the new apk
+     * @param verifier the verifier of the new apk, null to skip
+     * @return the size of the new apk
+     * @throws IOException if the patch is invalid, is for another base or the thread was interrupted
+     */
+    static long apply(File base, InputStream patch, File output, DownloadEngine.ProgressListener listener,
+                      DigestVerifier verifier) throws IOException {
+        checkBase(base, patch);
+
+        byte[] header = new byte[MAGIC.length + 8];
+        new DataInputStream(patch).readFully(header);
+        if (!Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC))
+            throw new IOException("Not a bsdiff patch");
+        long newSize = readOffset(header, MAGIC.length);
+        if (newSize < 0)
+            throw new IOException("Invalid patch size " + newSize);
+
+        BufferedInputStream body = new BufferedInputStream(patch, BUFFER_SIZE);
+        body.mark(3);
+        if (body.read() == 'B' && body.read() == 'Z' && body.read() == 'h')
+            throw new IOException("Patch body is bzip2 compressed, recompress it with gzip");
+        body.reset();
+        DataInputStream in = new DataInputStream(new GZIPInputStream(body, BUFFER_SIZE));
+
+        RandomAccessFile baseFile = new RandomAccessFile(base, "r");
+        RandomAccessFile outputFile = new RandomAccessFile(output, "rw");
+        try {
+            outputFile.setLength(newSize);
+            FileChannel baseChannel = baseFile.getChannel();
+            FileChannel outputChannel = outputFile.getChannel();
+            long baseSize = baseChannel.size();
+            byte[] control = new byte[24];
+            byte[] buffer = new byte[BUFFER_SIZE];
+            byte[] baseBuffer = new byte[BUFFER_SIZE];
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            ByteBuffer baseByteBuffer = ByteBuffer.wrap(baseBuffer);
+            long position = 0;
+            long basePosition = 0;
+
+            while (position < newSize) {
+                if (Thread.currentThread().isInterrupted())
+                    throw new InterruptedIOException("Patch cancelled");
+
+                in.readFully(control);
+                long addLength = readOffset(control, 0);
+                long copyLength = readOffset(control, 8);
+                long seek = readOffset(control, 16);
+                if (addLength < 0 || copyLength < 0 || position + addLength + copyLength > newSize)
+                    throw new IOException("Invalid patch entry");
+
+                //Diff bytes are added to the base, bytes outside the base count as 0
+                long remaining = addLength;
+                while (remaining > 0) {
+                    int length = (int) Math.min(remaining, buffer.length);
+                    in.readFully(buffer, 0, length);
+                    readBase(baseChannel, baseByteBuffer, basePosition, length, baseSize);
+                    for (int i = 0; i < length; i++) {
+                        buffer[i] += baseBuffer[i];
+                    }
+                    position = write(outputChannel, byteBuffer, position, length, verifier);
+                    basePosition += length;
+                    remaining -= length;
+                }
+
+                remaining = copyLength;
+                while (remaining > 0) {
+                    int length = (int) Math.min(remaining, buffer.length);
+                    in.readFully(buffer, 0, length);
+                    position = write(outputChannel, byteBuffer, position, length, verifier);
+                    remaining -= length;
+                }
+
+                basePosition += seek;
+                listener.onProgress(position, newSize);
+            }
+
+            if (verifier != null) verifier.verify();
+            return newSize;
+        } catch (EOFException e) {
+            throw new IOException("Patch ended early");
+        } finally {
+            baseFile.close();
+            outputFile.close();
+        }
+    }
+
+    /**
+     * Returns the offset stored at index, 8 bytes of magnitude little endian with the sign in the top bit
+     *
+     * @param bytes the bytes
+     * @param index the index of the first byte
+     */
+    static long readOffset(byte[] bytes, int index) {
+        long value = bytes[index + 7] & 0x7F;
+        for (int i = 6; i >= 0; i--) {
+            value = (value << 8) | (bytes[index + i] & 0xFF);
+        }
+        return (bytes[index + 7] & 0x80) != 0 ? -value : value;
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Read the base header of the patch and check the base is the apk the patch was made from
+     */
+    private static void checkBase(File base, InputStream patch) throws IOException {
+        byte[] header = new byte[BASE_MAGIC.length + 8 + 32];
+        new DataInputStream(patch).readFully(header);
+        if (!Arrays.equals(Arrays.copyOf(header, BASE_MAGIC.length), BASE_MAGIC))
+            throw new IOException("Patch has no base header, make it with PatchTool");
+        long baseSize = readOffset(header, BASE_MAGIC.length);
+        if (baseSize != base.length())
+            throw new IOException("Patch is for a base of " + baseSize + " bytes, installed apk has " + base.length());
+
+        String baseDigest = DigestVerifier.toHex(Arrays.copyOfRange(header, BASE_MAGIC.length + 8, header.length));
+        DigestVerifier baseVerifier = new DigestVerifier(baseDigest, baseSize);
+        InputStream inputStream = new FileInputStream(base);
+        try {
+            baseVerifier.updateFromStream(inputStream);
+        } finally {
+            inputStream.close();
+        }
+        try {
+            baseVerifier.verify();
+        } catch (DigestVerifier.VerificationException e) {
+            throw new IOException("Patch is for another base apk : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Read the base bytes of a diff run into the buffer, with the bytes outside the base zeroed
+     */
+    private static void readBase(FileChannel baseChannel, ByteBuffer baseByteBuffer, long basePosition, int length,
+                                long baseSize) throws IOException {
+        int start = (int) Math.max(0, Math.min(length, -basePosition));
+        int end = (int) Math.max(start, Math.min(length, baseSize - basePosition));
+        Arrays.fill(baseByteBuffer.array(), 0, length, (byte) 0);
+        baseByteBuffer.clear();
+        baseByteBuffer.position(start);
+        baseByteBuffer.limit(end);
+        while (baseByteBuffer.hasRemaining()) {
+            int read = baseChannel.read(baseByteBuffer, basePosition + baseByteBuffer.position());
+            if (read < 0)
+                throw new IOException("Base apk ended early");
+        }
+    }
+
+    /**
+     * Write the first length bytes of byteBuffer at position and hash them
+     *
+     * @return the position after them
+     */
+    private static long write(FileChannel outputChannel, ByteBuffer byteBuffer, long position, int length,
+                              DigestVerifier verifier) throws IOException {
+        byteBuffer.clear();
+        byteBuffer.limit(length);
+        while (byteBuffer.hasRemaining()) {
+            position += outputChannel.write(byteBuffer, position);
+        }
+        if (verifier != null) verifier.update(byteBuffer.array(), 0, length);
+        return position;
+    }
+    //endregion
+}
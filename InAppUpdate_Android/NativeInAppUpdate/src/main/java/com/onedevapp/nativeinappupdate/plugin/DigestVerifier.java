@@ -0,0 +1,187 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * DigestVerifier hashes the downloaded apk with SHA-256 in order while it is being written, so the
+ * check after the last byte costs nothing. Bytes are fed either directly as they arrive or read back
+ * from the file right behind the writers, while they are still in the page cache.
+ */
+class DigestVerifier {
+
+    // region Declarations
+    private static final String ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final byte[] mExpectedDigest;   //null to only check the size
+    private final long mExpectedSize;       //-1 to only check the digest
+    private final ByteBuffer mReadBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private MessageDigest mDigest;
+    private long mHashedBytes;
+
+    //endregion
+
+    /**
+     * Thrown when the downloaded apk doesn't match the expected digest or size.
+     */
+    static class VerificationException extends IOException {
+        VerificationException(String message) {
+            super(message);
+        }
+    }
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param sha256       the expected SHA-256 as hex, null or empty to skip
+     * @param expectedSize the expected size in bytes, 0 or less to skip
+     */
+    DigestVerifier(String sha256, long expectedSize) {
+        this.mExpectedDigest = sha256 == null || sha256.isEmpty() ? null : fromHex(sha256);
+        this.mExpectedSize = expectedSize > 0 ? expectedSize : -1;
+        reset();
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Start over for a new download
+     */
+    synchronized void reset() {
+        try {
+            mDigest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        mHashedBytes = 0;
+    }
+
+    /**
+     * Returns the number of bytes hashed so far
+     */
+    synchronized long getHashedBytes() {
+        return mHashedBytes;
+    }
+
+    /**
+     * Hash the next bytes in order
+     *
+     * @param buffer the bytes
+     * @param offset the offset in buffer
+     * @param length the number of bytes
+     */
+    synchronized void update(byte[] buffer, int offset, int length) {
+        mDigest.update(buffer, offset, length);
+        mHashedBytes += length;
+    }
+
+    /**
+     * Hash the next bytes in order by reading them back from the file being written
+     *
+     * @param channel the channel of the file being written
+     * @param upTo    the end position, exclusive, every byte before it must be written already
+     * @throws IOException if reading failed
+     */
+    synchronized void updateFromFile(FileChannel channel, long upTo) throws IOException {
+        while (mHashedBytes < upTo) {
+            mReadBuffer.clear();
+            mReadBuffer.limit((int) Math.min(BUFFER_SIZE, upTo - mHashedBytes));
+            int read = channel.read(mReadBuffer, mHashedBytes);
+            if (read <= 0)
+                throw new IOException("File ended at " + mHashedBytes + " while hashing");
+            mDigest.update(mReadBuffer.array(), 0, read);
+            mHashedBytes += read;
+        }
+    }
+
+    /**
+     * Hash the whole remaining stream in order
+     *
+     * @param inputStream the stream, not closed
+     * @throws IOException if reading failed
+     */
+    synchronized void updateFromStream(InputStream inputStream) throws IOException {
+        byte[] buffer = mReadBuffer.array();
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            mDigest.update(buffer, 0, read);
+            mHashedBytes += read;
+        }
+    }
+
+    /**
+     * Check the hashed bytes against the expected size and digest
+     *
+     * @throws VerificationException on mismatch
+     */
+    synchronized void verify() throws VerificationException {
+        if (mExpectedSize > 0 && mHashedBytes != mExpectedSize)
+            throw new VerificationException("Size mismatch, expected " + mExpectedSize + " but got " + mHashedBytes);
+
+        if (mExpectedDigest != null) {
+            byte[] digest = mDigest.digest();
+            if (!MessageDigest.isEqual(digest, mExpectedDigest))
+                throw new VerificationException("SHA-256 mismatch, expected " + toHex(mExpectedDigest) + " but got " + toHex(digest));
+        }
+        Constants.WriteLog("Verified " + mHashedBytes + " downloaded bytes");
+    }
+
+    /**
+     * Check whether the value is a SHA-256 hex string
+     *
+     * @param sha256 the value
+     * @return true if valid else false
+     */
+    static boolean isValidDigest(String sha256) {
+        if (sha256 == null || sha256.trim().length() != 64) return false;
+        for (char c : sha256.trim().toCharArray()) {
+            if (Character.digit(c, 16) < 0) return false;
+        }
+        return true;
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Convert hex to bytes
+     */
+    private static byte[] fromHex(String hex) {
+        String value = hex.trim().toLowerCase(Locale.US);
+        if (value.length() % 2 != 0)
+            throw new IllegalArgumentException("Invalid digest " + hex);
+
+        byte[] bytes = new byte[value.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(value.charAt(i * 2), 16);
+            int low = Character.digit(value.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0)
+                throw new IllegalArgumentException("Invalid digest " + hex);
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * Convert bytes to hex
+     */
+    static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+    //endregion
+}
@@ -0,0 +1,47 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.content.Context;
+import android.net.Uri;
+
+/**
+ * DownloadEngine fetches the third party apk, see SystemDownloadEngine and SegmentedDownloadEngine.
+ * An engine instance is used for a single download.
+ */
+interface DownloadEngine {
+
+    /**
+     * Callback methods where download events are reported, invoked on the engine threads.
+     */
+    interface Callback {
+        void onProgress(long bytesDownloaded, long totalBytes);
+
+        void onSuccess(Uri fileUri);
+
+        void onFailed(int code, String error);
+
+        void onRetry(String reason);
+    }
+
+    /**
+     * Progress listener of a blocking download step, invoked on the engine threads.
+     */
+    interface ProgressListener {
+        void onProgress(long bytesDownloaded, long totalBytes);
+    }
+
+    /**
+     * Start downloading, returns immediately
+     *
+     * @param context  the context
+     * @param url      the url to download
+     * @param fileName the file name to save as
+     * @param callback the callback to report to
+     * @throws Exception if the download can't be started
+     */
+    void start(Context context, String url, String fileName, Callback callback) throws Exception;
+
+    /**
+     * Cancel the download, no further callback is made
+     */
+    void cancel();
+}
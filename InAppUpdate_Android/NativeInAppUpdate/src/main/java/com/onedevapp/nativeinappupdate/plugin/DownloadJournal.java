@@ -0,0 +1,350 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.app.DownloadManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+
+/**
+ * DownloadJournal persists the third party download in progress, so it survives the game process being killed.
+ * It records the release being downloaded, the engine and what that engine needs to pick the download up again:
+ * the DownloadManager id, the install session id or the file with the bytes written per segment.
+ * Segment positions are saved only after the file was synced, so a restored position never points past bytes on disk.
+ * An entry left by another installed version is dropped together with its download on the first read.
+ */
+class DownloadJournal {
+
+    // region Declarations
+    private static final String PREFS_NAME = "native_in_app_update";
+    private static final String KEY_URL = "journal_url";
+    private static final String KEY_VERSION_CODE = "journal_version_code";
+    private static final String KEY_DIGEST = "journal_digest";
+    private static final String KEY_SIZE = "journal_size";
+    private static final String KEY_ENGINE = "journal_engine";
+    private static final String KEY_INSTALLED_VERSION_CODE = "journal_installed_version_code";
+    private static final String KEY_DOWNLOAD_ID = "journal_download_id";
+    private static final String KEY_SESSION_ID = "journal_session_id";
+    private static final String KEY_SESSION_WRITTEN = "journal_session_written";
+    private static final String KEY_FILE_PATH = "journal_file_path";
+    private static final String KEY_TOTAL_BYTES = "journal_total_bytes";
+    private static final String KEY_VALIDATOR = "journal_validator";
+    private static final String KEY_POSITIONS = "journal_positions";
+    private static final String KEY_FILE_URI = "journal_file_uri";
+
+    private final Context mContext;
+    private final SharedPreferences mPreferences;
+
+    //endregion
+
+    /**
+     * A journaled download as read from the preferences.
+     */
+    static class Entry {
+        final String url;               //link the download was started for
+        final long versionCode;         //version from the manifest, 0 if unknown
+        final String digest;            //expected SHA-256, null if none
+        final long size;                //expected size, 0 if none
+        final int engine;               //download engine type
+        final long downloadId;          //DownloadManager id, -1 if none
+        final int sessionId;            //install session id, -1 if none
+        final boolean isSessionWritten; //whether the session holds the whole update
+        final String filePath;          //file the segments are written into or the finished apk, null if none
+        final long totalBytes;          //size of the file, -1 if unknown
+        final String validator;         //ETag or Last-Modified of the file, null if none
+        final long[] positions;         //write position of every segment, null if none
+        final Uri fileUri;              //the finished apk, null until done
+
+        private Entry(SharedPreferences preferences) {
+            url = preferences.getString(KEY_URL, null);
+            versionCode = preferences.getLong(KEY_VERSION_CODE, 0);
+            digest = preferences.getString(KEY_DIGEST, null);
+            size = preferences.getLong(KEY_SIZE, 0);
+            engine = preferences.getInt(KEY_ENGINE, Constants.DOWNLOAD_ENGINE_SYSTEM);
+            downloadId = preferences.getLong(KEY_DOWNLOAD_ID, -1);
+            sessionId = preferences.getInt(KEY_SESSION_ID, -1);
+            isSessionWritten = preferences.getBoolean(KEY_SESSION_WRITTEN, false);
+            filePath = preferences.getString(KEY_FILE_PATH, null);
+            totalBytes = preferences.getLong(KEY_TOTAL_BYTES, -1);
+            validator = preferences.getString(KEY_VALIDATOR, null);
+            positions = parsePositions(preferences.getString(KEY_POSITIONS, null));
+            String uri = preferences.getString(KEY_FILE_URI, null);
+            fileUri = uri != null ? Uri.parse(uri) : null;
+        }
+
+        /**
+         * Check whether the entry is about the same release and engine
+         *
+         * @param url         the link to download
+         * @param versionCode the version from the manifest, 0 if unknown
+         * @param digest      the expected SHA-256, null if none
+         * @param size        the expected size, 0 if none
+         * @param engine      the download engine type
+         * @return true if the journaled download can be continued else false
+         */
+        boolean isFor(String url, long versionCode, String digest, long size, int engine) {
+            return this.url.equals(url) && this.versionCode == versionCode && this.size == size && this.engine == engine
+                    && (this.digest == null ? digest == null : this.digest.equalsIgnoreCase(digest));
+        }
+
+        /**
+         * Returns the segment positions to resume the file from, null if the file doesn't match
+         *
+         * @param file       the file to write
+         * @param totalBytes the size of the file on the server
+         * @param validator  the ETag or Last-Modified on the server, null if none
+         */
+        long[] getResumePositions(File file, long totalBytes, String validator) {
+            if (positions == null || !file.getAbsolutePath().equals(filePath) || this.totalBytes != totalBytes
+                    || file.length() != totalBytes)
+                return null;
+            //Mirrors may send no or other validators, only a conflicting one is a changed file
+            if (this.validator != null && validator != null && !this.validator.equals(validator))
+                return null;
+            return positions;
+        }
+    }
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param context the context
+     */
+    DownloadJournal(Context context) {
+        this.mContext = context.getApplicationContext();
+        this.mPreferences = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Returns the journaled download, an entry left by another installed version is discarded
+     *
+     * @return the entry, null if none
+     */
+    Entry get() {
+        if (!mPreferences.contains(KEY_URL)) return null;
+        try {
+            if (mPreferences.getLong(KEY_INSTALLED_VERSION_CODE, 0) != Constants.getInstalledVersionCode(mContext)) {
+                Constants.WriteLog("Download journal is from another installed version");
+                discard();
+                return null;
+            }
+        } catch (Exception e) {
+            Constants.WriteLog("Download journal check failed : " + e.toString());
+        }
+        return new Entry(mPreferences);
+    }
+
+    /**
+     * Start journaling a new download, discarding the previous one with its file unless it finished
+     *
+     * @param url         the link to download
+     * @param versionCode the version from the manifest, 0 if unknown
+     * @param digest      the expected SHA-256, null if none
+     * @param size        the expected size, 0 if none
+     * @param engine      the download engine type
+     */
+    void begin(String url, long versionCode, String digest, long size, int engine) {
+        end();
+        long installedVersionCode = 0;
+        try {
+            installedVersionCode = Constants.getInstalledVersionCode(mContext);
+        } catch (Exception e) {
+            Constants.WriteLog("Download journal begin : " + e.toString());
+        }
+        //Written before any byte lands in the file, so a restart never resumes the old file for a new release
+        mPreferences.edit()
+                .putString(KEY_URL, url)
+                .putLong(KEY_VERSION_CODE, versionCode)
+                .putString(KEY_DIGEST, digest)
+                .putLong(KEY_SIZE, size)
+                .putInt(KEY_ENGINE, engine)
+                .putLong(KEY_INSTALLED_VERSION_CODE, installedVersionCode)
+                .commit();
+    }
+
+    /**
+     * Record the DownloadManager row of the download
+     *
+     * @param downloadId the id returned by DownloadManager.enqueue()
+     */
+    void setDownloadId(long downloadId) {
+        mPreferences.edit().putLong(KEY_DOWNLOAD_ID, downloadId).commit();
+    }
+
+    /**
+     * Record the install session the download is written into
+     *
+     * @param sessionId the session id
+     */
+    void setSessionId(int sessionId) {
+        mPreferences.edit()
+                .putInt(KEY_SESSION_ID, sessionId)
+                .remove(KEY_SESSION_WRITTEN)
+                .commit();
+    }
+
+    /**
+     * Record that the install session holds the whole verified update
+     */
+    void setSessionWritten() {
+        mPreferences.edit().putBoolean(KEY_SESSION_WRITTEN, true).apply();
+    }
+
+    /**
+     * Record the file the segments are written into, before the first byte is written
+     *
+     * @param file       the file
+     * @param totalBytes the size of the file
+     * @param validator  the ETag or Last-Modified on the server, null if none
+     * @param positions  the start position of every segment
+     */
+    void setSegments(File file, long totalBytes, String validator, long[] positions) {
+        mPreferences.edit()
+                .putString(KEY_FILE_PATH, file.getAbsolutePath())
+                .putLong(KEY_TOTAL_BYTES, totalBytes)
+                .putString(KEY_VALIDATOR, validator)
+                .putString(KEY_POSITIONS, formatPositions(positions))
+                .commit();
+    }
+
+    /**
+     * Record the segment positions, the bytes before them must be synced to disk already
+     *
+     * @param positions the write position of every segment
+     */
+    void checkpoint(long[] positions) {
+        //Losing the latest checkpoint only costs a few seconds of download, so don't wait for the disk
+        mPreferences.edit().putString(KEY_POSITIONS, formatPositions(positions)).apply();
+    }
+
+    /**
+     * Record the finished and verified apk, discarding the journal deletes it from then on.
+     * The apk was moved out of the DownloadManager, so its row is removed and no longer journaled.
+     *
+     * @param file    the apk
+     * @param fileUri the uri of the apk
+     */
+    void setComplete(File file, Uri fileUri) {
+        long downloadId = mPreferences.getLong(KEY_DOWNLOAD_ID, -1);
+        mPreferences.edit()
+                .putString(KEY_FILE_PATH, file.getAbsolutePath())
+                .putString(KEY_FILE_URI, fileUri.toString())
+                .remove(KEY_DOWNLOAD_ID)
+                .remove(KEY_POSITIONS)
+                .apply();
+        //Only after the move, removing the row deletes the file it points at
+        if (downloadId != -1) removeDownload(downloadId);
+    }
+
+    /**
+     * Check whether the finished apk of an entry can still be read
+     *
+     * @param entry the entry
+     * @return true if readable else false
+     */
+    boolean isReadable(Entry entry) {
+        if (entry.fileUri == null) return false;
+        try {
+            ParcelFileDescriptor fileDescriptor = mContext.getContentResolver().openFileDescriptor(entry.fileUri, "r");
+            if (fileDescriptor != null) {
+                fileDescriptor.close();
+                return true;
+            }
+        } catch (Exception e) {
+            Constants.WriteLog("Journaled apk not available : " + e.toString());
+        }
+        return false;
+    }
+
+    /**
+     * Forget the download and delete what it left behind
+     */
+    void discard() {
+        long downloadId = mPreferences.getLong(KEY_DOWNLOAD_ID, -1);
+        if (downloadId != -1) removeDownload(downloadId);
+        String filePath = mPreferences.getString(KEY_FILE_PATH, null);
+        if (filePath != null && new File(filePath).exists() && !new File(filePath).delete())
+            Constants.WriteLog("Failed to delete journaled download");
+        clear();
+    }
+
+    /**
+     * Forget the download, deleting its file unless it finished
+     */
+    void end() {
+        //A finished apk stays in the ApkCache for its release, only an unfinished download is of no use
+        if (mPreferences.contains(KEY_FILE_URI))
+            clear();
+        else
+            discard();
+    }
+
+    /**
+     * Forget the download, keeping its file
+     */
+    void clear() {
+        mPreferences.edit()
+                .remove(KEY_URL)
+                .remove(KEY_VERSION_CODE)
+                .remove(KEY_DIGEST)
+                .remove(KEY_SIZE)
+                .remove(KEY_ENGINE)
+                .remove(KEY_INSTALLED_VERSION_CODE)
+                .remove(KEY_DOWNLOAD_ID)
+                .remove(KEY_SESSION_ID)
+                .remove(KEY_SESSION_WRITTEN)
+                .remove(KEY_FILE_PATH)
+                .remove(KEY_TOTAL_BYTES)
+                .remove(KEY_VALIDATOR)
+                .remove(KEY_POSITIONS)
+                .remove(KEY_FILE_URI)
+                .commit();
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Remove the DownloadManager row, deleting the file it still points at
+     */
+    private void removeDownload(long downloadId) {
+        DownloadManager downloadManager = (DownloadManager) mContext.getSystemService(Context.DOWNLOAD_SERVICE);
+        if (downloadManager != null) downloadManager.remove(downloadId);
+    }
+
+    /**
+     * Format positions as comma separated values
+     */
+    private static String formatPositions(long[] positions) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < positions.length; i++) {
+            if (i > 0) builder.append(',');
+            builder.append(positions[i]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Parse comma separated positions, null if missing or invalid
+     */
+    private static long[] parsePositions(String value) {
+        if (value == null || value.isEmpty()) return null;
+        String[] values = value.split(",");
+        long[] positions = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            positions[i] = SegmentedDownloadEngine.parseLong(values[i]);
+            if (positions[i] < 0) return null;
+        }
+        return positions;
+    }
+    //endregion
+}
@@ -0,0 +1,262 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.annotation.SuppressLint;
+import android.app.DownloadManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * DownloadManagerTracker follows a single DownloadManager row without busy waiting.
+ * Progress is pulled only when the download provider notifies a change on the row or the
+ * ACTION_DOWNLOAD_COMPLETE broadcast arrives, an adaptive poll is kept only as a fallback.
+ * Tracking always stops once the row reaches STATUS_SUCCESSFUL or STATUS_FAILED.
+ * Everything runs on the PluginExecutor worker thread.
+ */
+class DownloadManagerTracker {
+
+    // region Declarations
+    private static final String DOWNLOADS_CONTENT_URI = "content://downloads/my_downloads/";
+    private static final long MIN_POLL_INTERVAL_MS = 500;   //fallback poll interval while bytes are moving
+    private static final long MAX_POLL_INTERVAL_MS = 8000;  //fallback poll interval once the row stops changing
+    private static final int MAX_QUERY_ERRORS = 3;  //failed queries in a row before the download counts as failed
+
+    private final Context mContext;
+    private final DownloadManager mDownloadManager;
+    private final long mDownloadId;
+    private final Callback mCallback;
+    private final DownloadManager.Query mQuery;
+
+    private Handler mHandler;
+    private ContentObserver mContentObserver;
+    private BroadcastReceiver mCompleteReceiver;
+
+    private int mStatusColumn = -1;
+    private int mDownloadedColumn = -1;
+    private int mTotalColumn = -1;
+    private int mReasonColumn = -1;
+
+    private long mPollInterval = MIN_POLL_INTERVAL_MS;
+    private long mLastBytesDownloaded = -1;
+    private long mLastTotalBytes = -1;
+    private int mQueryErrors;   //failed queries in a row
+    private boolean mFinished;
+    private volatile boolean mStopped;
+
+    private long mStartTime;
+    private volatile int mQueryCount;    //number of cursor queries made, to measure the tracking cost
+    private volatile int mWakeCount;     //number of observer/broadcast/poll wakeups
+
+    private final Runnable mPollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mWakeCount++;
+            queryStatus();
+        }
+    };
+
+    //endregion
+
+    /**
+     * Callback methods where tracked download events are reported.
+     * All of them are invoked on the worker thread.
+     */
+    interface Callback {
+        void onProgress(long bytesDownloaded, long totalBytes);
+
+        void onSuccess(Uri fileUri);
+
+        void onFailed(int reason);
+    }
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param context         the context used to register the observer and receiver
+     * @param downloadManager the download manager which enqueued the download
+     * @param downloadId      the id returned by DownloadManager.enqueue()
+     * @param callback        the callback to report to
+     */
+    DownloadManagerTracker(Context context, DownloadManager downloadManager, long downloadId, Callback callback) {
+        this.mContext = context.getApplicationContext();
+        this.mDownloadManager = downloadManager;
+        this.mDownloadId = downloadId;
+        this.mCallback = callback;
+        this.mQuery = new DownloadManager.Query().setFilterById(downloadId);
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Start tracking the download row
+     */
+    @SuppressLint("UnspecifiedRegisterReceiverFlag")
+    void start() {
+        mStartTime = SystemClock.elapsedRealtime();
+        mHandler = PluginExecutor.get().getHandler();
+
+        mContentObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mWakeCount++;
+                queryStatus();
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(
+                Uri.parse(DOWNLOADS_CONTENT_URI + mDownloadId), false, mContentObserver);
+
+        mCompleteReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (intent.getLongExtra(DownloadManager.EXTRA_DOWNLOAD_ID, -1) == mDownloadId) {
+                    mWakeCount++;
+                    queryStatus();
+                }
+            }
+        };
+        IntentFilter filter = new IntentFilter(DownloadManager.ACTION_DOWNLOAD_COMPLETE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            mContext.registerReceiver(mCompleteReceiver, filter, null, mHandler, Context.RECEIVER_EXPORTED);
+        } else {
+            mContext.registerReceiver(mCompleteReceiver, filter, null, mHandler);
+        }
+
+        mHandler.post(mPollRunnable);
+    }
+
+    /**
+     * Stop tracking without reporting anything further
+     */
+    void stop() {
+        mStopped = true;
+        if (mHandler == null) return;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                finish();
+            }
+        });
+    }
+
+    /**
+     * Returns the number of cursor queries made so far
+     */
+    int getQueryCount() {
+        return mQueryCount;
+    }
+
+    /**
+     * Returns the number of times the tracker was woken up so far
+     */
+    int getWakeCount() {
+        return mWakeCount;
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Query the download row once and report any change, runs on the worker thread only
+     */
+    private void queryStatus() {
+        if (mFinished) return;
+        if (mStopped) {
+            finish();
+            return;
+        }
+
+        mHandler.removeCallbacks(mPollRunnable);
+        mQueryCount++;
+
+        int status = -1;
+        int reason = 0;
+        long bytesDownloaded = 0;
+        long totalBytes = 0;
+
+        Cursor cursor = null;
+        try {
+            cursor = mDownloadManager.query(mQuery);
+            if (cursor != null && cursor.moveToFirst()) {
+                if (mStatusColumn < 0) {
+                    mStatusColumn = cursor.getColumnIndex(DownloadManager.COLUMN_STATUS);
+                    mDownloadedColumn = cursor.getColumnIndex(DownloadManager.COLUMN_BYTES_DOWNLOADED_SO_FAR);
+                    mTotalColumn = cursor.getColumnIndex(DownloadManager.COLUMN_TOTAL_SIZE_BYTES);
+                    mReasonColumn = cursor.getColumnIndex(DownloadManager.COLUMN_REASON);
+                }
+                status = cursor.getInt(mStatusColumn);
+                reason = cursor.getInt(mReasonColumn);
+                bytesDownloaded = cursor.getLong(mDownloadedColumn);
+                totalBytes = cursor.getLong(mTotalColumn);
+            }
+            mQueryErrors = 0;
+        } catch (Exception e) {
+            Constants.WriteLog("DownloadManagerTracker query failed : " + e.toString());
+            mQueryErrors++;
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+
+        //A failed query says nothing about the download, ask again unless it keeps failing
+        if (mQueryErrors > 0 && mQueryErrors < MAX_QUERY_ERRORS) {
+            mHandler.postDelayed(mPollRunnable, MIN_POLL_INTERVAL_MS);
+            return;
+        }
+
+        if (status == DownloadManager.STATUS_SUCCESSFUL) {
+            if (totalBytes > 0) mCallback.onProgress(totalBytes, totalBytes);
+            Uri fileUri = mDownloadManager.getUriForDownloadedFile(mDownloadId);
+            finish();
+            mCallback.onSuccess(fileUri);
+            return;
+        } else if (status == DownloadManager.STATUS_FAILED || status == -1) {
+            //Row missing means the download was removed from outside
+            finish();
+            mCallback.onFailed(reason);
+            return;
+        }
+
+        if (bytesDownloaded != mLastBytesDownloaded || totalBytes != mLastTotalBytes) {
+            mLastBytesDownloaded = bytesDownloaded;
+            mLastTotalBytes = totalBytes;
+            mPollInterval = MIN_POLL_INTERVAL_MS;
+            if (status == DownloadManager.STATUS_RUNNING && totalBytes > 0)
+                mCallback.onProgress(bytesDownloaded, totalBytes);
+        } else {
+            mPollInterval = Math.min(mPollInterval * 2, MAX_POLL_INTERVAL_MS);
+        }
+
+        mHandler.postDelayed(mPollRunnable, mPollInterval);
+    }
+
+    /**
+     * Unregister everything and stop polling
+     */
+    private void finish() {
+        if (mFinished) return;
+        mFinished = true;
+
+        mHandler.removeCallbacks(mPollRunnable);
+        try {
+            mContext.getContentResolver().unregisterContentObserver(mContentObserver);
+            mContext.unregisterReceiver(mCompleteReceiver);
+        } catch (Exception e) {
+            Constants.WriteLog("DownloadManagerTracker unregister failed : " + e.toString());
+        }
+
+        Constants.WriteLog("DownloadManagerTracker finished in " + (SystemClock.elapsedRealtime() - mStartTime)
+                + "ms with " + mQueryCount + " queries and " + mWakeCount + " wakeups");
+    }
+    //endregion
+}
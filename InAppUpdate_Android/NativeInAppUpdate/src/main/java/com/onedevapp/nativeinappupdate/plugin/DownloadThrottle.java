@@ -0,0 +1,241 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.os.Process;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * DownloadThrottle shares one download rate between every download thread of the process and adapts
+ * the download to what the game is doing. The rate is a token bucket with a short burst, reads are cut
+ * to about 50ms worth of bytes so the link is used evenly instead of in bursts.
+ * In match the download also drops to a single segment and the lowest thread priority.
+ */
+class DownloadThrottle {
+
+    // region Declarations
+    static final long DEFAULT_IN_MATCH_BYTES_PER_SECOND = 128 * 1024;
+    private static final long BURST_NS = 50L * 1000 * 1000;    //bytes allowed ahead of the rate
+    private static final int MIN_CHUNK_SIZE = 4 * 1024;
+    private static final int LOADING_MAX_SEGMENTS = 2;
+
+    private static DownloadThrottle sInstance;
+
+    private volatile long mMaxBytesPerSecond;   //0 for no cap
+    private volatile long mInMatchBytesPerSecond = DEFAULT_IN_MATCH_BYTES_PER_SECOND;
+    private volatile int mActivityLevel = Constants.ACTIVITY_LEVEL_MENU;
+    private long mNextFreeTime;     //time the bucket is empty again, guarded by this
+
+    //endregion
+
+    private DownloadThrottle() {
+    }
+
+    /**
+     * Returns the throttle of the process
+     */
+    static synchronized DownloadThrottle get() {
+        if (sInstance == null) {
+            sInstance = new DownloadThrottle();
+        }
+        return sInstance;
+    }
+
+    // region Setters
+
+    /**
+     * Set the download rate ceiling in every activity level
+     *
+     * @param maxBytesPerSecond the ceiling, 0 for none
+     */
+    void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        this.mMaxBytesPerSecond = Math.max(0, maxBytesPerSecond);
+        wakeUp();
+    }
+
+    /**
+     * Set the download rate ceiling while in match
+     *
+     * @param inMatchBytesPerSecond the ceiling, 0 for none
+     */
+    void setInMatchBytesPerSecond(long inMatchBytesPerSecond) {
+        this.mInMatchBytesPerSecond = Math.max(0, inMatchBytesPerSecond);
+        wakeUp();
+    }
+
+    /**
+     * Set what the game is doing
+     *
+     * @param activityLevel one of the Constants.ACTIVITY_LEVEL_ values
+     */
+    void setActivityLevel(int activityLevel) {
+        this.mActivityLevel = activityLevel;
+        wakeUp();
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Returns the current rate in bytes per second, 0 for no limit
+     */
+    long getBytesPerSecond() {
+        long maxBytesPerSecond = mMaxBytesPerSecond;
+        if (mActivityLevel != Constants.ACTIVITY_LEVEL_IN_MATCH) return maxBytesPerSecond;
+
+        long inMatchBytesPerSecond = mInMatchBytesPerSecond;
+        if (maxBytesPerSecond <= 0) return inMatchBytesPerSecond;
+        if (inMatchBytesPerSecond <= 0) return maxBytesPerSecond;
+        return Math.min(maxBytesPerSecond, inMatchBytesPerSecond);
+    }
+
+    /**
+     * Returns how many segments of a download may transfer at the same time
+     *
+     * @param segmentCount the segments of the download
+     */
+    int getMaxSegments(int segmentCount) {
+        switch (mActivityLevel) {
+            case Constants.ACTIVITY_LEVEL_IN_MATCH:
+                return 1;
+            case Constants.ACTIVITY_LEVEL_LOADING:
+                return Math.min(segmentCount, LOADING_MAX_SEGMENTS);
+            default:
+                return segmentCount;
+        }
+    }
+
+    /**
+     * Returns the thread priority for download threads
+     */
+    int getThreadPriority() {
+        switch (mActivityLevel) {
+            case Constants.ACTIVITY_LEVEL_IN_MATCH:
+                return Process.THREAD_PRIORITY_LOWEST;
+            case Constants.ACTIVITY_LEVEL_LOADING:
+                return Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_LESS_FAVORABLE;
+            default:
+                return Process.THREAD_PRIORITY_BACKGROUND;
+        }
+    }
+
+    /**
+     * Returns how many bytes to read at once
+     *
+     * @param bufferSize the buffer size
+     */
+    int getChunkSize(int bufferSize) {
+        long bytesPerSecond = getBytesPerSecond();
+        if (bytesPerSecond <= 0) return bufferSize;
+        return (int) Math.max(MIN_CHUNK_SIZE, Math.min(bufferSize, bytesPerSecond / 20));
+    }
+
+    /**
+     * Take bytes from the shared bucket, waiting until the rate allows them
+     *
+     * @param bytes the bytes just read
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    void acquire(int bytes) throws InterruptedIOException {
+        long bytesPerSecond = getBytesPerSecond();
+        if (bytesPerSecond <= 0 || bytes <= 0) return;
+
+        long waitNs;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (mNextFreeTime < now - BURST_NS) mNextFreeTime = now - BURST_NS;
+            mNextFreeTime += bytes * 1000000000L / bytesPerSecond;
+            waitNs = mNextFreeTime - now;
+        }
+        if (waitNs <= 0) return;
+        try {
+            Thread.sleep(waitNs / 1000000, (int) (waitNs % 1000000));
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Download cancelled");
+        }
+    }
+
+    /**
+     * Wait until the segment may transfer
+     *
+     * @param index        the segment index
+     * @param segmentCount the segments of the download
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    void awaitSegment(int index, int segmentCount) throws InterruptedIOException {
+        synchronized (this) {
+            while (index >= getMaxSegments(segmentCount)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Download cancelled");
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply the thread priority to the calling thread if it changed
+     *
+     * @param currentPriority the priority applied so far
+     * @return the priority applied now
+     */
+    int applyThreadPriority(int currentPriority) {
+        int priority = getThreadPriority();
+        if (priority != currentPriority)
+            Process.setThreadPriority(priority);
+        return priority;
+    }
+
+    /**
+     * Wrap a stream so reads follow the throttle
+     *
+     * @param inputStream the stream
+     * @return the throttled stream
+     */
+    InputStream wrap(InputStream inputStream) {
+        return new ThrottledInputStream(inputStream);
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Start over with the new settings and release paused segments
+     */
+    private synchronized void wakeUp() {
+        mNextFreeTime = 0;
+        notifyAll();
+    }
+
+    /**
+     * Input stream taking every read from the bucket.
+     */
+    private class ThrottledInputStream extends FilterInputStream {
+        private int mPriority = Process.THREAD_PRIORITY_BACKGROUND;
+
+        ThrottledInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) acquire(1);
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            mPriority = applyThreadPriority(mPriority);
+            int read = super.read(buffer, offset, Math.min(length, getChunkSize(length)));
+            acquire(read);
+            return read;
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,257 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.annotation.SuppressLint;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInstaller;
+import android.os.Build;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * InstallSession wraps a PackageInstaller session the downloaded apk is streamed into, so the apk is written
+ * once, leaves no copy in Downloads and can be committed the moment the last byte arrived.
+ * The installer itself checks the package name, version and signing certificate on commit.
+ * Results of the commit come back through a broadcast to the PendingIntent given to the session.
+ */
+class InstallSession {
+
+    // region Declarations
+    static final String BASE_APK = "base.apk";
+    private static final String ACTION_INSTALL_STATUS = "com.onedevapp.nativeinappupdate.INSTALL_STATUS";
+
+    private final Context mContext;
+    private final int mSessionId;
+    private final PackageInstaller.Session mSession;
+    private BroadcastReceiver mStatusReceiver;
+    private volatile boolean mIsWritten;    //whether every apk of the update is written and verified
+    private volatile boolean mIsClosed;     //whether committed or abandoned
+    private int mProgressPercent = -1;      //last progress given to the system, guarded by this
+
+    //endregion
+
+    /**
+     * Callback methods where commit results are reported, invoked on the PluginExecutor worker thread.
+     */
+    interface Callback {
+        void onPendingUserAction(Intent confirmIntent);
+
+        void onSuccess();
+
+        void onFailed(int status, String message);
+    }
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param context          the context
+     * @param packageInstaller the package installer which created the session
+     * @param sessionId        the session id
+     * @throws IOException if the session can't be opened
+     */
+    private InstallSession(Context context, PackageInstaller packageInstaller, int sessionId) throws IOException {
+        this.mContext = context.getApplicationContext();
+        this.mSessionId = sessionId;
+        this.mSession = packageInstaller.openSession(sessionId);
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Create a new session updating the running app, abandoning the sessions left by earlier runs
+     *
+     * @param context    the context
+     * @param totalBytes the size of the update, 0 if unknown
+     * @return the session
+     * @throws IOException if the session can't be created
+     */
+    static InstallSession create(Context context, long totalBytes) throws IOException {
+        PackageInstaller packageInstaller = context.getPackageManager().getPackageInstaller();
+        List<PackageInstaller.SessionInfo> sessions = packageInstaller.getMySessions();
+        for (PackageInstaller.SessionInfo sessionInfo : sessions) {
+            Constants.WriteLog("Abandon install session " + sessionInfo.getSessionId());
+            try {
+                packageInstaller.abandonSession(sessionInfo.getSessionId());
+            } catch (SecurityException e) {
+                Constants.WriteLog("Abandon install session failed : " + e.toString());
+            }
+        }
+
+        PackageInstaller.SessionParams params = new PackageInstaller.SessionParams(PackageInstaller.SessionParams.MODE_FULL_INSTALL);
+        params.setAppPackageName(context.getPackageName());
+        if (totalBytes > 0) params.setSize(totalBytes);
+        int sessionId = packageInstaller.createSession(params);
+        Constants.WriteLog("Created install session " + sessionId);
+        return new InstallSession(context, packageInstaller, sessionId);
+    }
+
+    /**
+     * Open a written session again after a restart, the system keeps sessions until they are committed or abandoned
+     *
+     * @param context   the context
+     * @param sessionId the id of the session
+     * @return the session ready to commit, null if it is gone
+     */
+    static InstallSession open(Context context, int sessionId) {
+        PackageInstaller packageInstaller = context.getPackageManager().getPackageInstaller();
+        if (packageInstaller.getSessionInfo(sessionId) == null) return null;
+        try {
+            InstallSession installSession = new InstallSession(context, packageInstaller, sessionId);
+            installSession.setWritten();
+            Constants.WriteLog("Opened install session " + sessionId);
+            return installSession;
+        } catch (IOException | SecurityException e) {
+            Constants.WriteLog("Open install session failed : " + e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the session id
+     */
+    int getSessionId() {
+        return mSessionId;
+    }
+
+    /**
+     * Open a stream writing an apk of the session
+     *
+     * @param name   the name of the apk in the session
+     * @param offset the position to write from, to resume
+     * @param length the remaining length, -1 if unknown
+     * @return the stream, close it with close(OutputStream)
+     * @throws IOException if the session is gone
+     */
+    OutputStream openWrite(String name, long offset, long length) throws IOException {
+        return mSession.openWrite(name, offset, length);
+    }
+
+    /**
+     * Flush a stream from openWrite to disk and close it
+     *
+     * @param outputStream the stream
+     * @throws IOException if flushing failed
+     */
+    void close(OutputStream outputStream) throws IOException {
+        try {
+            outputStream.flush();
+            mSession.fsync(outputStream);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Report the write progress to the system, shown by the installer
+     *
+     * @param progress the progress from 0 to 1
+     */
+    synchronized void setProgress(float progress) {
+        //Every call is an IPC, only pass whole percents on
+        int progressPercent = (int) (progress * 100);
+        if (progressPercent == mProgressPercent) return;
+        mProgressPercent = progressPercent;
+        mSession.setStagingProgress(progress);
+    }
+
+    /**
+     * Mark every apk of the session as written and verified
+     */
+    void setWritten() {
+        mIsWritten = true;
+    }
+
+    /**
+     * Returns whether the session is ready to commit
+     */
+    boolean isWritten() {
+        return mIsWritten && !mIsClosed;
+    }
+
+    /**
+     * Commit the session, the installer asks the user to confirm unless the app may update itself silently
+     *
+     * @param callback the callback to report to
+     */
+    @SuppressLint({"UnspecifiedRegisterReceiverFlag", "WrongConstant"})
+    void commit(final Callback callback) {
+        mStatusReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (intent.getIntExtra(PackageInstaller.EXTRA_SESSION_ID, -1) != mSessionId) return;
+
+                int status = intent.getIntExtra(PackageInstaller.EXTRA_STATUS, PackageInstaller.STATUS_FAILURE);
+                Constants.WriteLog("Install session " + mSessionId + " status " + status);
+                if (status == PackageInstaller.STATUS_PENDING_USER_ACTION) {
+                    callback.onPendingUserAction((Intent) intent.getParcelableExtra(Intent.EXTRA_INTENT));
+                    return;
+                }
+
+                unregister();
+                if (status == PackageInstaller.STATUS_SUCCESS) {
+                    callback.onSuccess();
+                } else {
+                    callback.onFailed(status, intent.getStringExtra(PackageInstaller.EXTRA_STATUS_MESSAGE));
+                }
+            }
+        };
+        IntentFilter filter = new IntentFilter(ACTION_INSTALL_STATUS);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            mContext.registerReceiver(mStatusReceiver, filter, null, PluginExecutor.get().getHandler(), Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            mContext.registerReceiver(mStatusReceiver, filter, null, PluginExecutor.get().getHandler());
+        }
+
+        //The installer fills in the status extras, so the intent must stay mutable
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S)
+            flags |= PendingIntent.FLAG_MUTABLE;
+        Intent intent = new Intent(ACTION_INSTALL_STATUS).setPackage(mContext.getPackageName());
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(mContext, mSessionId, intent, flags);
+
+        mIsClosed = true;
+        mSession.commit(pendingIntent.getIntentSender());
+        mSession.close();
+    }
+
+    /**
+     * Drop the session and everything written into it
+     */
+    void abandon() {
+        if (mIsClosed) return;
+        mIsClosed = true;
+        unregister();
+        try {
+            mSession.abandon();
+        } catch (Exception e) {
+            Constants.WriteLog("Abandon install session failed : " + e.toString());
+        }
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Stop listening for the commit result
+     */
+    private void unregister() {
+        if (mStatusReceiver == null) return;
+        try {
+            mContext.unregisterReceiver(mStatusReceiver);
+        } catch (Exception e) {
+            Constants.WriteLog("InstallSession unregister failed : " + e.toString());
+        }
+        mStatusReceiver = null;
+    }
+    //endregion
+}
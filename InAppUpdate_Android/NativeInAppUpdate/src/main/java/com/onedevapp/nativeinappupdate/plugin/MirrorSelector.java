@@ -0,0 +1,284 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * MirrorSelector ranks the hosts serving the same apk for a single download.
+ * All mirrors are probed in parallel with a small range request, measuring the time to first byte and the
+ * throughput, and the download starts on the fastest one. Throughput seen by the segments keeps the ranking
+ * current, a mirror that errors is left out for a while, so segments move to another mirror whenever they
+ * reconnect. Mirrors must serve identical bytes, the DigestVerifier catches any that don't.
+ */
+class MirrorSelector {
+
+    // region Declarations
+    private static final int PROBE_BYTES = 64 * 1024;   //large enough to measure throughput
+    private static final long PROBE_TIMEOUT_MS = 5000;
+    private static final long FAILURE_PENALTY_MS = 30 * 1000;  //times the failures in a row
+    private static final int MAX_PENALTY_FAILURES = 4;
+    private static final int SLOW_FACTOR = 4;   //switch when another mirror is this many times faster
+    private static final long SCORE_BYTES = 1024 * 1024;    //ranks by the estimated time to fetch 1MB
+
+    private final List<Mirror> mMirrors = new ArrayList<>();
+
+    //endregion
+
+    /**
+     * A single host of the apk with its measured latency and throughput.
+     */
+    static class Mirror {
+        final String url;
+        private final int mOrder;       //position in the configuration, breaks ties
+        private volatile long mLatencyMs = -1;      //time to first byte of the probe, -1 if unknown
+        private volatile long mBytesPerSecond;      //smoothed throughput, 0 if unknown
+        private volatile int mFailures;             //failures in a row
+        private volatile long mPenalizedUntil;      //uptime until which the mirror is left out
+
+        Mirror(String url, int order) {
+            this.url = url;
+            this.mOrder = order;
+        }
+
+        /**
+         * Returns the estimated millis to fetch SCORE_BYTES, lower is better
+         */
+        long getScore() {
+            long latencyMs = mLatencyMs < 0 ? PROBE_TIMEOUT_MS : mLatencyMs;
+            long bytesPerSecond = mBytesPerSecond;
+            return latencyMs + (bytesPerSecond > 0 ? SCORE_BYTES * 1000 / bytesPerSecond : PROBE_TIMEOUT_MS);
+        }
+
+        @Override
+        public String toString() {
+            return url + " (" + mLatencyMs + "ms, " + mBytesPerSecond + "B/s)";
+        }
+    }
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param url         the primary link of the apk
+     * @param mirrorLinks the other links of the same apk, null for none
+     */
+    MirrorSelector(String url, String[] mirrorLinks) {
+        mMirrors.add(new Mirror(url, 0));
+        if (mirrorLinks == null) return;
+        for (String mirrorLink : mirrorLinks) {
+            if (mirrorLink == null || mirrorLink.trim().isEmpty() || contains(mirrorLink.trim())) continue;
+            mMirrors.add(new Mirror(mirrorLink.trim(), mMirrors.size()));
+        }
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Returns the number of mirrors
+     */
+    int size() {
+        return mMirrors.size();
+    }
+
+    /**
+     * Probe every mirror in parallel, blocks up to the probe timeout, mirrors that don't answer in time
+     * or fail are left out for a while. A probe still queued behind other downloads when the time is up
+     * leaves its mirror unknown.
+     *
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    void probe() throws InterruptedIOException {
+        if (mMirrors.size() < 2) return;
+
+        List<Future<?>> futures = new ArrayList<>(mMirrors.size());
+        final AtomicIntegerArray started = new AtomicIntegerArray(mMirrors.size());
+        for (int i = 0; i < mMirrors.size(); i++) {
+            final int index = i;
+            futures.add(PluginExecutor.get().submitProbe(new Runnable() {
+                @Override
+                public void run() {
+                    started.set(index, 1);
+                    probe(mMirrors.get(index));
+                }
+            }));
+        }
+
+        long deadline = SystemClock.elapsedRealtime() + PROBE_TIMEOUT_MS;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get(Math.max(0, deadline - SystemClock.elapsedRealtime()), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException | ExecutionException | CancellationException e) {
+                    if (started.get(i) != 0) reportFailure(mMirrors.get(i));
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Download cancelled");
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+        Constants.WriteLog("Mirrors ranked : " + getRanked());
+    }
+
+    /**
+     * Returns the mirrors from best to worst, mirrors left out after a failure last
+     */
+    List<Mirror> getRanked() {
+        final long now = SystemClock.elapsedRealtime();
+        List<Mirror> ranked = new ArrayList<>(mMirrors);
+        Collections.sort(ranked, new Comparator<Mirror>() {
+            @Override
+            public int compare(Mirror first, Mirror second) {
+                boolean isFirstPenalized = first.mPenalizedUntil > now;
+                boolean isSecondPenalized = second.mPenalizedUntil > now;
+                if (isFirstPenalized != isSecondPenalized) return isFirstPenalized ? 1 : -1;
+                if (isFirstPenalized) return compare(first.mPenalizedUntil, second.mPenalizedUntil);
+                int result = compare(first.getScore(), second.getScore());
+                return result != 0 ? result : first.mOrder - second.mOrder;
+            }
+
+            private int compare(long first, long second) {
+                return first < second ? -1 : (first == second ? 0 : 1);
+            }
+        });
+        return ranked;
+    }
+
+    /**
+     * Returns the best mirror to connect to
+     *
+     * @param current the mirror in use, picked again only if no other mirror is usable, null for none
+     * @return the mirror
+     */
+    Mirror pick(Mirror current) {
+        long now = SystemClock.elapsedRealtime();
+        List<Mirror> ranked = getRanked();
+        for (Mirror mirror : ranked) {
+            if (mirror != current && mirror.mPenalizedUntil <= now) return mirror;
+        }
+        if (current != null && current.mPenalizedUntil <= now) return current;
+        return ranked.get(0);
+    }
+
+    /**
+     * Check whether the mirror is usable, not left out after a failure
+     *
+     * @param mirror the mirror
+     * @return true if usable else false
+     */
+    boolean isAvailable(Mirror mirror) {
+        return mirror.mPenalizedUntil <= SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Record a failed request, the mirror is left out for longer with every failure in a row
+     *
+     * @param mirror the mirror
+     */
+    void reportFailure(Mirror mirror) {
+        int failures = Math.min(mirror.mFailures + 1, MAX_PENALTY_FAILURES);
+        mirror.mFailures = failures;
+        mirror.mPenalizedUntil = SystemClock.elapsedRealtime() + FAILURE_PENALTY_MS * failures;
+        Constants.WriteLog("Mirror failed " + failures + " times : " + mirror.url);
+    }
+
+    /**
+     * Record the throughput of a connection to the mirror
+     *
+     * @param mirror         the mirror
+     * @param bytesPerSecond the measured throughput
+     */
+    synchronized void reportThroughput(Mirror mirror, long bytesPerSecond) {
+        long previous = mirror.mBytesPerSecond;
+        mirror.mBytesPerSecond = previous > 0 ? (previous * 3 + bytesPerSecond) / 4 : bytesPerSecond;
+        mirror.mFailures = 0;
+    }
+
+    /**
+     * Check whether a connection should move to another mirror, when a usable one is several times faster
+     *
+     * @param mirror         the mirror of the connection
+     * @param bytesPerSecond the throughput of the connection
+     * @return true to switch else false
+     */
+    boolean isSlow(Mirror mirror, long bytesPerSecond) {
+        long now = SystemClock.elapsedRealtime();
+        for (Mirror other : mMirrors) {
+            if (other != mirror && other.mPenalizedUntil <= now && other.mBytesPerSecond > bytesPerSecond * SLOW_FACTOR)
+                return true;
+        }
+        return false;
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Measure a single mirror with a small range request
+     */
+    private void probe(Mirror mirror) {
+        HttpURLConnection connection = null;
+        try {
+            long startTime = SystemClock.elapsedRealtime();
+            connection = SegmentedDownloadEngine.openConnection(mirror.url, "bytes=0-" + (PROBE_BYTES - 1));
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL && responseCode != HttpURLConnection.HTTP_OK) {
+                SegmentedDownloadEngine.drain(connection);
+                throw new IOException("Unexpected response code " + responseCode);
+            }
+            long firstByteTime = SystemClock.elapsedRealtime();
+            mirror.mLatencyMs = firstByteTime - startTime;
+
+            InputStream inputStream = connection.getInputStream();
+            byte[] buffer = new byte[16 * 1024];
+            long bytes = 0;
+            int read;
+            try {
+                //A mirror ignoring the range sends the whole apk, stop at the probe size
+                while (bytes < PROBE_BYTES && (read = inputStream.read(buffer)) != -1) {
+                    bytes += read;
+                }
+            } finally {
+                inputStream.close();
+            }
+            if (responseCode == HttpURLConnection.HTTP_OK) connection.disconnect();
+
+            long elapsedMs = Math.max(1, SystemClock.elapsedRealtime() - firstByteTime);
+            reportThroughput(mirror, bytes * 1000 / elapsedMs);
+        } catch (IOException e) {
+            if (connection != null) connection.disconnect();
+            reportFailure(mirror);
+        }
+    }
+
+    /**
+     * Check whether the url is configured already
+     */
+    private boolean contains(String url) {
+        for (Mirror mirror : mMirrors) {
+            if (mirror.url.equals(url)) return true;
+        }
+        return false;
+    }
+    //endregion
+}
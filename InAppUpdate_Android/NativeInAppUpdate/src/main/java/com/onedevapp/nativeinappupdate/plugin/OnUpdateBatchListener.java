@@ -0,0 +1,16 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+
+/**
+ * Optional extension of OnUpdateListener to receive all pending update events in a single call.
+ * Implement this to cut the number of calls across the bridge, the dispatcher falls back to the
+ * single event callbacks of OnUpdateListener otherwise.
+ */
+public interface OnUpdateBatchListener extends OnUpdateListener {
+    /**
+     * Pending update events in the order they were reported.
+     *
+     * @param events the events, never empty
+     */
+    void onUpdateEvents(UpdateEvent[] events);
+}
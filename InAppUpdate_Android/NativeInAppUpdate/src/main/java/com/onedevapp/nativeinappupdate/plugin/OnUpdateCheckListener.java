@@ -0,0 +1,14 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+
+/**
+ * Callback method where the result of a batched update check is reported.
+ */
+public interface OnUpdateCheckListener {
+    /**
+     * Results of every channel, once all answered, failed or timed out.
+     *
+     * @param results the results in the order of the channels
+     */
+    void onUpdateChecked(UpdateCheckResult[] results);
+}
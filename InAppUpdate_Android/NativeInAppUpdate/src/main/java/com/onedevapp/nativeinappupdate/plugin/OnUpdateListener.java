@@ -35,12 +35,12 @@ public interface OnUpdateListener {
     void onUpdateInstallState(int state);
 
     /**
-     * While update is Downloading returns with total bytes to download and bytes downloaded.
+     * While update is Downloading returns with bytes downloaded and total bytes to download.
      *
-     * @param totalBytesToDownload the code
-     * @param bytesDownloaded      the error
+     * @param bytesDownloaded      the bytes downloaded so far
+     * @param totalBytesToDownload the total bytes
      */
-    void onUpdateDownloading(long totalBytesToDownload, long bytesDownloaded);
+    void onUpdateDownloading(long bytesDownloaded, long totalBytesToDownload);
 
     /**
      * While update got any error returns with error code and message.
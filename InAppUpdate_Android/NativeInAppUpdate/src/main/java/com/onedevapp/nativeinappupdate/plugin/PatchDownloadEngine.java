@@ -0,0 +1,125 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.content.Context;
+import android.os.Process;
+
+import com.google.android.play.core.install.model.InstallStatus;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.concurrent.Future;
+
+/**
+ * PatchDownloadEngine downloads a bsdiff patch against the installed base apk and rebuilds
+ * the new apk with DeltaPatcher while the patch streams in.
+ * Any failure, including a patch made for another installed apk or a patched apk not matching the verifier,
+ * falls back to a full download with the given engine.
+ */
+class PatchDownloadEngine implements DownloadEngine {
+
+    // region Declarations
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String mPatchLink;
+    private final DigestVerifier mVerifier;
+    private final DownloadEngine mFallbackEngine;
+    private volatile boolean mCancelled;
+    private volatile Future<?> mFuture;
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param patchLink      the link of the patch against the installed apk
+     * @param verifier       the verifier of the patched apk, null to skip
+     * @param fallbackEngine the engine for the full download if patching fails
+     */
+    PatchDownloadEngine(String patchLink, DigestVerifier verifier, DownloadEngine fallbackEngine) {
+        this.mPatchLink = patchLink;
+        this.mVerifier = verifier;
+        this.mFallbackEngine = fallbackEngine;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    @Override
+    public void start(final Context context, final String url, final String fileName, final Callback callback) {
+        final File base = new File(context.getApplicationInfo().sourceDir);
+        final File file = new File(Constants.getDownloadDir(context), fileName);
+
+        mFuture = PluginExecutor.get().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    patch(base, file, new ProgressListener() {
+                        @Override
+                        public void onProgress(long bytesDownloaded, long totalBytes) {
+                            callback.onProgress(bytesDownloaded, totalBytes);
+                        }
+                    });
+                    if (!mCancelled)
+                        callback.onSuccess(Constants.getFileUri(context, file));
+                } catch (Exception e) {
+                    if (file.exists() && !file.delete())
+                        Constants.WriteLog("Failed to delete partial patched apk");
+                    if (mCancelled) return;
+
+                    Constants.WriteLog("Patch failed, falling back to full download : " + e.toString());
+                    callback.onRetry("Patch failed : " + e.toString());
+                    try {
+                        mFallbackEngine.start(context, url, fileName, callback);
+                    } catch (Exception fallbackError) {
+                        callback.onFailed(InstallStatus.FAILED, "Download failed, Try again later.");
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void cancel() {
+        mCancelled = true;
+        Future<?> future = mFuture;
+        if (future != null)
+            future.cancel(true);
+        mFallbackEngine.cancel();
+    }
+
+    /**
+     * Download the patch and apply it on base, blocks until done
+     *
+     * @param base     the installed base apk
+     * @param file     the new apk
+     * @param listener the progress listener reporting written bytes of the new apk
+     * @throws IOException if downloading or patching failed
+     */
+    void patch(File base, File file, ProgressListener listener) throws IOException {
+        Constants.WriteLog("Downloading patch on url :" + mPatchLink);
+        if (mVerifier != null) mVerifier.reset();
+
+        HttpURLConnection connection = SegmentedDownloadEngine.openConnection(mPatchLink, null);
+        int responseCode = connection.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            SegmentedDownloadEngine.drain(connection);
+            throw new IOException("Unexpected response code " + responseCode);
+        }
+
+        InputStream inputStream = new BufferedInputStream(DownloadThrottle.get().wrap(connection.getInputStream()), BUFFER_SIZE);
+        try {
+            long newSize = DeltaPatcher.apply(base, inputStream, file, listener, mVerifier);
+            Constants.WriteLog("Patched apk of " + newSize + " bytes");
+        } finally {
+            inputStream.close();
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        }
+    }
+    //endregion
+}
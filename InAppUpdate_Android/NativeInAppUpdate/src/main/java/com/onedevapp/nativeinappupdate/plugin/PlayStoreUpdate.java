@@ -10,17 +10,25 @@ import com.google.android.play.core.install.InstallStateUpdatedListener;
 import com.google.android.play.core.install.model.AppUpdateType;
 import com.google.android.play.core.install.model.InstallStatus;
 import com.google.android.play.core.install.model.UpdateAvailability;
+import com.google.android.play.core.tasks.OnFailureListener;
 import com.google.android.play.core.tasks.OnSuccessListener;
 import com.google.android.play.core.tasks.Task;
 
 /**
  * PlayStoreUpdate is responsible for updating app playstore.
+ * Every operation runs on the worker thread and shares the pending update info request, so overlapping calls
+ * make one call to the Play service. A checkUpdate() or continueUpdate() made while the same one is still
+ * waiting for it joins that one, its result reaches the listeners once.
  */
 public class PlayStoreUpdate extends BaseUpdateClass {
 
     // region Declarations
     private AppUpdateManager mAppUpdateManager;
     private AppUpdateInfo mAppUpdateInfo;
+    private Task<AppUpdateInfo> mAppUpdateInfoTask;   //pending update info request, null if none
+    private boolean mIsCheckPending;                //whether a checkUpdate() waits for the update info
+    private boolean mIsContinuePending;             //whether a continueUpdate() waits for the update info
+    private volatile boolean mIsListenerRegistered; //whether the install state listener is registered
 
     private InstallStateUpdatedListener listener = new InstallStateUpdatedListener() {
         @Override
@@ -76,40 +84,39 @@ public class PlayStoreUpdate extends BaseUpdateClass {
     // region Public functions
 
     /**
-     * Check update
+     * Check update, answered from the cached update info while it is fresh
      */
     @Override
     public void checkUpdate() {
 
-        this.mAppUpdateManager = AppUpdateManagerFactory.create(mUpdateManager.getActivity());
-        Task<AppUpdateInfo> appUpdateInfoTask = this.mAppUpdateManager.getAppUpdateInfo();
-
         registerListener();
 
-        appUpdateInfoTask.addOnSuccessListener(new OnSuccessListener<AppUpdateInfo>() {
+        if (mIsCheckPending) {
+            Constants.WriteLog("checkUpdate joined the pending check");
+            return;
+        }
+
+        UpdateState cachedState = mUpdateManager.getUpdateInfoCache().getFresh();
+        if (cachedState != null) {
+            Constants.WriteLog("checkUpdate answered from cache");
+            reportUpdateState(cachedState);
+            return;
+        }
+
+        mIsCheckPending = true;
+        getAppUpdateInfo().addOnSuccessListener(PluginExecutor.get(), new OnSuccessListener<AppUpdateInfo>() {
             @Override
             public void onSuccess(AppUpdateInfo appUpdateInfo) {
 
+                mIsCheckPending = false;
                 mAppUpdateInfo = appUpdateInfo;
-
-                if (mOnUpdateListener != null) {
-                    mOnUpdateListener.onUpdateAvailable(appUpdateInfo.updateAvailability() == UpdateAvailability.UPDATE_AVAILABLE, appUpdateInfo
-                            .isUpdateTypeAllowed(mUpdateType));
-                }
-
-                if (appUpdateInfo.updateAvailability() == UpdateAvailability.UPDATE_AVAILABLE) {
-                    if (mOnUpdateListener != null) {
-                        int availableVersionCode = appUpdateInfo.availableVersionCode();
-                        mOnUpdateListener.onUpdateVersionCode(availableVersionCode);
-                        try {
-                            int stalenessDays = appUpdateInfo.clientVersionStalenessDays() == null ? -1 : appUpdateInfo
-                                    .clientVersionStalenessDays();
-                            mOnUpdateListener.onUpdateStalenessDays(stalenessDays);
-                        } catch (Exception e) {
-                            mUpdateManager.reportUpdateError(-1, "checkUpdate:" + e.getMessage());
-                        }
-                    }
-                }
+                reportUpdateState(mUpdateManager.getUpdateInfoCache().put(appUpdateInfo));
+            }
+        }).addOnFailureListener(PluginExecutor.get(), new OnFailureListener() {
+            @Override
+            public void onFailure(Exception e) {
+                mIsCheckPending = false;
+                mUpdateManager.reportUpdateError(-1, "checkUpdate:" + e.getMessage());
             }
         });
     }
@@ -119,13 +126,30 @@ public class PlayStoreUpdate extends BaseUpdateClass {
      */
     @Override
     public void startUpdate() throws Exception {
-        this.mAppUpdateManager.startUpdateFlowForResult(
-                this.mAppUpdateInfo,
-                this.mUpdateType,
-                // The current activity making the update request.
-                mUpdateManager.getActivity(),
-                // Include a request code to later monitor this update request.
-                mUpdateManager.getRequestCode());
+        if (this.mAppUpdateInfo != null) {
+            startUpdateFlow(this.mAppUpdateInfo);
+            return;
+        }
+
+        //checkUpdate was answered from cache, the flow needs the live update info
+        getAppUpdateInfo().addOnSuccessListener(PluginExecutor.get(), new OnSuccessListener<AppUpdateInfo>() {
+            @Override
+            public void onSuccess(AppUpdateInfo appUpdateInfo) {
+
+                mAppUpdateInfo = appUpdateInfo;
+                mUpdateManager.getUpdateInfoCache().put(appUpdateInfo);
+                try {
+                    startUpdateFlow(appUpdateInfo);
+                } catch (IntentSender.SendIntentException e) {
+                    mUpdateManager.reportUpdateError(-1, "startUpdate:" + e.getMessage());
+                }
+            }
+        }).addOnFailureListener(PluginExecutor.get(), new OnFailureListener() {
+            @Override
+            public void onFailure(Exception e) {
+                mUpdateManager.reportUpdateError(-1, "startUpdate:" + e.getMessage());
+            }
+        });
     }
 
     /**
@@ -133,7 +157,7 @@ public class PlayStoreUpdate extends BaseUpdateClass {
      */
     @Override
     public void completeUpdate() {
-        this.mAppUpdateManager.completeUpdate();
+        getAppUpdateManager().completeUpdate();
     }
 
     /**
@@ -141,12 +165,36 @@ public class PlayStoreUpdate extends BaseUpdateClass {
      */
     @Override
     public void continueUpdate() {
-        mAppUpdateManager
-                .getAppUpdateInfo()
-                .addOnSuccessListener(new OnSuccessListener<AppUpdateInfo>() {
+
+        //Nothing can be unfinished while a fresh answer says there is no update at all
+        UpdateState cachedState = mUpdateManager.getUpdateInfoCache().getFresh();
+        if (cachedState != null && cachedState.updateAvailability == UpdateAvailability.UPDATE_NOT_AVAILABLE
+                && cachedState.installStatus == InstallStatus.UNKNOWN) {
+            return;
+        }
+
+        //Resumed again before the update info arrived, the pending continueUpdate() handles it
+        if (mIsContinuePending) {
+            Constants.WriteLog("continueUpdate joined the pending continue");
+            return;
+        }
+
+        mIsContinuePending = true;
+        getAppUpdateInfo()
+                .addOnSuccessListener(PluginExecutor.get(), new OnSuccessListener<AppUpdateInfo>() {
                     @Override
                     public void onSuccess(AppUpdateInfo appUpdateInfo) {
 
+                        mIsContinuePending = false;
+                        mAppUpdateInfo = appUpdateInfo;
+                        mUpdateManager.getUpdateInfoCache().put(appUpdateInfo);
+
+                        //The Play service kept downloading while the process was gone, follow its progress again
+                        if (appUpdateInfo.installStatus() == InstallStatus.PENDING
+                                || appUpdateInfo.installStatus() == InstallStatus.DOWNLOADING) {
+                            registerListener();
+                        }
+
                         //FLEXIBLE:
                         // If the update is downloaded but not installed,
                         // notify the user to complete the update.
@@ -160,36 +208,134 @@ public class PlayStoreUpdate extends BaseUpdateClass {
                         if (appUpdateInfo.updateAvailability() == UpdateAvailability.DEVELOPER_TRIGGERED_UPDATE_IN_PROGRESS) {
                             // If an in-app update is already running, resume the update.
                             try {
-                                mAppUpdateManager.startUpdateFlowForResult(
-                                        appUpdateInfo,
-                                        mUpdateType,
-                                        mUpdateManager.getActivity(),
-                                        mUpdateManager.getRequestCode());
+                                startUpdateFlow(appUpdateInfo);
                             } catch (IntentSender.SendIntentException e) {
                                 mUpdateManager.reportUpdateError(-1, "continueUpdate:" + e.getMessage());
                             }
                         }
                     }
+                }).addOnFailureListener(PluginExecutor.get(), new OnFailureListener() {
+                    @Override
+                    public void onFailure(Exception e) {
+                        mIsContinuePending = false;
+                        Constants.WriteLog("continueUpdate failed : " + e.getMessage());
+                    }
                 });
     }
+
+    /**
+     * Cancel update stops listening to the install state, Play Core has no way to abort a download it started
+     */
+    @Override
+    public void cancelUpdate() {
+        unRegisterListener();
+    }
+
+    /**
+     * Refresh the cached update info in background without reporting to the listener
+     */
+    @Override
+    public void refreshUpdateState() {
+        getAppUpdateInfo().addOnSuccessListener(PluginExecutor.get(), new OnSuccessListener<AppUpdateInfo>() {
+            @Override
+            public void onSuccess(AppUpdateInfo appUpdateInfo) {
+                mAppUpdateInfo = appUpdateInfo;
+                mUpdateManager.getUpdateInfoCache().put(appUpdateInfo);
+            }
+        }).addOnFailureListener(PluginExecutor.get(), new OnFailureListener() {
+            @Override
+            public void onFailure(Exception e) {
+                Constants.WriteLog("refreshUpdateState failed : " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Bind the Play service and refresh the cached update info unless it is fresh
+     */
+    @Override
+    public void prewarm() {
+        getAppUpdateManager();
+        if (mUpdateManager.getUpdateInfoCache().getFresh() == null)
+            refreshUpdateState();
+    }
     //endregion
 
     // region private functions
 
     /**
-     * Register listener for install status
+     * Returns the app update manager, created once and reused for every call.
+     * It is bound to the application, so it outlives a recreated activity. The one set on the manager is used if any.
+     */
+    private AppUpdateManager getAppUpdateManager() {
+        if (mAppUpdateManager == null)
+            mAppUpdateManager = mUpdateManager.getAppUpdateManager();
+        if (mAppUpdateManager == null)
+            mAppUpdateManager = AppUpdateManagerFactory.create(mUpdateManager.getActivity().getApplicationContext());
+        return mAppUpdateManager;
+    }
+
+    /**
+     * Returns the pending update info request, a new one only if none is pending, called on the worker thread.
+     * A batched check joins it too, see UpdateBatchCheck.
+     */
+    Task<AppUpdateInfo> getAppUpdateInfo() {
+        if (mAppUpdateInfoTask == null || mAppUpdateInfoTask.isComplete())
+            mAppUpdateInfoTask = getAppUpdateManager().getAppUpdateInfo();
+        else
+            Constants.WriteLog("Update info request shared");
+        return mAppUpdateInfoTask;
+    }
+
+    /**
+     * Report the update availability to the listener
+     *
+     * @param updateState the update state either cached or just received
+     */
+    private void reportUpdateState(UpdateState updateState) {
+        if (mOnUpdateListener == null) return;
+
+        mOnUpdateListener.onUpdateAvailable(updateState.isUpdateAvailable(), updateState.isUpdateTypeAllowed(mUpdateType));
+
+        if (updateState.isUpdateAvailable()) {
+            mOnUpdateListener.onUpdateVersionCode(updateState.availableVersionCode);
+            mOnUpdateListener.onUpdateStalenessDays(updateState.stalenessDays);
+        }
+    }
+
+    /**
+     * Start the Play update flow
+     *
+     * @param appUpdateInfo the live update info
+     */
+    private void startUpdateFlow(AppUpdateInfo appUpdateInfo) throws IntentSender.SendIntentException {
+        getAppUpdateManager().startUpdateFlowForResult(
+                appUpdateInfo,
+                this.mUpdateType,
+                // The current activity making the update request.
+                mUpdateManager.getActivity(),
+                // Include a request code to later monitor this update request.
+                mUpdateManager.getRequestCode());
+    }
+
+    /**
+     * Register listener for install status, once however often it is called
      */
     private void registerListener() {
-        if (mUpdateType == AppUpdateType.FLEXIBLE)
-            mAppUpdateManager.registerListener(this.listener);
+        if (mUpdateType == AppUpdateType.FLEXIBLE && !mIsListenerRegistered) {
+            getAppUpdateManager().registerListener(this.listener);
+            mIsListenerRegistered = true;
+        }
     }
 
     /**
      * unregister listener from install status
      */
     private void unRegisterListener() {
-        if (mUpdateType == AppUpdateType.FLEXIBLE)
-            mAppUpdateManager.unregisterListener(this.listener);
+        if (mIsListenerRegistered) {
+            getAppUpdateManager().unregisterListener(this.listener);
+            mIsListenerRegistered = false;
+        }
     }
     //endregion
 }
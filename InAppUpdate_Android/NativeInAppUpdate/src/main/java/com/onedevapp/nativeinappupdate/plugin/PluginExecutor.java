@@ -0,0 +1,143 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PluginExecutor owns every thread of the plugin, shared by all downloads and checks of the process.
+ * One worker thread runs the UpdateManager calls, Play Core callbacks and DownloadManager tracking in order,
+ * and a bounded pool runs the blocking network and file work. Mirror probes have a small pool of their own,
+ * as the download waiting for them holds an IO thread. The plugin never uses more than
+ * MAX_THREAD_COUNT threads however often an update is retried, idle pool threads exit after a while.
+ */
+final class PluginExecutor implements Executor {
+
+    // region Declarations
+    static final int MAX_IO_THREADS = 5;    //blocking tasks, a download takes one plus one per segment
+    static final int MAX_PROBE_THREADS = 3;     //mirror probes, short requests with a timeout
+    static final int MAX_THREAD_COUNT = MAX_IO_THREADS + MAX_PROBE_THREADS + 1;     //including the worker thread
+    private static final long IO_KEEP_ALIVE_SECONDS = 30;
+
+    private static PluginExecutor sInstance;
+
+    private final HandlerThread mWorkerThread;
+    private final Handler mWorkerHandler;
+    private final ThreadPoolExecutor mIoExecutor;
+    private final ThreadPoolExecutor mProbeExecutor;
+
+    //endregion
+
+    //region Constructor
+
+    private PluginExecutor() {
+        mWorkerThread = new HandlerThread("NativeInAppUpdate-Worker", Process.THREAD_PRIORITY_BACKGROUND);
+        mWorkerThread.start();
+        mWorkerHandler = new Handler(mWorkerThread.getLooper());
+
+        mIoExecutor = new ThreadPoolExecutor(MAX_IO_THREADS, MAX_IO_THREADS, IO_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new IoThreadFactory("NativeInAppUpdate-IO-"));
+        mIoExecutor.allowCoreThreadTimeOut(true);
+        mProbeExecutor = new ThreadPoolExecutor(MAX_PROBE_THREADS, MAX_PROBE_THREADS, IO_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new IoThreadFactory("NativeInAppUpdate-Probe-"));
+        mProbeExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the executor of the process, created on first use
+     */
+    static synchronized PluginExecutor get() {
+        if (sInstance == null) {
+            sInstance = new PluginExecutor();
+        }
+        return sInstance;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Run on the worker thread, in order with everything else posted there
+     *
+     * @param runnable the work, must not block
+     */
+    @Override
+    public void execute(Runnable runnable) {
+        mWorkerHandler.post(runnable);
+    }
+
+    /**
+     * Returns the handler of the worker thread
+     */
+    Handler getHandler() {
+        return mWorkerHandler;
+    }
+
+    /**
+     * Run blocking work on the pool
+     *
+     * @param runnable the work, should check for interruption to be cancellable
+     * @return the future to cancel it
+     */
+    Future<?> submit(Runnable runnable) {
+        return mIoExecutor.submit(runnable);
+    }
+
+    /**
+     * Run blocking work on the pool
+     *
+     * @param callable the work, should check for interruption to be cancellable
+     * @return the future of the result
+     */
+    <T> Future<T> submit(Callable<T> callable) {
+        return mIoExecutor.submit(callable);
+    }
+
+    /**
+     * Run a mirror probe on the probe pool, so a download task waiting for it never waits on its own pool
+     *
+     * @param runnable the probe, should check for interruption to be cancellable
+     * @return the future to cancel it
+     */
+    Future<?> submitProbe(Runnable runnable) {
+        return mProbeExecutor.submit(runnable);
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Names the pool threads and runs them in background priority
+     */
+    private static class IoThreadFactory implements ThreadFactory {
+        private final String mNamePrefix;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        IoThreadFactory(String namePrefix) {
+            this.mNamePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, mNamePrefix + mCount.incrementAndGet());
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,634 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.content.Context;
+import android.os.Process;
+
+import com.google.android.play.core.install.model.InstallStatus;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * SegmentedDownloadEngine downloads with parallel HTTP Range requests into a preallocated file in the
+ * app specific Downloads directory, so no storage permission is needed.
+ * Each segment is written at its own offset through a shared FileChannel and retried from the last
+ * written byte. Falls back to a single stream when the server doesn't support ranges.
+ * Connections are pooled by HttpURLConnection keep-alive as every response body is read to the end.
+ * With a DigestVerifier, the task waiting for the segments hashes the file in order right behind the writers.
+ * Reads follow the DownloadThrottle, segments above its limit close their connection and pause.
+ * With mirrors, the download starts on the fastest one found by the MirrorSelector and a segment reconnects
+ * to another mirror from its last written byte when its mirror fails or is several times slower than another.
+ * With a DownloadJournal, the segment positions are checkpointed after syncing the file, a failed download keeps
+ * its file and the next download of the same file, even after a restart, resumes every segment from its checkpoint.
+ * All tasks run on the PluginExecutor pool.
+ */
+class SegmentedDownloadEngine implements DownloadEngine {
+
+    // region Declarations
+    static final int DEFAULT_SEGMENT_COUNT = 4;
+    private static final long MIN_SEGMENT_SIZE = 2 * 1024 * 1024;   //don't split below 2MB per segment
+    private static final int BUFFER_SIZE = 64 * 1024;
+    static final int MAX_RETRIES = 3;   //retries per segment without progress
+    static final long RETRY_DELAY_MS = 500;
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+    private static final long MAX_OFFLINE_WAIT_MS = 10 * 60 * 1000;    //give up after 10 minutes without network
+    private static final long HASH_WAIT_NS = 20 * 1000 * 1000;   //hash task wait when it caught up with the writers
+    private static final long THROUGHPUT_SAMPLE_MS = 2000;  //throughput of a segment is measured over this time
+    private static final long CHECKPOINT_INTERVAL_MS = 2000;    //segment positions are journaled this often
+
+    private final int mSegmentCount;
+    private final DigestVerifier mVerifier;
+    private final String[] mMirrorLinks;    //other links of the same apk, null for none
+    private final DownloadJournal mJournal; //journal to resume from, null to always start over
+    private final AtomicLong mBytesDownloaded = new AtomicLong();
+    private final AtomicLong mLastCheckpoint = new AtomicLong();   //nano time of the last journaled positions
+    private volatile boolean mCancelled;
+    private volatile Future<?> mFuture;
+    private volatile Callback mCallback;    //null when used as a blocking download step
+    private volatile ConnectivityMonitor mConnectivityMonitor;  //null to retry without waiting for the network
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param segmentCount the max number of parallel segments
+     * @param verifier     the verifier of the downloaded apk, null to skip
+     */
+    SegmentedDownloadEngine(int segmentCount, DigestVerifier verifier) {
+        this(segmentCount, verifier, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param segmentCount the max number of parallel segments
+     * @param verifier     the verifier of the downloaded apk, null to skip
+     * @param mirrorLinks  the other links of the same apk, null for none
+     */
+    SegmentedDownloadEngine(int segmentCount, DigestVerifier verifier, String[] mirrorLinks) {
+        this(segmentCount, verifier, mirrorLinks, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param segmentCount the max number of parallel segments
+     * @param verifier     the verifier of the downloaded apk, null to skip
+     * @param mirrorLinks  the other links of the same apk, null for none
+     * @param journal      the journal to resume from and checkpoint into, null for none
+     */
+    SegmentedDownloadEngine(int segmentCount, DigestVerifier verifier, String[] mirrorLinks, DownloadJournal journal) {
+        this.mSegmentCount = Math.max(1, segmentCount);
+        this.mVerifier = verifier;
+        this.mMirrorLinks = mirrorLinks;
+        this.mJournal = journal;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    @Override
+    public void start(final Context context, final String url, String fileName, final Callback callback) {
+        final File file = new File(Constants.getDownloadDir(context), fileName);
+        mCallback = callback;
+        mConnectivityMonitor = ConnectivityMonitor.get(context);
+
+        mFuture = PluginExecutor.get().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    download(url, file, new ProgressListener() {
+                        @Override
+                        public void onProgress(long bytesDownloaded, long totalBytes) {
+                            callback.onProgress(bytesDownloaded, totalBytes);
+                        }
+                    });
+                    if (!mCancelled)
+                        callback.onSuccess(Constants.getFileUri(context, file));
+                } catch (DigestVerifier.VerificationException e) {
+                    Constants.WriteLog("SegmentedDownloadEngine verification failed : " + e.getMessage());
+                    if (!mCancelled)
+                        callback.onFailed(Constants.ERROR_VERIFICATION_FAILED, "Download verification failed : " + e.getMessage());
+                } catch (Exception e) {
+                    Constants.WriteLog("SegmentedDownloadEngine failed : " + e.toString());
+                    if (!mCancelled)
+                        callback.onFailed(InstallStatus.FAILED, "Download failed, Try again later.");
+                }
+            }
+        });
+    }
+
+    @Override
+    public void cancel() {
+        mCancelled = true;
+        //Interrupts the waiting task, which cancels its segments on the way out
+        Future<?> future = mFuture;
+        if (future != null)
+            future.cancel(true);
+    }
+
+    /**
+     * Download the url, or the fastest of its mirrors, into the file, blocks until done
+     *
+     * @param url      the url to download
+     * @param file     the destination file, replaced if exists unless the journal resumes it
+     * @param listener the progress listener
+     * @throws IOException if the download failed, was cancelled or didn't match the verifier
+     */
+    void download(String url, File file, ProgressListener listener) throws IOException {
+        mBytesDownloaded.set(0);
+        if (mVerifier != null) mVerifier.reset();
+        boolean isComplete = false;
+        boolean isResumable = false;
+        try {
+            awaitNetwork();
+            MirrorSelector mirrors = new MirrorSelector(url, mMirrorLinks);
+            mirrors.probe();
+
+            //Probe with a single byte range, a 206 tells both range support and the total size
+            HttpURLConnection probe = null;
+            MirrorSelector.Mirror mirror = null;
+            int responseCode = -1;
+            IOException failure = null;
+            for (MirrorSelector.Mirror candidate : mirrors.getRanked()) {
+                checkCancelled();
+                try {
+                    probe = openConnection(candidate.url, "bytes=0-0");
+                    responseCode = probe.getResponseCode();
+                    if (responseCode == HttpURLConnection.HTTP_PARTIAL || responseCode == HttpURLConnection.HTTP_OK) {
+                        mirror = candidate;
+                        break;
+                    }
+                    drain(probe);
+                    failure = new IOException("Unexpected response code " + responseCode);
+                } catch (IOException e) {
+                    if (mCancelled) throw e;
+                    failure = e;
+                }
+                mirrors.reportFailure(candidate);
+            }
+            if (mirror == null) throw failure;
+
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                long totalBytes = parseTotalBytes(probe.getHeaderField("Content-Range"));
+                String validator = probe.getHeaderField("ETag");
+                if (validator == null) validator = probe.getHeaderField("Last-Modified");
+                drain(probe);
+                if (totalBytes > 0) {
+                    isResumable = mJournal != null;
+                    downloadSegments(mirrors, file, totalBytes, validator, listener);
+                } else {
+                    downloadSingle(openConnection(mirror.url, null), file, listener);
+                }
+            } else {
+                Constants.WriteLog("Range requests not supported, downloading as single stream");
+                downloadSingle(probe, file, listener);
+            }
+            if (mVerifier != null) mVerifier.verify();
+            isComplete = true;
+        } catch (DigestVerifier.VerificationException e) {
+            isResumable = false;
+            throw e;
+        } finally {
+            //A journaled file is kept for the next try, unless it is wrong or no longer wanted
+            if (!isComplete && (!isResumable || mCancelled) && file.exists() && !file.delete())
+                Constants.WriteLog("Failed to delete partial download");
+        }
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Download with parallel range requests into a preallocated file, resuming the journaled segments of the same file
+     */
+    private void downloadSegments(final MirrorSelector mirrors, File file, final long totalBytes, String validator,
+                                  final ProgressListener listener) throws IOException {
+        long[] resumePositions = mJournal != null ? getResumePositions(file, totalBytes, validator) : null;
+        //The calling task holds one pool thread, the segments must fit in the rest to all run at once
+        int segments = (int) Math.min(Math.min(mSegmentCount, PluginExecutor.MAX_IO_THREADS - 1),
+                (totalBytes + MIN_SEGMENT_SIZE - 1) / MIN_SEGMENT_SIZE);
+        segments = resumePositions != null ? resumePositions.length : Math.max(1, segments);
+        long segmentSize = (totalBytes + segments - 1) / segments;
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        List<Future<Void>> futures = new ArrayList<>(segments);
+        //Write position of every segment, published for the hashing
+        final AtomicLongArray positions = new AtomicLongArray(segments);
+        FileChannel channel = null;
+        try {
+            randomAccessFile.setLength(totalBytes);
+            channel = randomAccessFile.getChannel();
+            final long[] ends = new long[segments];
+            long resumedBytes = 0;
+            for (int i = 0; i < segments; i++) {
+                long start = i * segmentSize;
+                positions.set(i, resumePositions != null ? resumePositions[i] : start);
+                ends[i] = Math.min(totalBytes, start + segmentSize) - 1;
+                resumedBytes += positions.get(i) - start;
+            }
+            mBytesDownloaded.set(resumedBytes);
+            if (resumePositions != null) {
+                Constants.WriteLog("Resuming " + totalBytes + " bytes in " + segments + " segments at " + resumedBytes);
+            } else {
+                Constants.WriteLog("Downloading " + totalBytes + " bytes in " + segments + " segments");
+                if (mJournal != null) mJournal.setSegments(file, totalBytes, validator, toArray(positions));
+            }
+            mLastCheckpoint.set(System.nanoTime());
+
+            final FileChannel segmentChannel = channel;
+            for (int i = 0; i < segments; i++) {
+                final int index = i;
+                final long start = positions.get(i);
+                final long end = ends[i];
+                futures.add(PluginExecutor.get().submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        downloadSegment(mirrors, segmentChannel, index, start, end, positions, totalBytes, listener);
+                        return null;
+                    }
+                }));
+            }
+
+            if (mVerifier != null)
+                hashSegments(channel, positions, ends, totalBytes, futures);
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                } catch (InterruptedException | CancellationException e) {
+                    throw new InterruptedIOException("Download cancelled");
+                }
+            }
+        } finally {
+            //Keep what was written for the next try before the segments are stopped
+            if (channel != null && !mCancelled)
+                checkpoint(channel, positions, true);
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Returns the journaled positions if they belong to this file and every one lies within its segment, else null
+     */
+    private long[] getResumePositions(File file, long totalBytes, String validator) {
+        DownloadJournal.Entry entry = mJournal.get();
+        long[] positions = entry != null ? entry.getResumePositions(file, totalBytes, validator) : null;
+        if (positions == null) return null;
+
+        long segmentSize = (totalBytes + positions.length - 1) / positions.length;
+        for (int i = 0; i < positions.length; i++) {
+            long start = i * segmentSize;
+            if (positions[i] < start || positions[i] > Math.min(totalBytes, start + segmentSize))
+                return null;
+        }
+        return positions;
+    }
+
+    /**
+     * Sync the file and journal the segment positions, at most every CHECKPOINT_INTERVAL_MS unless forced
+     */
+    private void checkpoint(FileChannel channel, AtomicLongArray positions, boolean force) {
+        if (mJournal == null || mCancelled) return;
+        long lastCheckpoint = mLastCheckpoint.get();
+        long now = System.nanoTime();
+        if (!force && (now - lastCheckpoint < CHECKPOINT_INTERVAL_MS * 1000000 || !mLastCheckpoint.compareAndSet(lastCheckpoint, now)))
+            return;
+
+        //Positions are published after their bytes are written, so a sync after reading them covers them all
+        long[] snapshot = toArray(positions);
+        try {
+            channel.force(false);
+            mJournal.checkpoint(snapshot);
+        } catch (IOException e) {
+            Constants.WriteLog("Download checkpoint failed : " + e.toString());
+        }
+    }
+
+    /**
+     * Copy the positions into an array
+     */
+    private static long[] toArray(AtomicLongArray positions) {
+        long[] array = new long[positions.length()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = positions.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Hash the written bytes in order, following the segment writers until the whole file is hashed
+     * or a segment failed
+     */
+    private void hashSegments(FileChannel channel, AtomicLongArray positions, long[] ends, long totalBytes,
+                              List<Future<Void>> futures) throws IOException {
+        while (mVerifier.getHashedBytes() < totalBytes) {
+            checkCancelled();
+
+            //Bytes are contiguous up to the write position of the first unfinished segment
+            long contiguous = totalBytes;
+            for (int i = 0; i < ends.length; i++) {
+                long position = positions.get(i);
+                if (position <= ends[i]) {
+                    contiguous = position;
+                    break;
+                }
+            }
+
+            if (contiguous > mVerifier.getHashedBytes()) {
+                mVerifier.updateFromFile(channel, contiguous);
+            } else {
+                //A finished segment short of its end has failed, the caller reports it
+                for (int i = 0; i < ends.length; i++) {
+                    if (futures.get(i).isDone() && positions.get(i) <= ends[i]) return;
+                }
+                LockSupport.parkNanos(HASH_WAIT_NS);
+            }
+        }
+    }
+
+    /**
+     * Download a single inclusive byte range, resuming from the last written byte on failure, pause or
+     * mirror switch
+     */
+    private void downloadSegment(MirrorSelector mirrors, FileChannel channel, int index, long start, long end, AtomicLongArray positions,
+                                 long totalBytes, ProgressListener listener) throws IOException {
+        DownloadThrottle throttle = DownloadThrottle.get();
+        int segmentCount = positions.length();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        long position = start;
+        int attempt = 0;
+        int priority = Process.THREAD_PRIORITY_BACKGROUND;
+        MirrorSelector.Mirror mirror = mirrors.pick(null);
+
+        try {
+            while (position <= end) {
+                checkCancelled();
+                throttle.awaitSegment(index, segmentCount);
+                priority = throttle.applyThreadPriority(priority);
+                HttpURLConnection connection = null;
+                try {
+                    connection = openConnection(mirror.url, "bytes=" + position + "-" + end);
+                    int responseCode = connection.getResponseCode();
+                    if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                        drain(connection);
+                        throw new IOException("Unexpected response code " + responseCode + " for range");
+                    }
+                    long mirrorTotalBytes = parseTotalBytes(connection.getHeaderField("Content-Range"));
+                    if (mirrorTotalBytes != totalBytes) {
+                        drain(connection);
+                        throw new IOException("Mirror has " + mirrorTotalBytes + " bytes instead of " + totalBytes);
+                    }
+
+                    boolean isPaused = false;
+                    boolean isSlow = false;
+                    long sampleStart = System.nanoTime();
+                    long sampleBytes = 0;
+                    InputStream inputStream = connection.getInputStream();
+                    try {
+                        int read;
+                        while (position <= end && (read = inputStream.read(buffer, 0, throttle.getChunkSize(BUFFER_SIZE))) != -1) {
+                            checkCancelled();
+                            int length = (int) Math.min(read, end - position + 1);
+                            byteBuffer.clear();
+                            byteBuffer.limit(length);
+                            while (byteBuffer.hasRemaining()) {
+                                position += channel.write(byteBuffer, position);
+                            }
+                            positions.set(index, position);
+                            attempt = 0;
+                            listener.onProgress(mBytesDownloaded.addAndGet(length), totalBytes);
+                            checkpoint(channel, positions, false);
+
+                            throttle.acquire(length);
+                            priority = throttle.applyThreadPriority(priority);
+                            if (position <= end && index >= throttle.getMaxSegments(segmentCount)) {
+                                isPaused = true;
+                                break;
+                            }
+
+                            //A throttled rate says nothing about the mirror
+                            sampleBytes += length;
+                            long sampleMs = (System.nanoTime() - sampleStart) / 1000000;
+                            if (sampleMs >= THROUGHPUT_SAMPLE_MS && throttle.getBytesPerSecond() <= 0) {
+                                long bytesPerSecond = sampleBytes * 1000 / sampleMs;
+                                mirrors.reportThroughput(mirror, bytesPerSecond);
+                                if (position <= end && mirrors.isSlow(mirror, bytesPerSecond)) {
+                                    isSlow = true;
+                                    break;
+                                }
+                                sampleStart = System.nanoTime();
+                                sampleBytes = 0;
+                            }
+                        }
+                    } finally {
+                        inputStream.close();
+                    }
+
+                    //The rest of the body is not read, so the connection can't go back to the pool
+                    if (isPaused) {
+                        Constants.WriteLog("Segment " + index + " paused at " + position);
+                        connection.disconnect();
+                    } else if (isSlow) {
+                        MirrorSelector.Mirror next = mirrors.pick(mirror);
+                        Constants.WriteLog("Segment " + index + " is slow on " + mirror + ", switching to " + next);
+                        connection.disconnect();
+                        mirror = next;
+                    } else if (position <= end) {
+                        throw new EOFException("Segment ended at " + position + " of " + end);
+                    }
+                } catch (IOException e) {
+                    if (mCancelled) throw e;
+                    if (connection != null) connection.disconnect();
+                    if (awaitNetwork()) {
+                        //Lost the network, not the server, resume from the last written byte
+                        attempt = 0;
+                        continue;
+                    }
+                    //Every mirror gets its retries before the segment gives up
+                    if (++attempt > MAX_RETRIES * mirrors.size()) throw e;
+
+                    mirrors.reportFailure(mirror);
+                    MirrorSelector.Mirror next = mirrors.pick(mirror);
+                    Constants.WriteLog("Segment " + start + "-" + end + " failed on " + mirror.url + ", retry " + attempt
+                            + " on " + next.url + " : " + e.toString());
+                    Callback callback = mCallback;
+                    if (callback != null) callback.onRetry("Segment " + index + " : " + e.toString());
+                    if (next == mirror || !mirrors.isAvailable(next)) {
+                        try {
+                            Thread.sleep(RETRY_DELAY_MS * attempt);
+                        } catch (InterruptedException ie) {
+                            throw new InterruptedIOException("Download cancelled");
+                        }
+                    }
+                    mirror = next;
+                }
+            }
+        } finally {
+            //Pool threads are shared, leave them at their default priority
+            if (priority != Process.THREAD_PRIORITY_BACKGROUND)
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        }
+    }
+
+    /**
+     * Download the whole body of an already opened connection sequentially
+     */
+    private void downloadSingle(HttpURLConnection connection, File file, ProgressListener listener) throws IOException {
+        int responseCode = connection.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            drain(connection);
+            throw new IOException("Unexpected response code " + responseCode);
+        }
+        long totalBytes = parseLong(connection.getHeaderField("Content-Length"));
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        InputStream inputStream = DownloadThrottle.get().wrap(connection.getInputStream());
+        try {
+            randomAccessFile.setLength(Math.max(0, totalBytes));
+            FileChannel channel = randomAccessFile.getChannel();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            long position = 0;
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                checkCancelled();
+                byteBuffer.clear();
+                byteBuffer.limit(read);
+                while (byteBuffer.hasRemaining()) {
+                    position += channel.write(byteBuffer, position);
+                }
+                if (mVerifier != null) mVerifier.update(buffer, 0, read);
+                listener.onProgress(mBytesDownloaded.addAndGet(read), totalBytes);
+            }
+            if (totalBytes > 0 && position != totalBytes)
+                throw new EOFException("Downloaded " + position + " of " + totalBytes);
+            randomAccessFile.setLength(position);
+        } finally {
+            inputStream.close();
+            randomAccessFile.close();
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        }
+    }
+
+    /**
+     * Open a connection for the url with an optional range
+     */
+    static HttpURLConnection openConnection(String url, String range) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setInstanceFollowRedirects(true);
+        //Compressed bodies would break the byte offsets
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        if (range != null)
+            connection.setRequestProperty("Range", range);
+        return connection;
+    }
+
+    /**
+     * Read the remaining body so the connection goes back to the keep-alive pool
+     */
+    static void drain(HttpURLConnection connection) {
+        try {
+            InputStream inputStream = connection.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST
+                    ? connection.getInputStream() : connection.getErrorStream();
+            if (inputStream == null) return;
+            byte[] buffer = new byte[1024];
+            while (inputStream.read(buffer) != -1) ;
+            inputStream.close();
+        } catch (IOException e) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Wait for the network if it is gone, so a download doesn't use up its retries while offline
+     *
+     * @return true if it waited for a reconnect else false
+     * @throws InterruptedIOException if cancelled while waiting
+     */
+    private boolean awaitNetwork() throws InterruptedIOException {
+        return awaitNetwork(mConnectivityMonitor);
+    }
+
+    /**
+     * Wait for the network if it is gone
+     *
+     * @param connectivityMonitor the monitor, null to not wait
+     * @return true if it waited for a reconnect else false
+     * @throws InterruptedIOException if cancelled while waiting
+     */
+    static boolean awaitNetwork(ConnectivityMonitor connectivityMonitor) throws InterruptedIOException {
+        if (connectivityMonitor == null || connectivityMonitor.isConnected()) return false;
+
+        Constants.WriteLog("Network lost, download paused");
+        try {
+            if (!connectivityMonitor.awaitConnected(MAX_OFFLINE_WAIT_MS)) return false;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Download cancelled");
+        }
+        Constants.WriteLog("Network back, download resumed");
+        return true;
+    }
+
+    /**
+     * Throws if the download was cancelled
+     */
+    private void checkCancelled() throws InterruptedIOException {
+        if (mCancelled || Thread.currentThread().isInterrupted())
+            throw new InterruptedIOException("Download cancelled");
+    }
+
+    /**
+     * Parse the total length from a Content-Range header like "bytes 0-0/1234"
+     */
+    static long parseTotalBytes(String contentRange) {
+        if (contentRange == null) return -1;
+        int index = contentRange.lastIndexOf('/');
+        return index < 0 ? -1 : parseLong(contentRange.substring(index + 1));
+    }
+
+    /**
+     * Parse a header value, -1 if missing or invalid
+     */
+    static long parseLong(String value) {
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,300 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.content.Context;
+import android.os.Process;
+
+import com.google.android.play.core.install.model.InstallStatus;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SessionDownloadEngine streams the apk straight into an InstallSession instead of a file, so nothing is
+ * written to Downloads and no storage permission is needed. The body is written in order and hashed on the
+ * fly, a dropped connection resumes with a Range request from the last written byte, on another mirror if
+ * the current one failed. onSuccess() reports no file uri, the session is ready to commit instead.
+ * With split apks every split is downloaded in parallel into its own file of the same session, progress
+ * is reported for all of them together and the session is only ready once every split is verified.
+ * Runs on the PluginExecutor pool.
+ */
+class SessionDownloadEngine implements DownloadEngine {
+
+    // region Declarations
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InstallSession mInstallSession;
+    private final DigestVerifier mVerifier;
+    private final String[] mMirrorLinks;    //other links of the base apk, null for none
+    private final List<ApkSplit> mSplits;   //splits next to the base apk, null for none
+    private final AtomicLong mBytesDownloaded = new AtomicLong();
+    private volatile boolean mCancelled;
+    private volatile Future<?> mFuture;
+    private volatile Callback mCallback;
+    private volatile ConnectivityMonitor mConnectivityMonitor;
+    private volatile List<Part> mParts;
+
+    //endregion
+
+    /**
+     * A single apk written into the session.
+     */
+    private static class Part {
+        final String name;
+        final MirrorSelector mirrors;
+        final DigestVerifier verifier;
+        volatile long totalBytes;   //-1 until known
+        long position;              //bytes written, used by the task of the part only
+
+        Part(String name, MirrorSelector mirrors, DigestVerifier verifier, long totalBytes) {
+            this.name = name;
+            this.mirrors = mirrors;
+            this.verifier = verifier;
+            this.totalBytes = totalBytes > 0 ? totalBytes : -1;
+        }
+    }
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param installSession the session to write into
+     * @param verifier       the verifier of the base apk, null to skip
+     * @param mirrorLinks    the other links of the base apk, null for none
+     * @param splits         the splits to install with the base apk, null for none
+     */
+    SessionDownloadEngine(InstallSession installSession, DigestVerifier verifier, String[] mirrorLinks, List<ApkSplit> splits) {
+        this.mInstallSession = installSession;
+        this.mVerifier = verifier;
+        this.mMirrorLinks = mirrorLinks;
+        this.mSplits = splits;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    @Override
+    public void start(Context context, String url, String fileName, final Callback callback) {
+        mCallback = callback;
+        mConnectivityMonitor = ConnectivityMonitor.get(context);
+
+        final List<Part> parts = new ArrayList<>();
+        parts.add(new Part(InstallSession.BASE_APK, new MirrorSelector(url, mMirrorLinks), mVerifier, 0));
+        if (mSplits != null) {
+            for (ApkSplit split : mSplits) {
+                parts.add(new Part(split.name + ".apk", new MirrorSelector(split.url, null),
+                        BaseUpdateClass.createVerifier(split.sha256, split.size), split.size));
+            }
+        }
+        mParts = parts;
+
+        mFuture = PluginExecutor.get().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    download(parts);
+                    mInstallSession.setWritten();
+                    if (!mCancelled)
+                        callback.onSuccess(null);
+                } catch (DigestVerifier.VerificationException e) {
+                    Constants.WriteLog("SessionDownloadEngine verification failed : " + e.getMessage());
+                    if (!mCancelled)
+                        callback.onFailed(Constants.ERROR_VERIFICATION_FAILED, "Download verification failed : " + e.getMessage());
+                } catch (Exception e) {
+                    Constants.WriteLog("SessionDownloadEngine failed : " + e.toString());
+                    if (!mCancelled)
+                        callback.onFailed(InstallStatus.FAILED, "Download failed, Try again later.");
+                }
+            }
+        });
+    }
+
+    @Override
+    public void cancel() {
+        mCancelled = true;
+        //Interrupts the waiting task, which cancels the other parts on the way out
+        Future<?> future = mFuture;
+        if (future != null)
+            future.cancel(true);
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Download every part into the session, the base apk on this thread and the splits in parallel
+     */
+    private void download(List<Part> parts) throws IOException {
+        SegmentedDownloadEngine.awaitNetwork(mConnectivityMonitor);
+        if (parts.size() == 1) {
+            download(parts.get(0));
+            return;
+        }
+
+        Constants.WriteLog("Downloading " + parts.size() + " apks into the install session");
+        List<Future<Void>> futures = new ArrayList<>(parts.size() - 1);
+        try {
+            for (int i = 1; i < parts.size(); i++) {
+                final Part part = parts.get(i);
+                futures.add(PluginExecutor.get().submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        download(part);
+                        return null;
+                    }
+                }));
+            }
+            download(parts.get(0));
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                } catch (InterruptedException | CancellationException e) {
+                    throw new InterruptedIOException("Download cancelled");
+                }
+            }
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Download a part, or the fastest of its mirrors, into the session, blocks until done
+     */
+    private void download(Part part) throws IOException {
+        if (part.verifier != null) part.verifier.reset();
+        MirrorSelector mirrors = part.mirrors;
+        mirrors.probe();
+
+        MirrorSelector.Mirror mirror = mirrors.pick(null);
+        int attempt = 0;
+        boolean isComplete = false;
+
+        while (!isComplete) {
+            checkCancelled();
+            long position = part.position;
+            HttpURLConnection connection = null;
+            try {
+                connection = SegmentedDownloadEngine.openConnection(mirror.url, position > 0 ? "bytes=" + position + "-" : null);
+                int responseCode = connection.getResponseCode();
+                if (responseCode != (position > 0 ? HttpURLConnection.HTTP_PARTIAL : HttpURLConnection.HTTP_OK)) {
+                    SegmentedDownloadEngine.drain(connection);
+                    throw new IOException("Unexpected response code " + responseCode + " at " + position);
+                }
+                long responseTotalBytes = position > 0
+                        ? SegmentedDownloadEngine.parseTotalBytes(connection.getHeaderField("Content-Range"))
+                        : SegmentedDownloadEngine.parseLong(connection.getHeaderField("Content-Length"));
+                if (position > 0 && responseTotalBytes != part.totalBytes) {
+                    SegmentedDownloadEngine.drain(connection);
+                    throw new IOException("Mirror has " + responseTotalBytes + " bytes instead of " + part.totalBytes);
+                }
+                part.totalBytes = responseTotalBytes;
+
+                write(part, connection);
+                if (part.totalBytes > 0 && part.position < part.totalBytes)
+                    throw new EOFException("Downloaded " + part.position + " of " + part.totalBytes);
+                isComplete = true;
+            } catch (IOException e) {
+                if (mCancelled) throw e;
+                if (connection != null) connection.disconnect();
+                if (part.position > position) attempt = 0;
+                if (SegmentedDownloadEngine.awaitNetwork(mConnectivityMonitor)) continue;
+                //Without a known size there is nothing to resume against
+                if ((part.totalBytes <= 0 && part.position > 0) || ++attempt > SegmentedDownloadEngine.MAX_RETRIES * mirrors.size())
+                    throw e;
+
+                mirrors.reportFailure(mirror);
+                MirrorSelector.Mirror next = mirrors.pick(mirror);
+                Constants.WriteLog("Session download of " + part.name + " failed on " + mirror.url + " at " + part.position
+                        + ", retry " + attempt + " on " + next.url + " : " + e.toString());
+                Callback callback = mCallback;
+                if (callback != null) callback.onRetry("Session download of " + part.name + " : " + e.toString());
+                if (next == mirror || !mirrors.isAvailable(next)) {
+                    try {
+                        Thread.sleep(SegmentedDownloadEngine.RETRY_DELAY_MS * attempt);
+                    } catch (InterruptedException ie) {
+                        throw new InterruptedIOException("Download cancelled");
+                    }
+                }
+                mirror = next;
+            }
+        }
+
+        if (part.verifier != null) part.verifier.verify();
+        Constants.WriteLog("Streamed " + part.position + " bytes of " + part.name + " into the install session");
+    }
+
+    /**
+     * Write the body of the connection into the session from the current position of the part
+     */
+    private void write(Part part, HttpURLConnection connection) throws IOException {
+        OutputStream outputStream = mInstallSession.openWrite(part.name, part.position,
+                part.position == 0 && part.totalBytes > 0 ? part.totalBytes : -1);
+        InputStream inputStream = DownloadThrottle.get().wrap(connection.getInputStream());
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                checkCancelled();
+                outputStream.write(buffer, 0, read);
+                if (part.verifier != null) part.verifier.update(buffer, 0, read);
+                part.position += read;
+                reportProgress(mBytesDownloaded.addAndGet(read));
+            }
+        } finally {
+            //Whatever was written stays valid for the resume
+            try {
+                inputStream.close();
+            } finally {
+                mInstallSession.close(outputStream);
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            }
+        }
+    }
+
+    /**
+     * Report the bytes of all parts together, the total is known once every part knows its size
+     */
+    private void reportProgress(long bytesDownloaded) {
+        long totalBytes = 0;
+        for (Part part : mParts) {
+            long partTotalBytes = part.totalBytes;
+            if (partTotalBytes <= 0) {
+                totalBytes = -1;
+                break;
+            }
+            totalBytes += partTotalBytes;
+        }
+
+        Callback callback = mCallback;
+        if (callback != null) callback.onProgress(bytesDownloaded, totalBytes);
+        if (totalBytes > 0) mInstallSession.setProgress((float) bytesDownloaded / totalBytes);
+    }
+
+    /**
+     * Throws if the download was cancelled
+     */
+    private void checkCancelled() throws InterruptedIOException {
+        if (mCancelled || Thread.currentThread().isInterrupted())
+            throw new InterruptedIOException("Download cancelled");
+    }
+    //endregion
+}
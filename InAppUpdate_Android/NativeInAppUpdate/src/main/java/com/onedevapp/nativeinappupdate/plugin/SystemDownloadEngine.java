@@ -0,0 +1,317 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.app.DownloadManager;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Environment;
+
+import com.google.android.play.core.install.model.InstallStatus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SystemDownloadEngine downloads through the system DownloadManager into the app specific Downloads directory,
+ * where the plugin manages the files, see ApkCache.
+ * The download provider writes the file, so a verifier reads it back right behind each progress report while
+ * the bytes are still in the page cache, and only the tail is hashed once it is complete. If that doesn't match,
+ * for example because the provider started over, the whole file is hashed once more before failing.
+ * With mirrors, they are probed first and the fastest one is handed to the DownloadManager, which can't
+ * switch hosts once it started.
+ * With a DownloadJournal the id of the row is journaled, so after a restart the same row is tracked again
+ * while it is still running or done instead of enqueuing a new download. The row is removed once the apk was
+ * moved into the ApkCache, see DownloadJournal.setComplete().
+ */
+class SystemDownloadEngine implements DownloadEngine {
+
+    // region Declarations
+    private final String MIME_TYPE = "application/vnd.android.package-archive";
+
+    private DownloadManager mDownloadManager;
+    private DownloadManagerTracker mDownloadTracker;
+    private long mDownloadId = -1;
+    private final DigestVerifier mVerifier;
+    private final String[] mMirrorLinks;    //other links of the same apk, null for none
+    private final DownloadJournal mJournal; //journal of the download row, null for none
+    private volatile Future<?> mProbeFuture;
+    private volatile Future<?> mHashFuture;     //hashing behind the download provider
+    private final AtomicLong mHashTarget = new AtomicLong();   //bytes the download provider reported written
+    private File mFile;                         //the file the download provider writes
+    private volatile boolean mCancelled;
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param verifier    the verifier of the downloaded apk, null to skip
+     * @param mirrorLinks the other links of the same apk, null for none
+     */
+    SystemDownloadEngine(DigestVerifier verifier, String[] mirrorLinks) {
+        this(verifier, mirrorLinks, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param verifier    the verifier of the downloaded apk, null to skip
+     * @param mirrorLinks the other links of the same apk, null for none
+     * @param journal     the journal of the download row, null for none
+     */
+    SystemDownloadEngine(DigestVerifier verifier, String[] mirrorLinks, DownloadJournal journal) {
+        this.mVerifier = verifier;
+        this.mMirrorLinks = mirrorLinks;
+        this.mJournal = journal;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    @Override
+    public void start(final Context context, final String url, final String fileName, final Callback callback) {
+        mFile = new File(Constants.getDownloadDir(context), fileName);
+        if (mVerifier != null) mVerifier.reset();
+
+        if (mJournal != null && reattach(context, callback))
+            return;
+
+        if (mMirrorLinks == null || mMirrorLinks.length == 0) {
+            enqueue(context, url, fileName, callback);
+            return;
+        }
+
+        //Probing blocks, keep it off the worker thread and enqueue back on it
+        mProbeFuture = PluginExecutor.get().submit(new Runnable() {
+            @Override
+            public void run() {
+                final MirrorSelector mirrors = new MirrorSelector(url, mMirrorLinks);
+                try {
+                    mirrors.probe();
+                } catch (InterruptedIOException e) {
+                    return;
+                }
+                PluginExecutor.get().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCancelled) return;
+                        try {
+                            enqueue(context, mirrors.pick(null).url, fileName, callback);
+                        } catch (Exception e) {
+                            Constants.WriteLog("SystemDownloadEngine enqueue failed : " + e.toString());
+                            if (!mCancelled)
+                                callback.onFailed(InstallStatus.FAILED, "Download failed, Try again later.");
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void cancel() {
+        mCancelled = true;
+        if (mProbeFuture != null)
+            mProbeFuture.cancel(true);
+        if (mHashFuture != null)
+            mHashFuture.cancel(false);
+        if (mDownloadTracker != null)
+            mDownloadTracker.stop();
+        if (mDownloadManager != null && mDownloadId != -1)
+            mDownloadManager.remove(mDownloadId);
+    }
+    //endregion
+
+    // region private functions
+
+    /**
+     * Enqueue the download of the url and track it, runs on the worker thread
+     */
+    private void enqueue(final Context context, String url, String fileName, final Callback callback) {
+        Constants.WriteLog("Enqueue download of " + url);
+        final String appName = context.getApplicationInfo().loadLabel(context.getPackageManager()).toString();
+
+        //The DownloadManager renames instead of replacing an existing file
+        if (mFile.exists() && !mFile.delete())
+            Constants.WriteLog("Failed to delete previous download");
+
+        DownloadManager.Request request = new DownloadManager.Request(Uri.parse(url));
+        request.setVisibleInDownloadsUi(false);
+        request.setMimeType(MIME_TYPE);
+        //Set path for save download file, app specific so no storage permission is needed
+        request.setDestinationInExternalFilesDir(context, Environment.DIRECTORY_DOWNLOADS, fileName);
+        request.setNotificationVisibility(DownloadManager.Request.VISIBILITY_HIDDEN);
+        request.setDescription("Downloading..");
+        request.setTitle(appName);
+
+        // get download service and enqueue file
+        mDownloadManager = (DownloadManager) context.getSystemService(Context.DOWNLOAD_SERVICE);
+        mDownloadId = mDownloadManager.enqueue(request);
+        if (mJournal != null) mJournal.setDownloadId(mDownloadId);
+
+        track(context, callback);
+    }
+
+    /**
+     * Track the journaled row again if it is still running or done, runs on the worker thread
+     *
+     * @return true if tracking the row else false to enqueue a new download
+     */
+    private boolean reattach(Context context, Callback callback) {
+        DownloadJournal.Entry entry = mJournal.get();
+        if (entry == null || entry.downloadId == -1) return false;
+
+        DownloadManager downloadManager = (DownloadManager) context.getSystemService(Context.DOWNLOAD_SERVICE);
+        int status = -1;
+        Cursor cursor = null;
+        try {
+            cursor = downloadManager.query(new DownloadManager.Query().setFilterById(entry.downloadId));
+            if (cursor != null && cursor.moveToFirst())
+                status = cursor.getInt(cursor.getColumnIndex(DownloadManager.COLUMN_STATUS));
+        } catch (Exception e) {
+            Constants.WriteLog("SystemDownloadEngine query failed : " + e.toString());
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+
+        if (status == -1 || status == DownloadManager.STATUS_FAILED) {
+            if (status != -1) downloadManager.remove(entry.downloadId);
+            return false;
+        }
+        Constants.WriteLog("Reattach download " + entry.downloadId + " with status " + status);
+        mDownloadManager = downloadManager;
+        mDownloadId = entry.downloadId;
+        track(context, callback);
+        return true;
+    }
+
+    /**
+     * Track the enqueued row and verify the downloaded file, runs on the worker thread
+     */
+    private void track(final Context context, final Callback callback) {
+        mDownloadTracker = new DownloadManagerTracker(context, mDownloadManager, mDownloadId, new DownloadManagerTracker.Callback() {
+            @Override
+            public void onProgress(long bytesDownloaded, long totalBytes) {
+                if (mCancelled) return;
+                callback.onProgress(bytesDownloaded, totalBytes);
+                if (mVerifier != null) hashBehind(bytesDownloaded);
+            }
+
+            @Override
+            public void onSuccess(final Uri fileUri) {
+                if (mCancelled) return;
+                if (mVerifier == null) {
+                    callback.onSuccess(fileUri);
+                    return;
+                }
+
+                //Hashing blocks, keep it off the worker thread
+                PluginExecutor.get().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            verify(context, fileUri);
+                        } catch (DigestVerifier.VerificationException e) {
+                            Constants.WriteLog("SystemDownloadEngine verification failed : " + e.getMessage());
+                            if (mCancelled) return;
+                            mDownloadManager.remove(mDownloadId);
+                            callback.onFailed(Constants.ERROR_VERIFICATION_FAILED, "Download verification failed : " + e.getMessage());
+                            return;
+                        } catch (Exception e) {
+                            Constants.WriteLog("SystemDownloadEngine verification error : " + e.toString());
+                            if (!mCancelled)
+                                callback.onFailed(InstallStatus.FAILED, "Download failed, Try again later.");
+                            return;
+                        }
+                        //The file may belong to the download that replaced this one
+                        if (!mCancelled)
+                            callback.onSuccess(fileUri);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailed(int reason) {
+                Constants.WriteLog("Download failed with reason :" + reason);
+                if (!mCancelled)
+                    callback.onFailed(InstallStatus.FAILED, "Download failed, Try again later.");
+            }
+        });
+        mDownloadTracker.start();
+    }
+
+    /**
+     * Hash the bytes the download provider reported written off the worker thread, runs on the worker thread
+     */
+    private void hashBehind(long bytesDownloaded) {
+        mHashTarget.set(bytesDownloaded);
+        if (mHashFuture != null && !mHashFuture.isDone()) return;
+
+        mHashFuture = PluginExecutor.get().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    catchUp();
+                } catch (IOException e) {
+                    //verify() hashes the whole file again
+                    Constants.WriteLog("SystemDownloadEngine hashing behind download failed : " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Hash the file up to the last reported position
+     */
+    private void catchUp() throws IOException {
+        synchronized (mVerifier) {
+            long upTo = mHashTarget.get();
+            //The download provider started over
+            if (upTo < mVerifier.getHashedBytes()) mVerifier.reset();
+            if (upTo == mVerifier.getHashedBytes() || !mFile.exists()) return;
+
+            RandomAccessFile file = new RandomAccessFile(mFile, "r");
+            try {
+                mVerifier.updateFromFile(file.getChannel(), upTo);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Hash the tail of the downloaded file and check it with the verifier, hash the whole file once more on mismatch
+     */
+    private void verify(Context context, Uri fileUri) throws IOException {
+        if (mHashFuture != null)
+            mHashFuture.cancel(false);
+        try {
+            mHashTarget.set(mFile.length());
+            catchUp();
+            mVerifier.verify();
+            return;
+        } catch (IOException e) {
+            Constants.WriteLog("SystemDownloadEngine hashing behind download missed, hash again : " + e.getMessage());
+        }
+
+        InputStream inputStream = context.getContentResolver().openInputStream(fileUri);
+        if (inputStream == null)
+            throw new IOException("Can't open downloaded file");
+        try {
+            mVerifier.reset();
+            mVerifier.updateFromStream(inputStream);
+        } finally {
+            inputStream.close();
+        }
+        mVerifier.verify();
+    }
+    //endregion
+}
@@ -1,28 +1,45 @@
 package com.onedevapp.nativeinappupdate.plugin;
 
-import android.annotation.SuppressLint;
 import android.app.Activity;
-import android.app.DownloadManager;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageInstaller;
+import android.content.pm.PackageManager;
+import android.content.pm.Signature;
 import android.net.Uri;
 import android.os.Build;
-import android.os.Environment;
+import android.os.SystemClock;
 
 import com.google.android.play.core.install.model.InstallStatus;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+
 /**
  * ThirdPartyUpdate is responsible for updating app from any third party URL provided
- * Note: This doesn't validate whether downloading and installing apk is actually belong to same package. Its actually downloads and install any apk URL.
+ * Note: Before install the downloaded apk is checked to be the same package, a newer version and signed
+ * with the same certificate as the running app, unless apk validation is turned off.
+ * With the session engine the apk is streamed into a PackageInstaller session and the installer does those checks.
+ * A release with split apks in the version manifest is always installed that way, with the splits for the device.
+ * Every download is journaled, so after the process was killed continueUpdate() installs the finished apk or
+ * resumes the download, and startUpdate() of the same release never downloads it again.
+ * Apks are kept per release in the ApkCache, so a release downloaded once is installed again without a download.
  */
 public class ThirdPartyUpdate extends BaseUpdateClass {
 
     // region Declarations
-    private final String FILE_NAME = "app_release.apk";
-    private final String MIME_TYPE = "application/vnd.android.package-archive";
     private final String APP_INSTALL_PATH = "\"application/vnd.android.package-archive\"";
     private Uri apk_file_uri;
+    private DownloadEngine mDownloadEngine;
+    private volatile boolean mDownloading;  //the download engine started and didn't succeed or fail yet
+    private InstallSession mInstallSession;     //session the apk is streamed into, null unless the session engine is used
+    private Future<?> mManifestFuture;
+    private volatile long mManifestVersionCode;   //version code from the last manifest check, 0 if none
+    private volatile List<ApkSplit> mSplits;    //splits of the release for this device, null for a single apk
     //endregion
 
     //region Constructor
@@ -40,103 +57,203 @@ public class ThirdPartyUpdate extends BaseUpdateClass {
     // region Public functions
 
     /**
-     * Check update only checks for required permissions
+     * Check update checks for required permissions, then compares the installed version against
+     * the version manifest if a manifest link is set. A call while the manifest check is pending joins it.
      */
     @Override
     public void checkUpdate() {
-        Activity context = mUpdateManager.getActivity();
+        final Activity context = mUpdateManager.getActivity();
         boolean isPermissionAvailable = true;
+
+        //The pending manifest check reports to the listeners, a second request would only repeat it
+        if (mManifestFuture != null && !mManifestFuture.isDone()) {
+            Constants.WriteLog("checkUpdate joined the pending manifest check");
+            return;
+        }
         String errorMsg = "";
         int errorCode = -1;
 
+        //The apks of versions installed by now are of no use anymore, the one waiting for the install is kept
+        mUpdateManager.getApkCache().trim(ApkCache.getKey(apk_file_uri));
+
         if (!Constants.IsNetworkAvailable(context)) {
             isPermissionAvailable = false;
             errorMsg = "checkUpdate() : IsNetworkAvailable : false";
             errorCode = -102;
-        } else if (!Constants.CheckPermission(context, android.Manifest.permission.WRITE_EXTERNAL_STORAGE)) {
-            isPermissionAvailable = false;
-            errorMsg = "checkUpdate() : IsStoragePermissionGranted : false";
-            errorCode = -101;
+        }
+
+        if (isPermissionAvailable && mManifestLink != null && !mManifestLink.isEmpty()) {
+            final String manifestLink = mManifestLink;
+            mManifestFuture = PluginExecutor.get().submit(new Runnable() {
+                @Override
+                public void run() {
+                    checkManifest(context, manifestLink);
+                }
+            });
+            return;
         }
 
         if (mOnUpdateListener != null) {
             mOnUpdateListener.onUpdateAvailable(isPermissionAvailable, true);
             if (!isPermissionAvailable)
                 mUpdateManager.reportUpdateError(errorCode, errorMsg);
+            else
+                reportPrefetchedApk(context, 0);
         }
     }
 
     /**
-     * Start update will download apk and prompt user for installation
+     * Start update will download apk and prompt user for installation.
+     * A call while the download is running joins it, a new engine would write into the same file.
      */
-    @SuppressLint("Range")
     @Override
     public void startUpdate() {
 
         try {
 
             final Context context = mUpdateManager.getActivity();
-            final String appName = context.getApplicationInfo().loadLabel(context.getPackageManager()).toString();
 
-            Constants.WriteLog("Downloading request on url :" + mUpdateLink);
+            if (mDownloading) {
+                Constants.WriteLog("startUpdate joined the running download");
+                return;
+            }
 
-            DownloadManager.Request request = new DownloadManager.Request(Uri.parse(mUpdateLink));
-            request.setVisibleInDownloadsUi(false);
-            request.allowScanningByMediaScanner();
-            request.setMimeType(MIME_TYPE);
-            //Set path for save download file
-            request.setDestinationInExternalPublicDir(Environment.DIRECTORY_DOWNLOADS, FILE_NAME);
-            request.setNotificationVisibility(DownloadManager.Request.VISIBILITY_HIDDEN);
-            request.setDescription("Downloading..");
-            request.setTitle(appName);
+            Constants.WriteLog("Downloading request on url :" + mUpdateLink);
 
-            // get download service and enqueue file
-            final DownloadManager manager = (DownloadManager) context.getSystemService(Context.DOWNLOAD_SERVICE);
-            final long downloadId = manager.enqueue(request);
+            if (mDownloadEngine != null)
+                mDownloadEngine.cancel();
 
+            if (mInstallSession != null) {
+                mInstallSession.abandon();
+                mInstallSession = null;
+            }
 
-            if (mOnUpdateListener != null)
-                mOnUpdateListener.onUpdateInstallState(InstallStatus.DOWNLOADING);
+            //Already downloaded in background, nothing left but install
+            List<ApkSplit> splits = mSplits;
+            if (splits == null && reportPrefetchedApk(context, mManifestVersionCode))
+                return;
+
+            //Split apks can only be installed together through a session
+            boolean isSession = mDownloadEngineType == Constants.DOWNLOAD_ENGINE_SESSION || splits != null;
+            int engineType = isSession ? Constants.DOWNLOAD_ENGINE_SESSION : mDownloadEngineType;
+
+            //A cached apk of the same release is installed right away
+            final ApkCache apkCache = mUpdateManager.getApkCache();
+            final String cacheKey = ApkCache.getKey(mManifestVersionCode, mExpectedDigest, mUpdateLink, mExpectedSize);
+            File cachedApk = isSession ? null : apkCache.get(cacheKey);
+            if (cachedApk != null) {
+                Constants.WriteLog("Using cached apk " + cachedApk.getName());
+                apk_file_uri = apkCache.getUri(cachedApk);
+                if (mOnUpdateListener != null)
+                    mOnUpdateListener.onUpdateInstallState(InstallStatus.DOWNLOADED);
+                return;
+            }
 
-            new Thread(new Runnable() {
+            //A journaled download of the same release is installed if done, else its engine resumes it
+            final DownloadJournal journal = mUpdateManager.getDownloadJournal();
+            DownloadJournal.Entry entry = journal.get();
+            boolean isSameRelease = entry != null && entry.isFor(mUpdateLink, mManifestVersionCode, mExpectedDigest, mExpectedSize, engineType);
+            if (isSameRelease && attachJournaledDownload(context, entry)) {
+                if (mOnUpdateListener != null)
+                    mOnUpdateListener.onUpdateInstallState(InstallStatus.DOWNLOADED);
+                return;
+            }
+            if (!isSameRelease || entry.fileUri != null || entry.isSessionWritten)
+                journal.begin(mUpdateLink, mManifestVersionCode, mExpectedDigest, mExpectedSize, engineType);
+
+            if (isSession) {
+                if (mPatchLink != null && !mPatchLink.isEmpty())
+                    Constants.WriteLog("Patch link is not used when streaming into an install session");
+                long totalSize = mExpectedSize;
+                if (splits != null) {
+                    for (ApkSplit split : splits) {
+                        totalSize = totalSize > 0 && split.size > 0 ? totalSize + split.size : 0;
+                    }
+                }
+                mInstallSession = InstallSession.create(context, totalSize);
+                journal.setSessionId(mInstallSession.getSessionId());
+                mDownloadEngine = new SessionDownloadEngine(mInstallSession, createVerifier(mExpectedDigest, mExpectedSize),
+                        mMirrorLinks, splits);
+            } else {
+                mDownloadEngine = newDownloadEngine(journal);
+            }
+            final InstallSession installSession = mInstallSession;
+            final DownloadEngine downloadEngine = mDownloadEngine;
+            mDownloading = true;
+            //Engines report on their own threads, the state of the download is only touched on the worker thread
+            downloadEngine.start(context, mUpdateLink, apkCache.getPartName(cacheKey), new DownloadEngine.Callback() {
                 @Override
-                public void run() {
-                    boolean downloading = true;
-                    while (downloading) {
-                        DownloadManager.Query q = new DownloadManager.Query();
-                        q.setFilterById(downloadId);
-                        Cursor cursor = manager.query(q);
-
-                        if (cursor.moveToFirst()) {
-                            int status = cursor.getInt(cursor.getColumnIndex(DownloadManager.COLUMN_STATUS));
-
-                            if (status == DownloadManager.STATUS_FAILED) {
-                                if (mOnUpdateListener != null)
-                                    mUpdateManager.reportUpdateError(InstallStatus.FAILED, "Download failed, Try again later.");
-                            } else if (status == DownloadManager.STATUS_SUCCESSFUL) {
-                                apk_file_uri = manager.getUriForDownloadedFile(downloadId);
-                                if (mOnUpdateListener != null)
-                                    mOnUpdateListener.onUpdateInstallState(InstallStatus.DOWNLOADED);
-                            } else if (status == DownloadManager.STATUS_RUNNING) {
-                                final int bytes_downloaded = cursor.getInt(cursor.getColumnIndex(DownloadManager.COLUMN_BYTES_DOWNLOADED_SO_FAR));
-                                if (cursor.getInt(cursor.getColumnIndex(DownloadManager.COLUMN_STATUS)) == DownloadManager.STATUS_SUCCESSFUL) {
-                                    downloading = false;
-                                }
-                                int bytes_total = cursor.getInt(cursor.getColumnIndex(DownloadManager.COLUMN_TOTAL_SIZE_BYTES));
-                                if (bytes_total != 0) {
+                public void onProgress(final long bytesDownloaded, final long totalBytes) {
+                    PluginExecutor.get().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (downloadEngine == mDownloadEngine && mOnUpdateListener != null)
+                                mOnUpdateListener.onUpdateDownloading(bytesDownloaded, totalBytes);
+                        }
+                    });
+                }
 
+                @Override
+                public void onSuccess(final Uri fileUri) {
+                    PluginExecutor.get().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            //Cancelled while this was queued
+                            if (downloadEngine != mDownloadEngine) return;
+                            mDownloading = false;
+                            if (fileUri == null) {
+                                journal.setSessionWritten();
+                            } else {
+                                try {
+                                    File apk = apkCache.commit(cacheKey);
+                                    apk_file_uri = apkCache.getUri(apk);
+                                    journal.setComplete(apk, apk_file_uri);
+                                } catch (IOException e) {
                                     if (mOnUpdateListener != null)
-                                        mOnUpdateListener.onUpdateDownloading(bytes_downloaded, bytes_total);
+                                        mUpdateManager.reportUpdateError(InstallStatus.FAILED, "startUpdate() : " + e.toString());
+                                    return;
                                 }
                             }
-                            cursor.close();
+                            if (mOnUpdateListener != null)
+                                mOnUpdateListener.onUpdateInstallState(InstallStatus.DOWNLOADED);
                         }
+                    });
+                }
 
-                    }
+                @Override
+                public void onFailed(final int code, final String error) {
+                    PluginExecutor.get().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (downloadEngine != mDownloadEngine) return;
+                            mDownloading = false;
+                            if (installSession != null)
+                                installSession.abandon();
+                            //Anything else is resumed by the next startUpdate()
+                            if (code == Constants.ERROR_VERIFICATION_FAILED)
+                                journal.discard();
+                            if (mOnUpdateListener != null)
+                                mUpdateManager.reportUpdateError(code, error);
+                        }
+                    });
+                }
+
+                @Override
+                public void onRetry(String reason) {
+                    PluginExecutor.get().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            mUpdateManager.getUpdateMetrics().onRetry();
+                        }
+                    });
                 }
-            }).start();
+            });
+
+            if (mOnUpdateListener != null)
+                mOnUpdateListener.onUpdateInstallState(InstallStatus.DOWNLOADING);
 
         } catch (Exception e) {
+            mDownloading = false;
             mUpdateManager.reportUpdateError(-1, "startUpdate() : " + e.toString());
         }
     }
@@ -150,28 +267,80 @@ public class ThirdPartyUpdate extends BaseUpdateClass {
     }
 
     /**
-     * Continue update will try to install apk if already downloaded and user cancel the install previously
+     * Continue update will try to install apk if already downloaded and user cancel the install previously,
+     * after a restart the journaled download is installed if done, else resumed
      */
     @Override
     public void continueUpdate() {
 
         Context context = mUpdateManager.getActivity();
 
-        if (apk_file_uri != null && mOnUpdateListener != null) {
+        if (apk_file_uri == null && mInstallSession == null && mDownloadEngine == null && resumeJournaledDownload(context))
+            return;
+
+        boolean isSessionWritten = mInstallSession != null && mInstallSession.isWritten();
+        if ((apk_file_uri != null || isSessionWritten) && mOnUpdateListener != null) {
             mOnUpdateListener.onUpdateInstallState(InstallStatus.DOWNLOADED);
 
             installApk(context);
         }
     }
 
+    /**
+     * Cancel update stops the version check and the download in progress, reported as canceled if there was one
+     */
+    @Override
+    public void cancelUpdate() {
+        if (mManifestFuture != null) {
+            mManifestFuture.cancel(true);
+            mManifestFuture = null;
+        }
+
+        if (mInstallSession != null) {
+            mInstallSession.abandon();
+            mInstallSession = null;
+        }
+
+        if (mDownloadEngine != null) {
+            mDownloadEngine.cancel();
+            mDownloadEngine = null;
+
+            if (mDownloading && mOnUpdateListener != null)
+                mOnUpdateListener.onUpdateInstallState(InstallStatus.CANCELED);
+            mDownloading = false;
+        }
+        apk_file_uri = null;
+        //A downloaded apk stays cached for its release, startUpdate() installs it without a download
+        mUpdateManager.getDownloadJournal().end();
+    }
+
+    /**
+     * Start watching the network and read the download journal, so the first download starts right away
+     */
+    @Override
+    public void prewarm() {
+        Activity activity = mUpdateManager.getActivity();
+        if (activity != null)
+            ConnectivityMonitor.get(activity);
+        mUpdateManager.getDownloadJournal().get();
+    }
+
     /**
      * Intent to install apk
      */
     private void installApk(Context context) {
 
+        if (mInstallSession != null && mInstallSession.isWritten()) {
+            commitSession(mInstallSession);
+            return;
+        }
+
         //if (apk_file_path.exists()) {
         if (apk_file_uri != null) {
 
+            if (mApkValidation && !validateApk(context))
+                return;
+
             if (mOnUpdateListener != null)
                 mOnUpdateListener.onUpdateInstallState(InstallStatus.INSTALLING);
 
@@ -196,6 +365,264 @@ public class ThirdPartyUpdate extends BaseUpdateClass {
                 mUpdateManager.reportUpdateError(-1, "installApk() : Downloaded file not exist");
         }
     }
+
+    /**
+     * Commit the install session the apk was streamed into
+     *
+     * @param installSession the written session
+     */
+    private void commitSession(final InstallSession installSession) {
+        if (mOnUpdateListener != null)
+            mOnUpdateListener.onUpdateInstallState(InstallStatus.INSTALLING);
+
+        installSession.commit(new InstallSession.Callback() {
+            @Override
+            public void onPendingUserAction(Intent confirmIntent) {
+                Activity activity = mUpdateManager.getActivity();
+                if (activity == null || confirmIntent == null) return;
+                confirmIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                activity.startActivity(confirmIntent);
+            }
+
+            @Override
+            public void onSuccess() {
+                if (mInstallSession == installSession) mInstallSession = null;
+                mUpdateManager.getDownloadJournal().clear();
+                if (mOnUpdateListener != null)
+                    mOnUpdateListener.onUpdateInstallState(InstallStatus.INSTALLED);
+            }
+
+            @Override
+            public void onFailed(int status, String message) {
+                //A committed session is gone either way, continueUpdate() can't retry it
+                if (mInstallSession == installSession) mInstallSession = null;
+                mUpdateManager.getDownloadJournal().clear();
+                if (mOnUpdateListener == null) return;
+                if (status == PackageInstaller.STATUS_FAILURE_ABORTED) {
+                    mOnUpdateListener.onUpdateInstallState(InstallStatus.CANCELED);
+                } else {
+                    mOnUpdateListener.onUpdateInstallState(InstallStatus.FAILED);
+                    mUpdateManager.reportUpdateError(Constants.ERROR_INSTALL_FAILED, "installApk() : Install failed " + status + " : " + message);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetch the version manifest in background, then apply it on the worker thread
+     *
+     * @param context      the context
+     * @param manifestLink the link of the manifest
+     */
+    private void checkManifest(final Context context, String manifestLink) {
+        try {
+            final VersionManifest manifest = VersionManifest.fetch(context, manifestLink);
+            final long installedVersionCode = Constants.getInstalledVersionCode(context);
+            final List<ApkSplit> splits = manifest.splits != null
+                    ? Collections.unmodifiableList(ApkSplit.selectForDevice(context, manifest.splits)) : null;
+            if (Thread.currentThread().isInterrupted()) return;
+
+            //The configuration is only read and written on the worker thread
+            PluginExecutor.get().getHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    applyManifest(context, manifest, installedVersionCode, splits);
+                }
+            });
+        } catch (final Exception e) {
+            PluginExecutor.get().getHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mOnUpdateListener != null)
+                        mUpdateManager.reportUpdateError(Constants.ERROR_MANIFEST_FAILED, "checkUpdate() : Version manifest : " + e.toString());
+                }
+            });
+        }
+    }
+
+    /**
+     * Take over the release described by the manifest and report whether it is newer than the installed version,
+     * runs on the worker thread
+     *
+     * @param context              the context
+     * @param manifest             the fetched manifest
+     * @param installedVersionCode the installed version
+     * @param splits               the splits of the manifest for this device, null for a single apk
+     */
+    private void applyManifest(Context context, VersionManifest manifest, long installedVersionCode, List<ApkSplit> splits) {
+        boolean isUpdateAvailable = manifest.versionCode > installedVersionCode;
+        boolean isOtherRelease = manifest.versionCode != mManifestVersionCode;
+        mManifestVersionCode = manifest.versionCode;
+        Constants.WriteLog("Version manifest " + manifest.versionCode + ", installed " + installedVersionCode);
+
+        //The manifest describes the release to download, it wins over the configured values
+        if (isUpdateAvailable) {
+            //What the manifest leaves out must not be taken from another release
+            if (isOtherRelease) {
+                setPatchLink(null);
+                setExpectedDigest(null, 0);
+            }
+            if (manifest.url != null) {
+                //Configured mirrors serve the configured link, not the one from the manifest
+                setUpdateLink(manifest.url);
+                setMirrorLinks(manifest.mirrors);
+            }
+            if (manifest.patchUrl != null)
+                setPatchLink(manifest.patchUrl);
+            mSplits = splits;
+            if (DigestVerifier.isValidDigest(manifest.sha256) || manifest.size > 0)
+                setExpectedDigest(DigestVerifier.isValidDigest(manifest.sha256) ? manifest.sha256 : null, manifest.size);
+        } else {
+            mSplits = null;
+        }
+
+        if (mOnUpdateListener != null) {
+            mOnUpdateListener.onUpdateAvailable(isUpdateAvailable, true);
+            if (isUpdateAvailable) {
+                mOnUpdateListener.onUpdateVersionCode((int) manifest.versionCode);
+                if (mSplits == null)
+                    reportPrefetchedApk(context, manifest.versionCode);
+            }
+        }
+    }
+
+    /**
+     * Take over the download journaled before a restart, the journal describes the release to download
+     *
+     * @param context the context
+     * @return true if an unfinished download was resumed else false
+     */
+    private boolean resumeJournaledDownload(Context context) {
+        DownloadJournal.Entry entry = mUpdateManager.getDownloadJournal().get();
+        if (entry == null) return false;
+
+        //Configured mirrors serve the configured link, not the journaled one
+        if (!entry.url.equals(mUpdateLink))
+            setMirrorLinks(null);
+        setUpdateLink(entry.url);
+        setExpectedDigest(entry.digest, entry.size);
+        mManifestVersionCode = entry.versionCode;
+        if (entry.engine != Constants.DOWNLOAD_ENGINE_SESSION)
+            mDownloadEngineType = entry.engine;
+
+        //Done, left for the install below
+        if (attachJournaledDownload(context, entry))
+            return false;
+
+        //The splits of a release are only known from its manifest, the next checkUpdate() and startUpdate() redo it
+        if (entry.engine == Constants.DOWNLOAD_ENGINE_SESSION)
+            return false;
+
+        Constants.WriteLog("Resuming journaled download of " + entry.url);
+        startUpdate();
+        return true;
+    }
+
+    /**
+     * Take over the apk or install session of a journaled download that is done
+     *
+     * @param context the context
+     * @param entry   the journaled download
+     * @return true if the apk or written session is still there else false
+     */
+    private boolean attachJournaledDownload(Context context, DownloadJournal.Entry entry) {
+        if (entry.isSessionWritten) {
+            InstallSession installSession = InstallSession.open(context, entry.sessionId);
+            if (installSession == null) return false;
+            mInstallSession = installSession;
+        } else if (entry.fileUri != null && mUpdateManager.getDownloadJournal().isReadable(entry)) {
+            apk_file_uri = entry.fileUri;
+        } else {
+            return false;
+        }
+        Constants.WriteLog("Using journaled download of " + entry.url);
+        return true;
+    }
+
+    /**
+     * Report the apk downloaded by the prefetch job as downloaded
+     *
+     * @param context     the context
+     * @param versionCode the version it must be, 0 for any newer version
+     * @return true if a prefetched apk was found else false
+     */
+    private boolean reportPrefetchedApk(Context context, long versionCode) {
+        Uri prefetchedApk = UpdatePrefetcher.getPrefetchedApk(context);
+        if (prefetchedApk == null || (versionCode > 0 && UpdatePrefetcher.getPrefetchedVersionCode(context) != versionCode))
+            return false;
+
+        Constants.WriteLog("Using prefetched apk " + prefetchedApk);
+        apk_file_uri = prefetchedApk;
+        if (mOnUpdateListener != null)
+            mOnUpdateListener.onUpdateInstallState(InstallStatus.DOWNLOADED);
+        return true;
+    }
+
+    /**
+     * Check the downloaded apk against the running app before handing it to the installer
+     *
+     * @return true if the apk can be installed else false after reporting the error
+     */
+    private boolean validateApk(Context context) {
+        int errorCode = 0;
+        String errorMsg = "";
+        long startTime = SystemClock.elapsedRealtime();
+
+        try {
+            ApkInspector.ApkInfo apkInfo = ApkInspector.inspect(context, apk_file_uri);
+
+            String packageName = context.getPackageName();
+            PackageManager packageManager = context.getPackageManager();
+            PackageInfo installedInfo;
+            Signature[] installedSignatures;
+            long installedVersionCode;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                installedInfo = packageManager.getPackageInfo(packageName, PackageManager.GET_SIGNING_CERTIFICATES);
+                installedSignatures = installedInfo.signingInfo.hasMultipleSigners()
+                        ? installedInfo.signingInfo.getApkContentsSigners()
+                        : installedInfo.signingInfo.getSigningCertificateHistory();
+                installedVersionCode = installedInfo.getLongVersionCode();
+            } else {
+                installedInfo = packageManager.getPackageInfo(packageName, PackageManager.GET_SIGNATURES);
+                installedSignatures = installedInfo.signatures;
+                installedVersionCode = installedInfo.versionCode;
+            }
+
+            boolean isSignatureMatched = false;
+            if (installedSignatures != null) {
+                for (Signature signature : installedSignatures) {
+                    if (apkInfo.certificateDigests.contains(ApkInspector.certificateDigest(signature.toByteArray()))) {
+                        isSignatureMatched = true;
+                        break;
+                    }
+                }
+            }
+
+            if (!packageName.equals(apkInfo.packageName)) {
+                errorCode = Constants.ERROR_APK_PACKAGE_MISMATCH;
+                errorMsg = "installApk() : Package mismatch : " + apkInfo.packageName;
+            } else if (apkInfo.versionCode <= installedVersionCode) {
+                errorCode = Constants.ERROR_APK_VERSION_NOT_NEWER;
+                errorMsg = "installApk() : Version " + apkInfo.versionCode + " is not newer than " + installedVersionCode;
+            } else if (!isSignatureMatched) {
+                errorCode = Constants.ERROR_APK_SIGNATURE_MISMATCH;
+                errorMsg = "installApk() : Signing certificate mismatch";
+            }
+        } catch (Exception e) {
+            errorCode = Constants.ERROR_APK_INVALID;
+            errorMsg = "installApk() : Invalid apk : " + e.toString();
+        }
+
+        Constants.WriteLog("Apk validated in " + (SystemClock.elapsedRealtime() - startTime) + "ms");
+        if (errorCode != 0) {
+            if (mOnUpdateListener != null) {
+                mOnUpdateListener.onUpdateInstallState(InstallStatus.FAILED);
+                mUpdateManager.reportUpdateError(errorCode, errorMsg);
+            }
+            return false;
+        }
+        return true;
+    }
     //endregion
 }
 
@@ -0,0 +1,201 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.content.Context;
+import android.os.Handler;
+
+import com.google.android.play.core.appupdate.AppUpdateInfo;
+import com.google.android.play.core.tasks.OnFailureListener;
+import com.google.android.play.core.tasks.OnSuccessListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * UpdateBatchCheck asks every channel of a batched update check at once and reports all results in one callback.
+ * Manifests are fetched in parallel on the IO pool, each against its own last response so an unchanged one
+ * costs a 304, while the Play Store is asked at the same time, or answered from the cached update info if fresh.
+ * The Play Store is asked through the PlayStoreUpdate, so a check already waiting for the Play service is joined.
+ * Channels still pending when the timeout hits are reported as timed out, the others keep their results.
+ * The timeout is always armed, a Play service that never answers can't hold the results back.
+ */
+class UpdateBatchCheck {
+
+    // region Declarations
+    static final long DEFAULT_TIMEOUT_MS = 30000;   //manifests time out after 15s to connect plus 15s to read
+
+    private final Context mContext;
+    private final UpdateInfoCache mUpdateInfoCache;
+    private final PlayStoreUpdate mPlayStoreUpdate; //asks the Play service, shared with the update flow
+    private final UpdateChannel[] mChannels;
+    private final OnUpdateCheckListener mListener;
+    private final Handler mHandler;     //handler whose thread delivers the results
+    private final UpdateCheckResult[] mResults; //guarded by this
+    private final List<Future<?>> mFutures = new ArrayList<>();    //guarded by this
+    private int mPending;               //channels not answered yet, guarded by this
+    private boolean mIsDelivered;       //guarded by this
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param context         the context
+     * @param updateInfoCache the cache of the Play Store update info
+     * @param playStoreUpdate the Play Store update class whose update info request is joined
+     * @param channels        the channels to check
+     * @param listener        the listener to report to
+     * @param handler         the handler whose thread delivers the results
+     */
+    UpdateBatchCheck(Context context, UpdateInfoCache updateInfoCache, PlayStoreUpdate playStoreUpdate,
+                     UpdateChannel[] channels, OnUpdateCheckListener listener, Handler handler) {
+        this.mContext = context.getApplicationContext();
+        this.mUpdateInfoCache = updateInfoCache;
+        this.mPlayStoreUpdate = playStoreUpdate;
+        this.mChannels = channels.clone();
+        this.mListener = listener;
+        this.mHandler = handler;
+        this.mResults = new UpdateCheckResult[mChannels.length];
+        this.mPending = mChannels.length;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Ask every channel, called on the worker thread
+     *
+     * @param timeoutMs time to wait for all channels, 0 for DEFAULT_TIMEOUT_MS
+     */
+    void start(long timeoutMs) {
+        long installedVersionCode = 0;
+        try {
+            installedVersionCode = Constants.getInstalledVersionCode(mContext);
+        } catch (Exception e) {
+            Constants.WriteLog("Batched check : " + e.toString());
+        }
+        boolean isConnected = ConnectivityMonitor.get(mContext).getState().isConnected;
+
+        for (int i = 0; i < mChannels.length; i++) {
+            UpdateChannel channel = mChannels[i];
+            if (!channel.isValid()) {
+                complete(i, UpdateCheckResult.failed(channel, -1, "Invalid channel"));
+            } else if (channel.type == Constants.CHANNEL_PLAY_STORE) {
+                checkPlayStore(i, installedVersionCode);
+            } else if (!isConnected) {
+                complete(i, UpdateCheckResult.failed(channel, -102, "IsNetworkAvailable : false"));
+            } else {
+                checkManifest(i, channel.type == Constants.CHANNEL_APP_MANIFEST ? installedVersionCode : channel.installedVersionCode);
+            }
+        }
+
+        PluginExecutor.get().getHandler().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                timeout();
+            }
+        }, timeoutMs > 0 ? timeoutMs : DEFAULT_TIMEOUT_MS);
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Ask the Play Store, answered from the cached update info while it is fresh
+     */
+    private void checkPlayStore(final int index, final long installedVersionCode) {
+        final UpdateChannel channel = mChannels[index];
+        UpdateState cachedState = mUpdateInfoCache.getFresh();
+        if (cachedState != null) {
+            complete(index, toResult(channel, cachedState, installedVersionCode));
+            return;
+        }
+
+        mPlayStoreUpdate.getAppUpdateInfo().addOnSuccessListener(PluginExecutor.get(), new OnSuccessListener<AppUpdateInfo>() {
+            @Override
+            public void onSuccess(AppUpdateInfo appUpdateInfo) {
+                complete(index, toResult(channel, mUpdateInfoCache.put(appUpdateInfo), installedVersionCode));
+            }
+        }).addOnFailureListener(PluginExecutor.get(), new OnFailureListener() {
+            @Override
+            public void onFailure(Exception e) {
+                complete(index, UpdateCheckResult.failed(channel, -1, "checkUpdate:" + e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * Fetch the manifest of a channel on the IO pool
+     */
+    private synchronized void checkManifest(final int index, final long installedVersionCode) {
+        final UpdateChannel channel = mChannels[index];
+        mFutures.add(PluginExecutor.get().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    //The app manifest shares its last response with the one of checkUpdate()
+                    String storeName = channel.type == Constants.CHANNEL_APP_MANIFEST ? null : "channel_" + channel.name;
+                    VersionManifest manifest = VersionManifest.fetch(mContext, channel.manifestLink, storeName);
+                    complete(index, new UpdateCheckResult(channel, manifest.versionCode > installedVersionCode, manifest.versionCode,
+                            installedVersionCode, -1, manifest.url, manifest.size, manifest.sha256, 0, null));
+                } catch (Exception e) {
+                    complete(index, UpdateCheckResult.failed(channel, Constants.ERROR_MANIFEST_FAILED, "Version manifest : " + e.toString()));
+                }
+            }
+        }));
+    }
+
+    /**
+     * Returns the result of the Play Store channel from its update state
+     */
+    private static UpdateCheckResult toResult(UpdateChannel channel, UpdateState updateState, long installedVersionCode) {
+        boolean isUpdateAvailable = updateState.isUpdateAvailable();
+        return new UpdateCheckResult(channel, isUpdateAvailable, isUpdateAvailable ? updateState.availableVersionCode : 0,
+                installedVersionCode, isUpdateAvailable ? updateState.stalenessDays : -1, null, 0, null, 0, null);
+    }
+
+    /**
+     * Keep the result of a channel, the last one delivers them all
+     */
+    private synchronized void complete(int index, UpdateCheckResult result) {
+        if (mIsDelivered || mResults[index] != null) return;
+        mResults[index] = result;
+        Constants.WriteLog("Batched check : " + result.name + " " + (result.isSuccessful() ? "version " + result.versionCode : result.error));
+        if (--mPending == 0) deliver();
+    }
+
+    /**
+     * Report the channels still pending as timed out and deliver
+     */
+    private synchronized void timeout() {
+        if (mIsDelivered) return;
+        for (int i = 0; i < mResults.length; i++) {
+            if (mResults[i] == null)
+                mResults[i] = UpdateCheckResult.failed(mChannels[i], Constants.ERROR_CHECK_TIMEOUT, "Timed out");
+        }
+        for (Future<?> future : mFutures) {
+            future.cancel(true);
+        }
+        deliver();
+    }
+
+    /**
+     * Post the results to the listener, called holding the lock
+     */
+    private void deliver() {
+        mIsDelivered = true;
+        mFutures.clear();
+        final UpdateCheckResult[] results = mResults.clone();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onUpdateChecked(results);
+            }
+        });
+    }
+    //endregion
+}
@@ -0,0 +1,78 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+/**
+ * UpdateChannel is one thing a batched update check asks about: the app in the Play Store, the app described
+ * by a third party version manifest, or content the game versions apart from the app, like asset bundles or
+ * config packs, described by a version manifest of the same format.
+ */
+public class UpdateChannel {
+    // region Declarations
+    public final String name;   //name the result is reported under, also keeps the last manifest response apart
+    public final int type;      //Constants.CHANNEL_ value
+    public final String manifestLink;   //link of the version manifest, null for the Play Store
+    public final long installedVersionCode; //version the game has of the content, ignored for the app
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param name                 the name of the channel
+     * @param type                 the channel type, a Constants.CHANNEL_ value
+     * @param manifestLink         the link of the version manifest, null for the Play Store
+     * @param installedVersionCode the version the game has of the content, ignored for the app
+     */
+    public UpdateChannel(String name, int type, String manifestLink, long installedVersionCode) {
+        this.name = name;
+        this.type = type;
+        this.manifestLink = manifestLink;
+        this.installedVersionCode = installedVersionCode;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Returns the channel of the app in the Play Store
+     *
+     * @param name the name of the channel
+     */
+    public static UpdateChannel playStore(String name) {
+        return new UpdateChannel(name, Constants.CHANNEL_PLAY_STORE, null, 0);
+    }
+
+    /**
+     * Returns the channel of the app described by a version manifest
+     *
+     * @param name         the name of the channel
+     * @param manifestLink the link of the version manifest
+     */
+    public static UpdateChannel appManifest(String name, String manifestLink) {
+        return new UpdateChannel(name, Constants.CHANNEL_APP_MANIFEST, manifestLink, 0);
+    }
+
+    /**
+     * Returns the channel of content described by a version manifest
+     *
+     * @param name                 the name of the channel
+     * @param manifestLink         the link of the version manifest
+     * @param installedVersionCode the version the game has of the content
+     */
+    public static UpdateChannel content(String name, String manifestLink, long installedVersionCode) {
+        return new UpdateChannel(name, Constants.CHANNEL_CONTENT_MANIFEST, manifestLink, installedVersionCode);
+    }
+
+    /**
+     * Returns whether the channel can be checked
+     */
+    boolean isValid() {
+        if (name == null || name.isEmpty()) return false;
+        if (type == Constants.CHANNEL_PLAY_STORE) return true;
+        return (type == Constants.CHANNEL_APP_MANIFEST || type == Constants.CHANNEL_CONTENT_MANIFEST)
+                && manifestLink != null && !manifestLink.isEmpty();
+    }
+    //endregion
+}
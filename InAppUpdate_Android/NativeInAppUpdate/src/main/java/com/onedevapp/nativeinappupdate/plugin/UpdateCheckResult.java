@@ -0,0 +1,65 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+/**
+ * UpdateCheckResult is the answer of one channel of a batched update check.
+ * A channel that failed has an error code other than 0 and reports no update.
+ */
+public class UpdateCheckResult {
+    // region Declarations
+    public final String name;   //name of the channel
+    public final int type;      //Constants.CHANNEL_ value
+    public final boolean isUpdateAvailable; //whether a newer version is available
+    public final long versionCode;  //latest version, 0 if unknown
+    public final long installedVersionCode; //version installed, of the app or as given for the content
+    public final int stalenessDays; //days since the Play Store update is available, -1 if unknown
+    public final String url;    //link to download the latest version, null if none
+    public final long size;     //size of the download in bytes, 0 if unknown
+    public final String sha256; //SHA-256 of the download as hex, null if unknown
+    public final int errorCode; //0 if answered, else the error code
+    public final String error;  //error message, null if answered
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     */
+    UpdateCheckResult(UpdateChannel channel, boolean isUpdateAvailable, long versionCode, long installedVersionCode,
+                      int stalenessDays, String url, long size, String sha256, int errorCode, String error) {
+        this.name = channel.name;
+        this.type = channel.type;
+        this.isUpdateAvailable = isUpdateAvailable;
+        this.versionCode = versionCode;
+        this.installedVersionCode = installedVersionCode;
+        this.stalenessDays = stalenessDays;
+        this.url = url;
+        this.size = size;
+        this.sha256 = sha256;
+        this.errorCode = errorCode;
+        this.error = error;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Returns the result of a channel that failed
+     *
+     * @param channel   the channel
+     * @param errorCode the error code
+     * @param error     the error message
+     */
+    static UpdateCheckResult failed(UpdateChannel channel, int errorCode, String error) {
+        return new UpdateCheckResult(channel, false, 0, 0, -1, null, 0, null, errorCode, error);
+    }
+
+    /**
+     * Returns whether the channel was answered
+     */
+    public boolean isSuccessful() {
+        return errorCode == 0;
+    }
+    //endregion
+}
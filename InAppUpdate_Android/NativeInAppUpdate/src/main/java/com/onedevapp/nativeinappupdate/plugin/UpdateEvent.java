@@ -0,0 +1,74 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+
+/**
+ * UpdateEvent is a single update callback captured for batched delivery.
+ */
+public class UpdateEvent {
+    // region Declarations
+    public static final int TYPE_VERSION_CODE = 0;
+    public static final int TYPE_STALENESS_DAYS = 1;
+    public static final int TYPE_UPDATE_AVAILABLE = 2;
+    public static final int TYPE_INSTALL_STATE = 3;
+    public static final int TYPE_DOWNLOADING = 4;
+    public static final int TYPE_ERROR = 5;
+
+    public final int type;      //one of the TYPE_ values
+    public final long value1;   //versionCode, days, isUpdateAvailable, state, bytesDownloaded or error code
+    public final long value2;   //isUpdateTypeAllowed or totalBytesToDownload
+    public final String message;    //error message for TYPE_ERROR
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param type    the event type
+     * @param value1  the first value
+     * @param value2  the second value
+     * @param message the error message if any
+     */
+    public UpdateEvent(int type, long value1, long value2, String message) {
+        this.type = type;
+        this.value1 = value1;
+        this.value2 = value2;
+        this.message = message;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Replay this event on a single event listener
+     *
+     * @param listener the listener
+     */
+    public void deliverTo(OnUpdateListener listener) {
+        switch (type) {
+            case TYPE_VERSION_CODE:
+                listener.onUpdateVersionCode((int) value1);
+                break;
+            case TYPE_STALENESS_DAYS:
+                listener.onUpdateStalenessDays((int) value1);
+                break;
+            case TYPE_UPDATE_AVAILABLE:
+                listener.onUpdateAvailable(value1 != 0, value2 != 0);
+                break;
+            case TYPE_INSTALL_STATE:
+                listener.onUpdateInstallState((int) value1);
+                break;
+            case TYPE_DOWNLOADING:
+                listener.onUpdateDownloading(value1, value2);
+                break;
+            case TYPE_ERROR:
+                listener.onUpdateError((int) value1, message);
+                break;
+            default:
+                Constants.WriteLog("Unknown update event type :" + type);
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,198 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+
+/**
+ * UpdateEventDispatcher sits in front of the user OnUpdateListener.
+ * Download progress is coalesced by time and byte delta, every other event is delivered right away
+ * together with the progress pending before it. All events are delivered in order on one thread,
+ * as a single batch when the listener implements OnUpdateBatchListener.
+ */
+class UpdateEventDispatcher implements OnUpdateListener {
+
+    // region Declarations
+    static final long DEFAULT_PROGRESS_INTERVAL_MS = 250;   //at most 4 progress callbacks per second
+    static final long DEFAULT_PROGRESS_BYTES = 256 * 1024;   //skip progress steps smaller than this
+
+    private final OnUpdateListener mListener;
+    private final Handler mHandler;
+    private final ArrayList<UpdateEvent> mPendingEvents = new ArrayList<>();
+
+    private long mProgressInterval = DEFAULT_PROGRESS_INTERVAL_MS;
+    private long mProgressBytes = DEFAULT_PROGRESS_BYTES;
+
+    private int mPendingProgressIndex = -1;     //index of the coalesced progress event in mPendingEvents
+    private long mLastQueuedBytes = -1;         //bytes of the last progress event queued for delivery
+    private long mLastProgressTime;             //time of the last progress delivery
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param listener the user listener to deliver to
+     */
+    UpdateEventDispatcher(OnUpdateListener listener) {
+        this(listener, new Handler(Looper.getMainLooper()));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param listener the user listener to deliver to
+     * @param handler  the handler whose thread delivers the events
+     */
+    UpdateEventDispatcher(OnUpdateListener listener, Handler handler) {
+        this.mListener = listener;
+        this.mHandler = handler;
+    }
+
+    //endregion
+
+    // region Setters
+
+    /**
+     * Set the progress coalescing thresholds
+     *
+     * @param intervalMs minimum time between two progress callbacks, 0 to disable
+     * @param minBytes   minimum bytes between two progress callbacks, 0 to disable
+     */
+    synchronized void setProgressThrottle(long intervalMs, long minBytes) {
+        this.mProgressInterval = Math.max(0, intervalMs);
+        this.mProgressBytes = Math.max(0, minBytes);
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Returns the user listener events are delivered to
+     */
+    OnUpdateListener getListener() {
+        return mListener;
+    }
+
+    //endregion
+
+    // region OnUpdateListener
+
+    @Override
+    public void onUpdateVersionCode(int versionCode) {
+        enqueue(new UpdateEvent(UpdateEvent.TYPE_VERSION_CODE, versionCode, 0, null));
+    }
+
+    @Override
+    public void onUpdateStalenessDays(int days) {
+        enqueue(new UpdateEvent(UpdateEvent.TYPE_STALENESS_DAYS, days, 0, null));
+    }
+
+    @Override
+    public void onUpdateAvailable(boolean isUpdateAvailable, boolean isUpdateTypeAllowed) {
+        enqueue(new UpdateEvent(UpdateEvent.TYPE_UPDATE_AVAILABLE, isUpdateAvailable ? 1 : 0, isUpdateTypeAllowed ? 1 : 0, null));
+    }
+
+    @Override
+    public void onUpdateInstallState(int state) {
+        enqueue(new UpdateEvent(UpdateEvent.TYPE_INSTALL_STATE, state, 0, null));
+    }
+
+    @Override
+    public void onUpdateDownloading(long bytesDownloaded, long totalBytesToDownload) {
+        enqueueProgress(bytesDownloaded, totalBytesToDownload);
+    }
+
+    @Override
+    public void onUpdateError(int code, String error) {
+        enqueue(new UpdateEvent(UpdateEvent.TYPE_ERROR, code, 0, error));
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Queue an event which must not be delayed and flush everything pending
+     */
+    private synchronized void enqueue(UpdateEvent event) {
+        mPendingEvents.add(event);
+        //Progress after this event must be delivered after it, so it no longer replaces the earlier one
+        mPendingProgressIndex = -1;
+        mHandler.removeCallbacks(mFlushRunnable);
+        mHandler.post(mFlushRunnable);
+        mFlushScheduled = true;
+    }
+
+    /**
+     * Queue a progress event, replacing the pending one if it was not delivered yet
+     */
+    private synchronized void enqueueProgress(long bytesDownloaded, long totalBytes) {
+        boolean isComplete = totalBytes > 0 && bytesDownloaded >= totalBytes;
+        if (!isComplete && mLastQueuedBytes >= 0 && Math.abs(bytesDownloaded - mLastQueuedBytes) < mProgressBytes)
+            return;
+
+        UpdateEvent event = new UpdateEvent(UpdateEvent.TYPE_DOWNLOADING, bytesDownloaded, totalBytes, null);
+        if (mPendingProgressIndex >= 0) {
+            mPendingEvents.set(mPendingProgressIndex, event);
+        } else {
+            mPendingProgressIndex = mPendingEvents.size();
+            mPendingEvents.add(event);
+        }
+        mLastQueuedBytes = bytesDownloaded;
+
+        if (mFlushScheduled && !isComplete) return;
+
+        long delay = isComplete ? 0 : Math.max(0, mLastProgressTime + mProgressInterval - SystemClock.uptimeMillis());
+        mHandler.removeCallbacks(mFlushRunnable);
+        mHandler.postDelayed(mFlushRunnable, delay);
+        mFlushScheduled = true;
+    }
+
+    /**
+     * Deliver all pending events, runs on the handler thread only
+     */
+    private void flush() {
+        UpdateEvent[] events;
+        synchronized (this) {
+            mFlushScheduled = false;
+            if (mPendingEvents.isEmpty()) return;
+
+            events = mPendingEvents.toArray(new UpdateEvent[0]);
+            for (UpdateEvent event : events) {
+                if (event.type == UpdateEvent.TYPE_DOWNLOADING) {
+                    mLastProgressTime = SystemClock.uptimeMillis();
+                    break;
+                }
+            }
+            mPendingEvents.clear();
+            mPendingProgressIndex = -1;
+        }
+
+        try {
+            if (mListener instanceof OnUpdateBatchListener) {
+                ((OnUpdateBatchListener) mListener).onUpdateEvents(events);
+            } else {
+                for (UpdateEvent event : events) {
+                    event.deliverTo(mListener);
+                }
+            }
+        } catch (Exception e) {
+            Constants.WriteLog("UpdateEventDispatcher listener failed : " + e.toString());
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,163 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.android.play.core.appupdate.AppUpdateInfo;
+import com.google.android.play.core.install.model.AppUpdateType;
+
+/**
+ * UpdateInfoCache persists the last AppUpdateInfo so the update state can be answered synchronously,
+ * and a fresh entry saves the getAppUpdateInfo round trip to the Play service.
+ * An entry stored by another installed version is a miss, the app is restarted when it is updated
+ * so the installed version is only compared once when the entry is loaded.
+ */
+class UpdateInfoCache {
+
+    // region Declarations
+    static final long DEFAULT_TTL_MS = 60 * 60 * 1000;  //1 hour
+
+    private static final String PREFS_NAME = "native_in_app_update";
+    private static final String KEY_AVAILABILITY = "play_update_availability";
+    private static final String KEY_VERSION_CODE = "play_available_version_code";
+    private static final String KEY_STALENESS_DAYS = "play_staleness_days";
+    private static final String KEY_INSTALL_STATUS = "play_install_status";
+    private static final String KEY_FLEXIBLE_ALLOWED = "play_flexible_allowed";
+    private static final String KEY_IMMEDIATE_ALLOWED = "play_immediate_allowed";
+    private static final String KEY_UPDATED_AT = "play_updated_at";
+    private static final String KEY_INSTALLED_VERSION_CODE = "play_installed_version_code";
+
+    private final Context mContext;
+    private final SharedPreferences mPreferences;
+    private long mInstalledVersionCode = -1;    //version code of the running app, -1 until loaded
+    private volatile long mTtl = DEFAULT_TTL_MS;
+    private volatile UpdateState mState;    //in memory copy, loaded on first use
+    private volatile boolean mIsLoaded;
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param context the context
+     */
+    UpdateInfoCache(Context context) {
+        this.mContext = context.getApplicationContext();
+        this.mPreferences = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context              the context
+     * @param installedVersionCode the version code of the running app
+     */
+    UpdateInfoCache(Context context, long installedVersionCode) {
+        this(context);
+        this.mInstalledVersionCode = installedVersionCode;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Set how long a cached state stays fresh
+     *
+     * @param ttlMs the time to live in millis, 0 to always refresh
+     */
+    void setTtl(long ttlMs) {
+        this.mTtl = Math.max(0, ttlMs);
+    }
+
+    /**
+     * Returns the cached state with its expiry evaluated now, null if nothing was cached yet
+     */
+    UpdateState get() {
+        if (!mIsLoaded) load();
+        UpdateState state = mState;
+        if (state == null) return null;
+
+        boolean isExpired = isExpired(state.updatedAt);
+        if (isExpired == state.isExpired) return state;
+        return new UpdateState(state.updateAvailability, state.availableVersionCode, state.stalenessDays, state.installStatus,
+                state.isFlexibleAllowed, state.isImmediateAllowed, state.updatedAt, isExpired);
+    }
+
+    /**
+     * Returns the cached state only if it is still fresh, else null
+     */
+    UpdateState getFresh() {
+        UpdateState state = get();
+        return state != null && !state.isExpired ? state : null;
+    }
+
+    /**
+     * Store a new update info
+     *
+     * @param appUpdateInfo the info received from the Play service
+     * @return the stored state
+     */
+    UpdateState put(AppUpdateInfo appUpdateInfo) {
+        Integer stalenessDays = appUpdateInfo.clientVersionStalenessDays();
+        UpdateState state = new UpdateState(appUpdateInfo.updateAvailability(), appUpdateInfo.availableVersionCode(),
+                stalenessDays == null ? -1 : stalenessDays, appUpdateInfo.installStatus(),
+                appUpdateInfo.isUpdateTypeAllowed(AppUpdateType.FLEXIBLE), appUpdateInfo.isUpdateTypeAllowed(AppUpdateType.IMMEDIATE),
+                System.currentTimeMillis(), false);
+        if (!mIsLoaded) load();
+        mState = state;
+
+        mPreferences.edit()
+                .putInt(KEY_AVAILABILITY, state.updateAvailability)
+                .putInt(KEY_VERSION_CODE, state.availableVersionCode)
+                .putInt(KEY_STALENESS_DAYS, state.stalenessDays)
+                .putInt(KEY_INSTALL_STATUS, state.installStatus)
+                .putBoolean(KEY_FLEXIBLE_ALLOWED, state.isFlexibleAllowed)
+                .putBoolean(KEY_IMMEDIATE_ALLOWED, state.isImmediateAllowed)
+                .putLong(KEY_UPDATED_AT, state.updatedAt)
+                .putLong(KEY_INSTALLED_VERSION_CODE, mInstalledVersionCode)
+                .apply();
+        return state;
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Load the persisted state once, unless another installed version stored it
+     */
+    private synchronized void load() {
+        if (mIsLoaded) return;
+        if (mInstalledVersionCode == -1) {
+            try {
+                mInstalledVersionCode = Constants.getInstalledVersionCode(mContext);
+            } catch (Exception e) {
+                Constants.WriteLog("UpdateInfoCache installed version failed : " + e.toString());
+            }
+        }
+
+        if (mPreferences.contains(KEY_UPDATED_AT)
+                && mPreferences.getLong(KEY_INSTALLED_VERSION_CODE, -1) != mInstalledVersionCode) {
+            Constants.WriteLog("Update info cache is from another installed version");
+        } else if (mPreferences.contains(KEY_UPDATED_AT)) {
+            long updatedAt = mPreferences.getLong(KEY_UPDATED_AT, 0);
+            mState = new UpdateState(mPreferences.getInt(KEY_AVAILABILITY, 0), mPreferences.getInt(KEY_VERSION_CODE, 0),
+                    mPreferences.getInt(KEY_STALENESS_DAYS, -1), mPreferences.getInt(KEY_INSTALL_STATUS, 0),
+                    mPreferences.getBoolean(KEY_FLEXIBLE_ALLOWED, false), mPreferences.getBoolean(KEY_IMMEDIATE_ALLOWED, false),
+                    updatedAt, isExpired(updatedAt));
+        }
+        mIsLoaded = true;
+    }
+
+    /**
+     * Whether a state received at updatedAt is expired, a clock moved backwards counts as expired
+     */
+    private boolean isExpired(long updatedAt) {
+        long age = System.currentTimeMillis() - updatedAt;
+        return age < 0 || age >= mTtl;
+    }
+    //endregion
+}
@@ -0,0 +1,125 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.os.Handler;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * UpdateListenerRegistry fans update events out to every subscribed listener.
+ * Subscribers live in a copy-on-write list, so producers iterate a published snapshot without locking.
+ * Each subscriber has its own UpdateEventDispatcher with its own queue and delivery thread, the producer
+ * only queues the event, and a slow subscriber only delays its own queue, where progress keeps coalescing.
+ */
+class UpdateListenerRegistry implements OnUpdateListener {
+
+    // region Declarations
+    private final CopyOnWriteArrayList<UpdateEventDispatcher> mDispatchers = new CopyOnWriteArrayList<>();
+    private long mProgressInterval = UpdateEventDispatcher.DEFAULT_PROGRESS_INTERVAL_MS;
+    private long mProgressBytes = UpdateEventDispatcher.DEFAULT_PROGRESS_BYTES;
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Subscribe a listener, a listener already subscribed is left as it is
+     *
+     * @param listener the listener
+     * @param handler  the handler whose thread delivers to the listener
+     * @return true if added else false
+     */
+    synchronized boolean add(OnUpdateListener listener, Handler handler) {
+        if (find(listener) != null) return false;
+
+        UpdateEventDispatcher dispatcher = new UpdateEventDispatcher(listener, handler);
+        dispatcher.setProgressThrottle(mProgressInterval, mProgressBytes);
+        mDispatchers.add(dispatcher);
+        return true;
+    }
+
+    /**
+     * Unsubscribe a listener, events already queued for it are still delivered
+     *
+     * @param listener the listener
+     * @return true if removed else false
+     */
+    synchronized boolean remove(OnUpdateListener listener) {
+        UpdateEventDispatcher dispatcher = find(listener);
+        return dispatcher != null && mDispatchers.remove(dispatcher);
+    }
+
+    /**
+     * Set the progress coalescing thresholds of every subscriber
+     *
+     * @param intervalMs minimum time between two progress callbacks, 0 to disable
+     * @param minBytes   minimum bytes between two progress callbacks, 0 to disable
+     */
+    synchronized void setProgressThrottle(long intervalMs, long minBytes) {
+        this.mProgressInterval = intervalMs;
+        this.mProgressBytes = minBytes;
+        for (UpdateEventDispatcher dispatcher : mDispatchers) {
+            dispatcher.setProgressThrottle(intervalMs, minBytes);
+        }
+    }
+
+    //endregion
+
+    // region OnUpdateListener
+
+    @Override
+    public void onUpdateVersionCode(int versionCode) {
+        for (UpdateEventDispatcher dispatcher : mDispatchers) {
+            dispatcher.onUpdateVersionCode(versionCode);
+        }
+    }
+
+    @Override
+    public void onUpdateStalenessDays(int days) {
+        for (UpdateEventDispatcher dispatcher : mDispatchers) {
+            dispatcher.onUpdateStalenessDays(days);
+        }
+    }
+
+    @Override
+    public void onUpdateAvailable(boolean isUpdateAvailable, boolean isUpdateTypeAllowed) {
+        for (UpdateEventDispatcher dispatcher : mDispatchers) {
+            dispatcher.onUpdateAvailable(isUpdateAvailable, isUpdateTypeAllowed);
+        }
+    }
+
+    @Override
+    public void onUpdateInstallState(int state) {
+        for (UpdateEventDispatcher dispatcher : mDispatchers) {
+            dispatcher.onUpdateInstallState(state);
+        }
+    }
+
+    @Override
+    public void onUpdateDownloading(long bytesDownloaded, long totalBytesToDownload) {
+        for (UpdateEventDispatcher dispatcher : mDispatchers) {
+            dispatcher.onUpdateDownloading(bytesDownloaded, totalBytesToDownload);
+        }
+    }
+
+    @Override
+    public void onUpdateError(int code, String error) {
+        for (UpdateEventDispatcher dispatcher : mDispatchers) {
+            dispatcher.onUpdateError(code, error);
+        }
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Returns the dispatcher of the listener, null if not subscribed
+     */
+    private UpdateEventDispatcher find(OnUpdateListener listener) {
+        for (UpdateEventDispatcher dispatcher : mDispatchers) {
+            if (dispatcher.getListener() == listener) return dispatcher;
+        }
+        return null;
+    }
+    //endregion
+}
@@ -1,12 +1,19 @@
 package com.onedevapp.nativeinappupdate.plugin;
 
 import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
+import com.google.android.play.core.appupdate.AppUpdateManager;
 import com.google.android.play.core.install.model.AppUpdateType;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 
 /**
  * UpdateManager is the responsible class updating the App either via PlayStore or from ThirdParty site.
+ * Building it does no I/O, the update class of the mode is created on first use and the Play service is only
+ * bound on the worker thread, early with prewarm() or on the first operation.
  */
 public class UpdateManager {
 
@@ -14,9 +21,18 @@ public class UpdateManager {
     private static UpdateManager instance;
 
     private int requestCode = 9877;      //Request code for activity
-    private final WeakReference<Activity> mActivityWeakReference; //Activity references
-    private OnUpdateListener mOnUpdateListener; //Callback listener
-    private BaseUpdateClass mUpdateApp; //Parent class for app update mode
+    private volatile WeakReference<Activity> mActivityWeakReference; //Activity references, rebound by Builder()
+    private final UpdateListenerRegistry mListenerRegistry = new UpdateListenerRegistry(); //Every subscribed listener
+    private OnUpdateListener mOnUpdateListener; //Listener set with handler(), one of the subscribed
+    private final UpdateStatusBlock mStatusBlock = new UpdateStatusBlock(mListenerRegistry); //Keeps the polled status and forwards to the listeners
+    private final UpdateMetrics mUpdateMetrics = new UpdateMetrics(mStatusBlock);   //Receives every event first and forwards to the status block
+    private BaseUpdateClass mUpdateApp; //Parent class for app update mode, created on first use
+    private PlayStoreUpdate mPlayStoreUpdate;   //Asks the Play service, for the Play Store mode and batched checks
+    private AppUpdateManager mAppUpdateManager; //Play service client set with appUpdateManager(), null for the one of AppUpdateManagerFactory
+    private int mUpdateMode = Constants.PLAY_STORE_UPDATE;  //Current update mode
+    private final UpdateInfoCache mUpdateInfoCache; //Last update info persisted across launches
+    private final DownloadJournal mDownloadJournal; //Third party download in progress persisted across launches
+    private final ApkCache mApkCache;   //Downloaded third party apks
 
     //endregion
 
@@ -24,44 +40,62 @@ public class UpdateManager {
 
     /**
      * Creates a builder that uses the default requestCode.
+     * The instance is kept for the process, a recreated activity is bound to it keeping the configuration
+     * and any check or download in progress.
      *
      * @param activity the activity
-     * @return a new {@link UpdateManager} instance
+     * @return the {@link UpdateManager} instance
      */
     public static UpdateManager Builder(Activity activity) {
         if (instance == null) {
             instance = new UpdateManager(activity);
+        } else {
+            instance.bindActivity(activity);
         }
         return instance;
     }
 
     /**
      * Creates a builder
+     * The instance is kept for the process, a recreated activity is bound to it keeping the configuration
+     * and any check or download in progress.
      *
      * @param activity    the activity
      * @param requestCode the request code to later monitor this update request via onActivityResult()
-     * @return a new {@link UpdateManager} instance
+     * @return the {@link UpdateManager} instance
      */
     public static UpdateManager Builder(Activity activity, int requestCode) {
         if (instance == null) {
             instance = new UpdateManager(activity, requestCode);
+        } else {
+            instance.bindActivity(activity);
+            instance.requestCode = requestCode;
         }
         return instance;
     }
 
+    /**
+     * Drop the instance of the process, the next Builder() creates a new one with the default configuration.
+     * For tests, each one builds its own manager against its own activity.
+     */
+    static void clearInstance() {
+        instance = null;
+    }
+
     //Private constructor with activity
     private UpdateManager(Activity activity) {
+        long startTime = SystemClock.elapsedRealtime();
         this.mActivityWeakReference = new WeakReference<>(activity);
-
-        updateMode(Constants.PLAY_STORE_UPDATE);
+        this.mUpdateInfoCache = new UpdateInfoCache(activity);
+        this.mDownloadJournal = new DownloadJournal(activity);
+        this.mApkCache = new ApkCache(activity, mDownloadJournal);
+        Constants.WriteLog("UpdateManager built in " + (SystemClock.elapsedRealtime() - startTime) + "ms");
     }
 
     //Private constructor with activity and request code
     private UpdateManager(Activity activity, int requestCode) {
-        this.mActivityWeakReference = new WeakReference<>(activity);
+        this(activity);
         this.requestCode = requestCode;
-
-        updateMode(Constants.PLAY_STORE_UPDATE);
     }
     //endregion
 
@@ -74,10 +108,13 @@ public class UpdateManager {
      * @return UpdateManager itself
      */
     public UpdateManager updateMode(int updateMode) {
-        if (updateMode == Constants.PLAY_STORE_UPDATE) {
-            mUpdateApp = new PlayStoreUpdate(this);
-        } else if (updateMode == Constants.THIRD_PARTY_UPDATE) {
-            mUpdateApp = new ThirdPartyUpdate(this);
+        if (updateMode == Constants.PLAY_STORE_UPDATE || updateMode == Constants.THIRD_PARTY_UPDATE) {
+            //The update class of the new mode is created on first use, the configuration set before is not carried over
+            if (updateMode != mUpdateMode) {
+                mUpdateApp = null;
+                mPlayStoreUpdate = null;
+            }
+            mUpdateMode = updateMode;
         } else {
             Constants.WriteLog("Unknown Update mode");
         }
@@ -94,13 +131,12 @@ public class UpdateManager {
     public UpdateManager updateType(int updateType) {
 
         if (updateType == 0) {
-            mUpdateApp.setUpdateType(AppUpdateType.FLEXIBLE);
+            getUpdateApp().setUpdateType(AppUpdateType.FLEXIBLE);
         } else if (updateType == 1) {
-            mUpdateApp.setUpdateType(AppUpdateType.IMMEDIATE);
+            getUpdateApp().setUpdateType(AppUpdateType.IMMEDIATE);
         } else {
             Constants.WriteLog("Unknown Update type");
-            if (mOnUpdateListener != null)
-                mOnUpdateListener.onUpdateError(-1, "Unknown Update type");
+            mListenerRegistry.onUpdateError(-1, "Unknown Update type");
         }
         return this;
     }
@@ -112,11 +148,96 @@ public class UpdateManager {
      * @return UpdateManager itself
      */
     public UpdateManager handler(OnUpdateListener onUpdateListener) {
+        if (this.mOnUpdateListener != null)
+            mListenerRegistry.remove(this.mOnUpdateListener);
         this.mOnUpdateListener = onUpdateListener;
-        mUpdateApp.setHandler(this.mOnUpdateListener);
+        if (onUpdateListener != null)
+            mListenerRegistry.add(onUpdateListener, new Handler(Looper.getMainLooper()));
         return this;
     }
 
+    /**
+     * Add a listener next to the handler, events are delivered to it on the main thread.
+     * Adding a listener twice has no effect.
+     *
+     * @param onUpdateListener the listener
+     * @return UpdateManager itself
+     */
+    public UpdateManager addListener(OnUpdateListener onUpdateListener) {
+        return addListener(onUpdateListener, Looper.getMainLooper());
+    }
+
+    /**
+     * Add a listener next to the handler.
+     * Every listener has its own queue, one blocking its thread never delays the others or the download.
+     *
+     * @param onUpdateListener the listener
+     * @param looper           the looper of the thread events are delivered on
+     * @return UpdateManager itself
+     */
+    public UpdateManager addListener(OnUpdateListener onUpdateListener, Looper looper) {
+        if (onUpdateListener != null)
+            mListenerRegistry.add(onUpdateListener, new Handler(looper));
+        return this;
+    }
+
+    /**
+     * Remove a listener added with addListener() or handler()
+     *
+     * @param onUpdateListener the listener
+     * @return UpdateManager itself
+     */
+    public UpdateManager removeListener(OnUpdateListener onUpdateListener) {
+        mListenerRegistry.remove(onUpdateListener);
+        if (onUpdateListener == this.mOnUpdateListener)
+            this.mOnUpdateListener = null;
+        return this;
+    }
+
+    /**
+     * Set how often download progress is reported to the handler and the other listeners.
+     * Progress in between is coalesced, all other events are always reported right away.
+     *
+     * @param intervalMs minimum time between two progress callbacks, 0 to disable
+     * @param minBytes   minimum downloaded bytes between two progress callbacks, 0 to disable
+     * @return UpdateManager itself
+     */
+    public UpdateManager progressThrottle(long intervalMs, long minBytes) {
+        mListenerRegistry.setProgressThrottle(intervalMs, minBytes);
+        return this;
+    }
+
+    /**
+     * Set how update events reach the handler.
+     * With Constants.DELIVERY_MODE_STATUS_BLOCK download progress and intermediate install states are only
+     * written to the status buffer, which the game polls once per frame, and the handler gets the check results,
+     * the final install states and errors.
+     *
+     * @param deliveryMode either Constants.DELIVERY_MODE_CALLBACK or Constants.DELIVERY_MODE_STATUS_BLOCK
+     * @return UpdateManager itself
+     * @see #getStatusBuffer()
+     */
+    public UpdateManager deliveryMode(int deliveryMode) {
+        if (deliveryMode == Constants.DELIVERY_MODE_CALLBACK || deliveryMode == Constants.DELIVERY_MODE_STATUS_BLOCK) {
+            mStatusBlock.setPollingMode(deliveryMode == Constants.DELIVERY_MODE_STATUS_BLOCK);
+        } else {
+            Constants.WriteLog("Unknown Delivery mode");
+            mListenerRegistry.onUpdateError(-1, "Unknown Delivery mode");
+        }
+        return this;
+    }
+
+    /**
+     * Set how long the last update info is trusted before asking the Play service again.
+     * checkUpdate() and continueUpdate() are answered from the cache while it is fresh.
+     *
+     * @param ttlMs the time to live in millis, 0 to always ask
+     * @return UpdateManager itself
+     */
+    public UpdateManager cacheTtl(long ttlMs) {
+        mUpdateInfoCache.setTtl(ttlMs);
+        return this;
+    }
 
     /**
      * Set the update link for download
@@ -126,15 +247,227 @@ public class UpdateManager {
      */
     public UpdateManager updateLink(String mUpdateLink) {
         if (!mUpdateLink.isEmpty())
-            mUpdateApp.setUpdateLink(mUpdateLink);
+            getUpdateApp().setUpdateLink(mUpdateLink);
         else {
             Constants.WriteLog("Update link can't be empty");
-            if (mOnUpdateListener != null)
-                mOnUpdateListener.onUpdateError(-1, "Update link can't be empty");
+            mListenerRegistry.onUpdateError(-1, "Update link can't be empty");
+        }
+        return this;
+    }
+
+    /**
+     * Set the mirror links serving the same apk as the update link for third party update.
+     * All links are probed in parallel with a small range request and the download starts on the fastest one.
+     * With the segmented engine a segment moves to another mirror when its mirror fails or is several times
+     * slower than another. A manifest url replaces them unless the manifest lists its own mirrors.
+     *
+     * @param mMirrorLinks the other links of the apk, empty for none
+     * @return UpdateManager itself
+     */
+    public UpdateManager updateMirrorLinks(String[] mMirrorLinks) {
+        getUpdateApp().setMirrorLinks(mMirrorLinks != null && mMirrorLinks.length > 0 ? mMirrorLinks : null);
+        return this;
+    }
+
+    /**
+     * Set the link of the version manifest for third party update.
+     * checkUpdate() then reports an update only when the manifest versionCode is newer than the installed one,
+     * and the manifest url, mirrors, patchUrl, size and sha256 are used for the download. A manifest of another
+     * version drops the patch link, size and digest it doesn't list, including configured ones.
+     * The manifest is requested conditionally, an unchanged manifest costs a single 304 response.
+     *
+     * @param mManifestLink the link of the manifest, empty to skip the version check
+     * @return UpdateManager itself
+     */
+    public UpdateManager updateManifestLink(String mManifestLink) {
+        getUpdateApp().setManifestLink(mManifestLink);
+        return this;
+    }
+
+    /**
+     * Set the link of a patch against the installed apk for third party update.
+     * The new apk is rebuilt from the patch, falls back to the update link if patching fails.
+     * Patches are bsdiff patches made with the PatchTool module, see DeltaPatcher for the format.
+     *
+     * @param mPatchLink the link of the patch, empty to always download the full apk
+     * @return UpdateManager itself
+     */
+    public UpdateManager updatePatchLink(String mPatchLink) {
+        getUpdateApp().setPatchLink(mPatchLink);
+        return this;
+    }
+
+    /**
+     * Set the expected SHA-256 of the apk for third party update.
+     * The apk is hashed while it downloads and never reported as downloaded on a mismatch.
+     *
+     * @param sha256 the SHA-256 as hex
+     * @param size   the size in bytes, 0 if unknown
+     * @return UpdateManager itself
+     */
+    public UpdateManager updateDigest(String sha256, long size) {
+        if (DigestVerifier.isValidDigest(sha256))
+            getUpdateApp().setExpectedDigest(sha256, size);
+        else {
+            Constants.WriteLog("Invalid update digest");
+            mListenerRegistry.onUpdateError(-1, "Invalid update digest");
+        }
+        return this;
+    }
+
+    /**
+     * Set whether the downloaded apk is checked before install for third party update.
+     * When on, an apk of another package, not newer than the installed version or signed with another
+     * certificate is rejected with an error instead of opening the system installer. On by default.
+     *
+     * @param apkValidation true to check the apk
+     * @return UpdateManager itself
+     */
+    public UpdateManager apkValidation(boolean apkValidation) {
+        getUpdateApp().setApkValidation(apkValidation);
+        return this;
+    }
+
+    /**
+     * Set the download engine used for third party update
+     *
+     * @param downloadEngine the engine, Constants.DOWNLOAD_ENGINE_SYSTEM, DOWNLOAD_ENGINE_SEGMENTED or DOWNLOAD_ENGINE_SESSION
+     * @return UpdateManager itself
+     */
+    public UpdateManager downloadEngine(int downloadEngine) {
+        return downloadEngine(downloadEngine, SegmentedDownloadEngine.DEFAULT_SEGMENT_COUNT);
+    }
+
+    /**
+     * Set the download engine used for third party update.
+     * Constants.DOWNLOAD_ENGINE_SESSION streams the apk into a PackageInstaller session, no storage permission
+     * is needed and no file is left behind, completeUpdate() commits the session. The package installer checks
+     * package, version and signing certificate itself, the patch link is not used.
+     *
+     * @param downloadEngine   the engine, Constants.DOWNLOAD_ENGINE_SYSTEM, DOWNLOAD_ENGINE_SEGMENTED or DOWNLOAD_ENGINE_SESSION
+     * @param downloadSegments the max parallel segments for segmented engine
+     * @return UpdateManager itself
+     */
+    public UpdateManager downloadEngine(int downloadEngine, int downloadSegments) {
+        if (downloadEngine == Constants.DOWNLOAD_ENGINE_SYSTEM || downloadEngine == Constants.DOWNLOAD_ENGINE_SEGMENTED
+                || downloadEngine == Constants.DOWNLOAD_ENGINE_SESSION) {
+            getUpdateApp().setDownloadEngine(downloadEngine, downloadSegments);
+        } else {
+            Constants.WriteLog("Unknown Download engine");
+            mListenerRegistry.onUpdateError(-1, "Unknown Download engine");
+        }
+        return this;
+    }
+
+    /**
+     * Set the download rate ceiling of third party update, shared by all download threads
+     *
+     * @param maxBytesPerSecond the ceiling in bytes per second, 0 for none
+     * @return UpdateManager itself
+     * @see #setForegroundActivityLevel(int)
+     */
+    public UpdateManager bandwidthLimit(long maxBytesPerSecond) {
+        return bandwidthLimit(maxBytesPerSecond, DownloadThrottle.DEFAULT_IN_MATCH_BYTES_PER_SECOND);
+    }
+
+    /**
+     * Set the download rate ceilings of third party update, shared by all download threads
+     *
+     * @param maxBytesPerSecond     the ceiling in bytes per second, 0 for none
+     * @param inMatchBytesPerSecond the ceiling while in match, 0 to only apply maxBytesPerSecond
+     * @return UpdateManager itself
+     * @see #setForegroundActivityLevel(int)
+     */
+    public UpdateManager bandwidthLimit(long maxBytesPerSecond, long inMatchBytesPerSecond) {
+        DownloadThrottle downloadThrottle = DownloadThrottle.get();
+        downloadThrottle.setMaxBytesPerSecond(maxBytesPerSecond);
+        downloadThrottle.setInMatchBytesPerSecond(inMatchBytesPerSecond);
+        return this;
+    }
+
+    /**
+     * Set the size cap of the third party apk cache. Every release is kept in its own file, so backing out of
+     * the install prompt never costs a download again. Apks of installed versions are always evicted, the
+     * least recently used ones once the cache grows over the cap. Call it before prefetch(), the job keeps the value.
+     *
+     * @param maxBytes the cap in bytes, 0 to only keep the release in use
+     * @return UpdateManager itself
+     */
+    public UpdateManager cacheSize(long maxBytes) {
+        mApkCache.setMaxBytes(maxBytes);
+        return this;
+    }
+
+    /**
+     * Set the Play service client of the Play Store mode and batched checks, like the FakeAppUpdateManager
+     * of Play Core to go through the update flow without the Play Store. Call it before the first operation,
+     * the client in use is kept. The background prefetch always asks the Play service.
+     *
+     * @param appUpdateManager the client, null for the one of AppUpdateManagerFactory
+     * @return UpdateManager itself
+     */
+    public UpdateManager appUpdateManager(AppUpdateManager appUpdateManager) {
+        mAppUpdateManager = appUpdateManager;
+        return this;
+    }
+
+    /**
+     * Turn background prefetch on or off, checking once a day.
+     *
+     * @param enabled true to schedule the prefetch, false to cancel it
+     * @return UpdateManager itself
+     * @see #prefetch(boolean, long)
+     */
+    public UpdateManager prefetch(boolean enabled) {
+        return prefetch(enabled, UpdatePrefetcher.DEFAULT_INTERVAL_MS);
+    }
+
+    /**
+     * Turn background prefetch on or off.
+     * The check, and for third party update the download, then runs while the game is in background,
+     * only on unmetered network while the device is charging and idle. The next checkUpdate() or startUpdate()
+     * reports the prefetched apk as downloaded so only completeUpdate() is left. The job always downloads with
+     * the segmented engine, which stops with the job when the network becomes metered.
+     * Play Store update needs the user to accept the flow before it downloads, so for it only the
+     * cached update info is refreshed. Call it after the other setters, the job keeps their values.
+     *
+     * @param enabled    true to schedule the prefetch, false to cancel it
+     * @param intervalMs how often to check, at least 15 minutes
+     * @return UpdateManager itself
+     */
+    public UpdateManager prefetch(boolean enabled, long intervalMs) {
+        Activity activity = getActivity();
+        if (activity == null) return this;
+
+        if (!enabled) {
+            UpdatePrefetcher.cancel(activity);
+        } else if (!UpdatePrefetcher.schedule(activity, mUpdateMode, getUpdateApp(), mApkCache.getMaxBytes(), intervalMs)) {
+            Constants.WriteLog("Prefetch can't be scheduled");
+            mListenerRegistry.onUpdateError(-1, "Prefetch can't be scheduled");
         }
         return this;
     }
 
+    /**
+     * Warm up the update mode on the worker thread, call it at plugin load after updateMode().
+     * Play Store update binds the Play service and refreshes a stale cached update info, so the first
+     * checkUpdate() neither waits for the binding nor for the Play service. Third party update loads
+     * the download journal and starts watching the network.
+     *
+     * @return UpdateManager itself
+     */
+    public UpdateManager prewarm() {
+        execute("prewarm()", new Operation() {
+            @Override
+            public void run(BaseUpdateClass updateApp) {
+                long startTime = SystemClock.elapsedRealtime();
+                updateApp.prewarm();
+                Constants.WriteLog("prewarm done in " + (SystemClock.elapsedRealtime() - startTime) + "ms");
+            }
+        });
+        return this;
+    }
+
     //endregion
 
     // region helper functions
@@ -146,6 +479,45 @@ public class UpdateManager {
         return mActivityWeakReference.get();
     }
 
+    /**
+     * Bind a new activity, a recreated one replaces the old reference
+     *
+     * @param activity the activity
+     */
+    private void bindActivity(Activity activity) {
+        if (activity != null && activity != mActivityWeakReference.get())
+            mActivityWeakReference = new WeakReference<>(activity);
+    }
+
+    /**
+     * Returns the update class of the current mode, created on first use
+     */
+    private BaseUpdateClass getUpdateApp() {
+        if (mUpdateApp == null) {
+            BaseUpdateClass updateApp = mUpdateMode == Constants.THIRD_PARTY_UPDATE ? new ThirdPartyUpdate(this) : getPlayStoreUpdate();
+            updateApp.setHandler(this.mUpdateMetrics);
+            mUpdateApp = updateApp;
+        }
+        return mUpdateApp;
+    }
+
+    /**
+     * Returns the Play Store update class, the update class of the Play Store mode, created on first use.
+     * In third party mode it only serves batched checks, so they share one Play service connection.
+     */
+    private PlayStoreUpdate getPlayStoreUpdate() {
+        if (mPlayStoreUpdate == null)
+            mPlayStoreUpdate = new PlayStoreUpdate(this);
+        return mPlayStoreUpdate;
+    }
+
+    /**
+     * Returns the Play service client set with appUpdateManager(), null if none
+     */
+    protected AppUpdateManager getAppUpdateManager() {
+        return mAppUpdateManager;
+    }
+
     /**
      * Returns the Request code
      */
@@ -153,6 +525,34 @@ public class UpdateManager {
         return requestCode;
     }
 
+    /**
+     * Returns the metrics recorder
+     */
+    protected UpdateMetrics getUpdateMetrics() {
+        return mUpdateMetrics;
+    }
+
+    /**
+     * Returns the update info cache
+     */
+    protected UpdateInfoCache getUpdateInfoCache() {
+        return mUpdateInfoCache;
+    }
+
+    /**
+     * Returns the download journal
+     */
+    protected DownloadJournal getDownloadJournal() {
+        return mDownloadJournal;
+    }
+
+    /**
+     * Returns the apk cache
+     */
+    protected ApkCache getApkCache() {
+        return mApkCache;
+    }
+
     /**
      * Common functions to report error to users
      *
@@ -162,9 +562,35 @@ public class UpdateManager {
     protected void reportUpdateError(int errorCode, String error) {
         Constants.WriteLog("errorCode::" + errorCode);
         Constants.WriteLog("error::" + error);
-        if (instance.mOnUpdateListener != null) {
-            instance.mOnUpdateListener.onUpdateError(errorCode, error);
-        }
+        instance.mUpdateMetrics.onUpdateError(errorCode, error);
+    }
+
+    /**
+     * Run an operation on the plugin worker thread, so calls from any thread run one at a time in order.
+     * The update class is taken now, a later updateMode() doesn't redirect it.
+     *
+     * @param name      the name used in the error report
+     * @param operation the operation
+     */
+    private void execute(final String name, final Operation operation) {
+        final BaseUpdateClass updateApp = getUpdateApp();
+        PluginExecutor.get().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    operation.run(updateApp);
+                } catch (Exception e) {
+                    reportUpdateError(-1, name + " : Error :" + e.toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * An update operation run on the worker thread
+     */
+    private interface Operation {
+        void run(BaseUpdateClass updateApp) throws Exception;
     }
 
     //endregion
@@ -172,46 +598,181 @@ public class UpdateManager {
     // region Public functions
 
     /**
-     * Check Update
+     * Returns the status buffer, updated on every event in any delivery mode.
+     * The layout is given by the UpdateStatusBlock offsets in native byte order. Read the sequence, skip the frame
+     * if it is odd, copy the fields and keep them only if the sequence is still the same.
+     *
+     * @return the direct buffer, the same instance for the lifetime of the manager
+     */
+    public ByteBuffer getStatusBuffer() {
+        return mStatusBlock.getBuffer();
+    }
+
+    /**
+     * Returns the update pipeline metrics of this session: checkUpdate latency, time to first byte,
+     * download throughput, time spent downloaded before completeUpdate, retries and failure codes.
+     *
+     * @return a copy of the metrics
+     */
+    public UpdateMetricsSnapshot getMetrics() {
+        return mUpdateMetrics.snapshot();
+    }
+
+    /**
+     * Returns the update pipeline metrics of this session as a compact JSON object, see UpdateMetricsSnapshot.toJson()
+     *
+     * @return the metrics as JSON
+     */
+    public String getMetricsJson() {
+        return mUpdateMetrics.snapshot().toJson();
+    }
+
+    /**
+     * Clear the metrics to measure a new session
+     */
+    public void resetMetrics() {
+        mUpdateMetrics.reset();
+    }
+
+    /**
+     * Returns the last update state without waiting for the Play service, safe to call on the first frame.
+     * A missing or expired state is refreshed in background for the next call.
+     *
+     * @return the cached update state, null if no update info was received yet
+     */
+    public UpdateState getCachedUpdateState() {
+        UpdateState updateState = mUpdateInfoCache.get();
+        if (updateState == null || updateState.isExpired) {
+            final BaseUpdateClass updateApp = getUpdateApp();
+            PluginExecutor.get().execute(new Runnable() {
+                @Override
+                public void run() {
+                    updateApp.refreshUpdateState();
+                }
+            });
+        }
+        return updateState;
+    }
+
+    /**
+     * Check Update, a call made while a check is pending joins it and the listeners get its result once
      */
     public void checkUpdate() {
-        try {
-            mUpdateApp.checkUpdate();
-        } catch (Exception e) {
-            reportUpdateError(-1, "checkUpdate() : Error :" + e.toString());
+        mUpdateMetrics.onCheckStarted();
+        execute("checkUpdate()", new Operation() {
+            @Override
+            public void run(BaseUpdateClass updateApp) throws Exception {
+                updateApp.checkUpdate();
+            }
+        });
+    }
+
+    /**
+     * Check several channels at once, like the app and the content packs of the game, and get all results
+     * in one callback on the main thread. Channels time out after 30 seconds.
+     *
+     * @param channels the channels to check
+     * @param listener the listener the results are reported to
+     * @see #checkUpdates(UpdateChannel[], OnUpdateCheckListener, long)
+     */
+    public void checkUpdates(UpdateChannel[] channels, OnUpdateCheckListener listener) {
+        checkUpdates(channels, listener, UpdateBatchCheck.DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * Check several channels at once and get all results in one callback on the main thread.
+     * Every channel is asked in parallel, so the check takes as long as the slowest channel rather than all of them
+     * one after the other. The results are only reported to the given listener, they don't change the update mode,
+     * checkUpdate() is still what prepares startUpdate(), an app manifest fetched here then costs it a 304.
+     *
+     * @param channels  the channels to check
+     * @param listener  the listener the results are reported to
+     * @param timeoutMs time after which channels still pending are reported as timed out, 0 for 30 seconds
+     */
+    public void checkUpdates(UpdateChannel[] channels, OnUpdateCheckListener listener, final long timeoutMs) {
+        Activity activity = getActivity();
+        if (activity == null || channels == null || channels.length == 0 || listener == null) {
+            Constants.WriteLog("Invalid batched check");
+            mListenerRegistry.onUpdateError(-1, "checkUpdates() : Invalid channels or listener");
+            return;
         }
+
+        final UpdateBatchCheck batchCheck = new UpdateBatchCheck(activity, mUpdateInfoCache, getPlayStoreUpdate(), channels,
+                listener, new Handler(Looper.getMainLooper()));
+        PluginExecutor.get().execute(new Runnable() {
+            @Override
+            public void run() {
+                batchCheck.start(timeoutMs);
+            }
+        });
     }
 
     /**
      * Start Update
      */
     public void startUpdate() {
-        try {
-            mUpdateApp.startUpdate();
-        } catch (Exception e) {
-            reportUpdateError(-1, "startUpdate() : Error :" + e.toString());
-        }
+        mUpdateMetrics.onDownloadStarted();
+        execute("startUpdate()", new Operation() {
+            @Override
+            public void run(BaseUpdateClass updateApp) throws Exception {
+                updateApp.startUpdate();
+            }
+        });
     }
 
     /**
      * Complete Update
      */
     public void completeUpdate() {
-        try {
-            mUpdateApp.completeUpdate();
-        } catch (Exception e) {
-            reportUpdateError(-1, "completeUpdate() : Error :" + e.toString());
-        }
+        mUpdateMetrics.onCompleteRequested();
+        execute("completeUpdate()", new Operation() {
+            @Override
+            public void run(BaseUpdateClass updateApp) throws Exception {
+                updateApp.completeUpdate();
+            }
+        });
     }
 
     /**
-     * Continue Update
+     * Continue Update, a call made while a continue is pending joins it
      */
     public void continueUpdate() {
-        try {
-            mUpdateApp.continueUpdate();
-        } catch (Exception e) {
-            reportUpdateError(-1, "continueUpdate() : Error :" + e.toString());
+        execute("continueUpdate()", new Operation() {
+            @Override
+            public void run(BaseUpdateClass updateApp) throws Exception {
+                updateApp.continueUpdate();
+            }
+        });
+    }
+
+    /**
+     * Cancel Update stops the check and download in progress, a new startUpdate() starts over
+     */
+    public void cancelUpdate() {
+        execute("cancelUpdate()", new Operation() {
+            @Override
+            public void run(BaseUpdateClass updateApp) throws Exception {
+                updateApp.cancelUpdate();
+            }
+        });
+    }
+
+    /**
+     * Tell what the game is doing so a third party download gives way to it.
+     * In menu the download runs at full speed, while loading it uses fewer threads, in match it drops to a
+     * single connection on the lowest thread priority, limited to the in match bandwidth.
+     * Safe to call every time the game state changes, a running download adapts within one read.
+     *
+     * @param activityLevel one of Constants.ACTIVITY_LEVEL_MENU, ACTIVITY_LEVEL_LOADING or ACTIVITY_LEVEL_IN_MATCH
+     * @see #bandwidthLimit(long, long)
+     */
+    public void setForegroundActivityLevel(int activityLevel) {
+        if (activityLevel == Constants.ACTIVITY_LEVEL_MENU || activityLevel == Constants.ACTIVITY_LEVEL_LOADING
+                || activityLevel == Constants.ACTIVITY_LEVEL_IN_MATCH) {
+            DownloadThrottle.get().setActivityLevel(activityLevel);
+        } else {
+            Constants.WriteLog("Unknown Activity level");
+            mListenerRegistry.onUpdateError(-1, "Unknown Activity level");
         }
     }
     //endregion
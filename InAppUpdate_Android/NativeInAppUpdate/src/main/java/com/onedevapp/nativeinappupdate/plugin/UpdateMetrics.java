@@ -0,0 +1,240 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.os.SystemClock;
+
+import com.google.android.play.core.install.model.InstallStatus;
+
+import java.util.Arrays;
+
+/**
+ * UpdateMetrics times the update pipeline of the session. It sees every event before anything else,
+ * on the producing thread, so timings don't include delivery delays, and then forwards it.
+ */
+class UpdateMetrics implements OnUpdateListener {
+
+    // region Declarations
+    private static final long WINDOW_MS = 1000;     //throughput window
+    private static final int MAX_WINDOWS = 3600;    //keep an hour of windows at most
+    private static final int MAX_FAILURE_CODES = 16;
+
+    private final OnUpdateListener mListener;   //listener the events are forwarded to
+
+    private long mCheckStartTime = -1;
+    private long mCheckLatency = -1;
+    private long mDownloadStartTime = -1;
+    private long mTimeToFirstByte = -1;
+    private long mDownloadDuration = -1;
+    private long mDownloadedBytes;
+    private long mDownloadedTime = -1;
+    private long mDownloadedWait = -1;
+    private int mRetries;
+    private int mFailures;
+
+    private long mWindowStartTime;
+    private long mWindowStartBytes;
+    private long mLastBytes;
+    private long[] mWindowRates = new long[64];
+    private int mWindowCount;
+    private final int[] mFailureCodes = new int[MAX_FAILURE_CODES];     //ring of the last codes
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param listener the listener events are forwarded to
+     */
+    UpdateMetrics(OnUpdateListener listener) {
+        this.mListener = listener;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Called when checkUpdate() is requested, a call joining a pending check keeps its start time
+     */
+    synchronized void onCheckStarted() {
+        if (mCheckStartTime < 0)
+            mCheckStartTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Called when startUpdate() is requested, the download metrics start over
+     */
+    synchronized void onDownloadStarted() {
+        resetDownload(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Called when completeUpdate() is requested
+     */
+    synchronized void onCompleteRequested() {
+        if (mDownloadedTime >= 0 && mDownloadedWait < 0)
+            mDownloadedWait = SystemClock.elapsedRealtime() - mDownloadedTime;
+    }
+
+    /**
+     * Called when a download is retried
+     */
+    synchronized void onRetry() {
+        mRetries++;
+    }
+
+    /**
+     * Clear everything measured so far
+     */
+    synchronized void reset() {
+        mCheckStartTime = -1;
+        mCheckLatency = -1;
+        mRetries = 0;
+        mFailures = 0;
+        resetDownload(-1);
+    }
+
+    /**
+     * Returns a copy of the metrics
+     */
+    synchronized UpdateMetricsSnapshot snapshot() {
+        long throughputAvg = mDownloadDuration > 0 ? mDownloadedBytes * 1000 / mDownloadDuration : -1;
+        long throughputMin = -1;
+        long throughputP95 = -1;
+        if (mWindowCount > 0) {
+            long[] rates = Arrays.copyOf(mWindowRates, mWindowCount);
+            Arrays.sort(rates);
+            throughputMin = rates[0];
+            throughputP95 = rates[Math.min(rates.length - 1, (int) Math.ceil(rates.length * 0.95) - 1)];
+        }
+
+        int codeCount = Math.min(mFailures, MAX_FAILURE_CODES);
+        int[] failureCodes = new int[codeCount];
+        for (int i = 0; i < codeCount; i++) {
+            failureCodes[i] = mFailureCodes[(mFailures - codeCount + i) % MAX_FAILURE_CODES];
+        }
+
+        return new UpdateMetricsSnapshot(mCheckLatency, mTimeToFirstByte, mDownloadDuration, mDownloadedBytes,
+                throughputAvg, throughputMin, throughputP95, mWindowCount, mDownloadedWait, mRetries, mFailures, failureCodes);
+    }
+
+    //endregion
+
+    // region OnUpdateListener
+
+    @Override
+    public void onUpdateVersionCode(int versionCode) {
+        mListener.onUpdateVersionCode(versionCode);
+    }
+
+    @Override
+    public void onUpdateStalenessDays(int days) {
+        mListener.onUpdateStalenessDays(days);
+    }
+
+    @Override
+    public void onUpdateAvailable(boolean isUpdateAvailable, boolean isUpdateTypeAllowed) {
+        synchronized (this) {
+            if (mCheckStartTime >= 0) {
+                mCheckLatency = SystemClock.elapsedRealtime() - mCheckStartTime;
+                mCheckStartTime = -1;
+            }
+        }
+        mListener.onUpdateAvailable(isUpdateAvailable, isUpdateTypeAllowed);
+    }
+
+    @Override
+    public void onUpdateInstallState(int state) {
+        if (state == InstallStatus.DOWNLOADED) {
+            synchronized (this) {
+                long now = SystemClock.elapsedRealtime();
+                if (mDownloadStartTime >= 0 && mDownloadDuration < 0) {
+                    mDownloadDuration = now - mDownloadStartTime;
+                    //A short last window would only add noise to the minimum
+                    if (mWindowCount == 0 || now - mWindowStartTime >= WINDOW_MS / 2)
+                        closeWindow(now, mLastBytes);
+                }
+                if (mDownloadedTime < 0) mDownloadedTime = now;
+            }
+        }
+        mListener.onUpdateInstallState(state);
+    }
+
+    @Override
+    public void onUpdateDownloading(long bytesDownloaded, long totalBytesToDownload) {
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            if (mDownloadStartTime < 0) {
+                //Started outside startUpdate(), like a flexible Play update resumed from continueUpdate()
+                mDownloadStartTime = now;
+                mWindowStartTime = now;
+            }
+            if (mTimeToFirstByte < 0 && bytesDownloaded > 0)
+                mTimeToFirstByte = now - mDownloadStartTime;
+
+            if (bytesDownloaded < mLastBytes) {
+                //The download started over, measure from here
+                mWindowStartTime = now;
+                mWindowStartBytes = bytesDownloaded;
+            } else if (now - mWindowStartTime >= WINDOW_MS) {
+                closeWindow(now, bytesDownloaded);
+            }
+            mLastBytes = bytesDownloaded;
+            mDownloadedBytes = bytesDownloaded;
+        }
+        mListener.onUpdateDownloading(bytesDownloaded, totalBytesToDownload);
+    }
+
+    @Override
+    public void onUpdateError(int code, String error) {
+        synchronized (this) {
+            if (mCheckStartTime >= 0) {
+                mCheckLatency = SystemClock.elapsedRealtime() - mCheckStartTime;
+                mCheckStartTime = -1;
+            }
+            mFailureCodes[mFailures % MAX_FAILURE_CODES] = code;
+            mFailures++;
+        }
+        mListener.onUpdateError(code, error);
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Clear the download metrics, called with the lock held
+     *
+     * @param startTime the download start time, -1 if not started
+     */
+    private void resetDownload(long startTime) {
+        mDownloadStartTime = startTime;
+        mTimeToFirstByte = -1;
+        mDownloadDuration = -1;
+        mDownloadedBytes = 0;
+        mDownloadedTime = -1;
+        mDownloadedWait = -1;
+        mWindowStartTime = startTime;
+        mWindowStartBytes = 0;
+        mLastBytes = 0;
+        mWindowCount = 0;
+    }
+
+    /**
+     * Record the rate of the current window and start the next one, called with the lock held
+     */
+    private void closeWindow(long now, long bytesDownloaded) {
+        long elapsed = now - mWindowStartTime;
+        if (elapsed <= 0) return;
+
+        if (mWindowCount < MAX_WINDOWS) {
+            if (mWindowCount == mWindowRates.length)
+                mWindowRates = Arrays.copyOf(mWindowRates, Math.min(MAX_WINDOWS, mWindowRates.length * 2));
+            mWindowRates[mWindowCount++] = (bytesDownloaded - mWindowStartBytes) * 1000 / elapsed;
+        }
+        mWindowStartTime = now;
+        mWindowStartBytes = bytesDownloaded;
+    }
+    //endregion
+}
@@ -0,0 +1,89 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * UpdateMetricsSnapshot is a copy of the update pipeline metrics of the session at one point in time.
+ * Durations are in millis and -1 when the phase didn't happen yet, throughput is in bytes per second
+ * over one second windows.
+ */
+public class UpdateMetricsSnapshot {
+    // region Declarations
+    public final long checkLatencyMs;   //checkUpdate() until the update availability was known
+    public final long timeToFirstByteMs;    //startUpdate() until the first downloaded bytes
+    public final long downloadDurationMs;   //startUpdate() until DOWNLOADED
+    public final long downloadedBytes;  //bytes of the last download
+    public final long throughputAvg;    //average over the whole download
+    public final long throughputMin;    //slowest window
+    public final long throughputP95;    //95th percentile of the windows
+    public final int throughputWindows; //number of windows measured
+    public final long downloadedWaitMs; //DOWNLOADED until completeUpdate()
+    public final int retries;   //download retries, including falling back from patch to full download
+    public final int failures;  //errors reported
+    public final int[] failureCodes;    //codes of the last errors, oldest first
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     */
+    UpdateMetricsSnapshot(long checkLatencyMs, long timeToFirstByteMs, long downloadDurationMs, long downloadedBytes,
+                          long throughputAvg, long throughputMin, long throughputP95, int throughputWindows,
+                          long downloadedWaitMs, int retries, int failures, int[] failureCodes) {
+        this.checkLatencyMs = checkLatencyMs;
+        this.timeToFirstByteMs = timeToFirstByteMs;
+        this.downloadDurationMs = downloadDurationMs;
+        this.downloadedBytes = downloadedBytes;
+        this.throughputAvg = throughputAvg;
+        this.throughputMin = throughputMin;
+        this.throughputP95 = throughputP95;
+        this.throughputWindows = throughputWindows;
+        this.downloadedWaitMs = downloadedWaitMs;
+        this.retries = retries;
+        this.failures = failures;
+        this.failureCodes = failureCodes;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Returns the snapshot as a compact JSON object, like
+     * {"check":120,"ttfb":340,"dl":9100,"bytes":52428800,"bps":{"avg":5761406,"min":2097152,"p95":7340032,"n":9},"wait":15000,"retries":1,"failures":0,"codes":[]}
+     */
+    public String toJson() {
+        try {
+            JSONObject throughput = new JSONObject();
+            throughput.put("avg", throughputAvg);
+            throughput.put("min", throughputMin);
+            throughput.put("p95", throughputP95);
+            throughput.put("n", throughputWindows);
+
+            JSONArray codes = new JSONArray();
+            for (int code : failureCodes) {
+                codes.put(code);
+            }
+
+            JSONObject json = new JSONObject();
+            json.put("check", checkLatencyMs);
+            json.put("ttfb", timeToFirstByteMs);
+            json.put("dl", downloadDurationMs);
+            json.put("bytes", downloadedBytes);
+            json.put("bps", throughput);
+            json.put("wait", downloadedWaitMs);
+            json.put("retries", retries);
+            json.put("failures", failures);
+            json.put("codes", codes);
+            return json.toString();
+        } catch (JSONException e) {
+            Constants.WriteLog("UpdateMetricsSnapshot toJson failed : " + e.toString());
+            return "{}";
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,198 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.net.Uri;
+import android.os.PersistableBundle;
+
+import com.google.android.play.core.appupdate.AppUpdateInfo;
+import com.google.android.play.core.appupdate.AppUpdateManagerFactory;
+import com.google.android.play.core.tasks.OnCompleteListener;
+import com.google.android.play.core.tasks.Task;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+/**
+ * UpdatePrefetchJobService runs the update check, and for third party update the download, while the game
+ * is in background. Play Store update can't be downloaded without the user accepting the update flow,
+ * so for it the job only refreshes the cached update info.
+ */
+public class UpdatePrefetchJobService extends JobService {
+
+    // region Declarations
+    private volatile DownloadEngine mDownloadEngine;
+    private volatile Future<?> mPrefetchFuture;
+    private volatile boolean mStopped;
+
+    //endregion
+
+    // region JobService
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mStopped = false;
+        final PersistableBundle extras = params.getExtras();
+
+        if (extras.getInt(UpdatePrefetcher.EXTRA_UPDATE_MODE) == Constants.PLAY_STORE_UPDATE) {
+            final UpdateInfoCache updateInfoCache = new UpdateInfoCache(this);
+            AppUpdateManagerFactory.create(this).getAppUpdateInfo().addOnCompleteListener(new OnCompleteListener<AppUpdateInfo>() {
+                @Override
+                public void onComplete(Task<AppUpdateInfo> task) {
+                    if (task.isSuccessful())
+                        updateInfoCache.put(task.getResult());
+                    finishJob(params, !task.isSuccessful());
+                }
+            });
+            return true;
+        }
+
+        mPrefetchFuture = PluginExecutor.get().submit(new Runnable() {
+            @Override
+            public void run() {
+                prefetch(params, extras);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        //Constraints are gone, the download is resumed on the next run
+        mStopped = true;
+        DownloadEngine downloadEngine = mDownloadEngine;
+        if (downloadEngine != null) downloadEngine.cancel();
+        Future<?> prefetchFuture = mPrefetchFuture;
+        if (prefetchFuture != null) prefetchFuture.cancel(true);
+        return true;
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Check the manifest and download the apk if a newer one is not prefetched yet, runs in background
+     */
+    private void prefetch(final JobParameters params, PersistableBundle extras) {
+        String updateLink = extras.getString(UpdatePrefetcher.EXTRA_UPDATE_LINK);
+        String[] mirrorLinks = extras.getStringArray(UpdatePrefetcher.EXTRA_MIRROR_LINKS);
+        String manifestLink = extras.getString(UpdatePrefetcher.EXTRA_MANIFEST_LINK);
+        String patchLink = extras.getString(UpdatePrefetcher.EXTRA_PATCH_LINK);
+        String expectedDigest = extras.getString(UpdatePrefetcher.EXTRA_EXPECTED_DIGEST);
+        long expectedSize = extras.getLong(UpdatePrefetcher.EXTRA_EXPECTED_SIZE);
+
+        long manifestVersionCode = 0;
+        final ApkCache apkCache = new ApkCache(this, new DownloadJournal(this));
+        apkCache.setMaxBytes(extras.getLong(UpdatePrefetcher.EXTRA_CACHE_MAX_BYTES, ApkCache.DEFAULT_MAX_BYTES));
+
+        try {
+            Uri prefetchedApk = UpdatePrefetcher.getPrefetchedApk(this);
+            apkCache.trim(ApkCache.getKey(prefetchedApk));
+
+            if (manifestLink != null && !manifestLink.isEmpty()) {
+                VersionManifest manifest = VersionManifest.fetch(this, manifestLink);
+                manifestVersionCode = manifest.versionCode;
+                if (manifest.versionCode <= Constants.getInstalledVersionCode(this)) {
+                    Constants.WriteLog("Prefetch : no newer version");
+                    finishJob(params, false);
+                    return;
+                }
+                if (prefetchedApk != null && UpdatePrefetcher.getPrefetchedVersionCode(this) == manifest.versionCode) {
+                    finishJob(params, false);
+                    return;
+                }
+                if (manifest.splits != null) {
+                    //Split apks are installed through a session, which can't be kept for a later run
+                    Constants.WriteLog("Prefetch : split apks are downloaded on startUpdate()");
+                    finishJob(params, false);
+                    return;
+                }
+                if (manifest.url != null) {
+                    updateLink = manifest.url;
+                    mirrorLinks = manifest.mirrors;
+                }
+                if (manifest.patchUrl != null) patchLink = manifest.patchUrl;
+                if (DigestVerifier.isValidDigest(manifest.sha256) || manifest.size > 0) {
+                    expectedDigest = DigestVerifier.isValidDigest(manifest.sha256) ? manifest.sha256 : null;
+                    expectedSize = manifest.size;
+                }
+            } else if (prefetchedApk != null) {
+                //Without a manifest the link can't tell whether a newer apk is behind it
+                finishJob(params, false);
+                return;
+            }
+
+            if (updateLink == null || updateLink.isEmpty() || mStopped) {
+                finishJob(params, false);
+                return;
+            }
+
+            //Same key as ThirdPartyUpdate, so startUpdate() finds the apk even without the prefetch record
+            final String cacheKey = ApkCache.getKey(manifestVersionCode, expectedDigest, updateLink, expectedSize);
+            File cachedApk = apkCache.get(cacheKey);
+            if (cachedApk != null) {
+                savePrefetchedApk(params, apkCache, cachedApk);
+                return;
+            }
+
+            Constants.WriteLog("Prefetch : downloading " + updateLink);
+            //The DownloadManager isn't bound to the job constraints and would go on over a metered network
+            mDownloadEngine = BaseUpdateClass.createDownloadEngine(Constants.DOWNLOAD_ENGINE_SEGMENTED,
+                    extras.getInt(UpdatePrefetcher.EXTRA_DOWNLOAD_SEGMENTS), mirrorLinks, patchLink, expectedDigest, expectedSize, null);
+            mDownloadEngine.start(this, updateLink, apkCache.getPartName(cacheKey), new DownloadEngine.Callback() {
+                @Override
+                public void onProgress(long bytesDownloaded, long totalBytes) {
+                }
+
+                @Override
+                public void onSuccess(Uri fileUri) {
+                    try {
+                        savePrefetchedApk(params, apkCache, apkCache.commit(cacheKey));
+                    } catch (IOException e) {
+                        Constants.WriteLog("Prefetch : " + e.toString());
+                        finishJob(params, true);
+                    }
+                }
+
+                @Override
+                public void onFailed(int code, String error) {
+                    Constants.WriteLog("Prefetch : download failed : " + code + " " + error);
+                    finishJob(params, true);
+                }
+
+                @Override
+                public void onRetry(String reason) {
+                }
+            });
+        } catch (Exception e) {
+            Constants.WriteLog("Prefetch failed : " + e.toString());
+            finishJob(params, true);
+        }
+    }
+
+    /**
+     * Finish the job unless it was stopped, a stopped job is already rescheduled by onStopJob
+     */
+    private void finishJob(JobParameters params, boolean reschedule) {
+        if (!mStopped) jobFinished(params, reschedule);
+    }
+
+    /**
+     * Remember a cached apk as prefetched once it reads as a valid apk, then finish the job
+     */
+    private void savePrefetchedApk(JobParameters params, ApkCache apkCache, File apk) {
+        Uri fileUri = apkCache.getUri(apk);
+        try {
+            ApkInspector.ApkInfo apkInfo = ApkInspector.inspect(this, fileUri);
+            UpdatePrefetcher.savePrefetchedApk(this, fileUri, apkInfo.versionCode);
+            Constants.WriteLog("Prefetch : downloaded version " + apkInfo.versionCode);
+            finishJob(params, false);
+        } catch (Exception e) {
+            Constants.WriteLog("Prefetch : invalid apk : " + e.toString());
+            finishJob(params, true);
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,160 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.os.PersistableBundle;
+
+/**
+ * UpdatePrefetcher schedules UpdatePrefetchJobService on unmetered network, while charging and idle,
+ * and keeps track of the apk it downloaded so the next launch can go straight to install.
+ */
+class UpdatePrefetcher {
+
+    // region Declarations
+    static final int JOB_ID = 0x4E494155;   //"NIAU", fixed so scheduling again replaces the job
+    static final long DEFAULT_INTERVAL_MS = 24 * 60 * 60 * 1000;    //check once a day
+
+    static final String EXTRA_UPDATE_MODE = "update_mode";
+    static final String EXTRA_UPDATE_LINK = "update_link";
+    static final String EXTRA_MIRROR_LINKS = "mirror_links";
+    static final String EXTRA_MANIFEST_LINK = "manifest_link";
+    static final String EXTRA_PATCH_LINK = "patch_link";
+    static final String EXTRA_EXPECTED_DIGEST = "expected_digest";
+    static final String EXTRA_EXPECTED_SIZE = "expected_size";
+    static final String EXTRA_DOWNLOAD_SEGMENTS = "download_segments";
+    static final String EXTRA_CACHE_MAX_BYTES = "cache_max_bytes";
+
+    private static final String PREFS_NAME = "native_in_app_update";
+    private static final String KEY_PREFETCH_URI = "prefetch_uri";
+    private static final String KEY_PREFETCH_VERSION_CODE = "prefetch_version_code";
+
+    //endregion
+
+    private UpdatePrefetcher() {
+    }
+
+    // region Public functions
+
+    /**
+     * Schedule the prefetch job with the current configuration, replacing any previous one
+     *
+     * @param context       the context
+     * @param updateMode    the update mode
+     * @param updateApp     the configured update class
+     * @param cacheMaxBytes the size cap of the apk cache
+     * @param intervalMs    how often the job runs
+     * @return true if scheduled else false
+     */
+    static boolean schedule(Context context, int updateMode, BaseUpdateClass updateApp, long cacheMaxBytes, long intervalMs) {
+        PersistableBundle extras = new PersistableBundle();
+        extras.putInt(EXTRA_UPDATE_MODE, updateMode);
+        extras.putString(EXTRA_UPDATE_LINK, updateApp.mUpdateLink);
+        extras.putStringArray(EXTRA_MIRROR_LINKS, updateApp.mMirrorLinks);
+        extras.putString(EXTRA_MANIFEST_LINK, updateApp.mManifestLink);
+        extras.putString(EXTRA_PATCH_LINK, updateApp.mPatchLink);
+        extras.putString(EXTRA_EXPECTED_DIGEST, updateApp.mExpectedDigest);
+        extras.putLong(EXTRA_EXPECTED_SIZE, updateApp.mExpectedSize);
+        extras.putInt(EXTRA_DOWNLOAD_SEGMENTS, updateApp.mDownloadSegments);
+        extras.putLong(EXTRA_CACHE_MAX_BYTES, cacheMaxBytes);
+
+        JobInfo jobInfo = new JobInfo.Builder(JOB_ID, new ComponentName(context, UpdatePrefetchJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .setPeriodic(intervalMs)
+                .setExtras(extras)
+                .build();
+
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        boolean isScheduled = jobScheduler != null && jobScheduler.schedule(jobInfo) == JobScheduler.RESULT_SUCCESS;
+        Constants.WriteLog("Prefetch job scheduled : " + isScheduled);
+        return isScheduled;
+    }
+
+    /**
+     * Cancel the prefetch job
+     *
+     * @param context the context
+     */
+    static void cancel(Context context) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler != null)
+            jobScheduler.cancel(JOB_ID);
+    }
+
+    /**
+     * Returns the prefetched apk if it is still there and newer than the installed version, forgets it otherwise
+     *
+     * @param context the context
+     * @return the uri of the apk, null if none
+     */
+    static Uri getPrefetchedApk(Context context) {
+        SharedPreferences preferences = getPreferences(context);
+        String uri = preferences.getString(KEY_PREFETCH_URI, null);
+        if (uri == null) return null;
+
+        Uri apkUri = Uri.parse(uri);
+        try {
+            if (preferences.getLong(KEY_PREFETCH_VERSION_CODE, 0) > Constants.getInstalledVersionCode(context)) {
+                ParcelFileDescriptor fileDescriptor = context.getContentResolver().openFileDescriptor(apkUri, "r");
+                if (fileDescriptor != null) {
+                    fileDescriptor.close();
+                    return apkUri;
+                }
+            }
+        } catch (Exception e) {
+            Constants.WriteLog("Prefetched apk not available : " + e.toString());
+        }
+        clearPrefetchedApk(context);
+        return null;
+    }
+
+    /**
+     * Returns the version code of the prefetched apk, 0 if none
+     *
+     * @param context the context
+     */
+    static long getPrefetchedVersionCode(Context context) {
+        return getPreferences(context).getLong(KEY_PREFETCH_VERSION_CODE, 0);
+    }
+
+    /**
+     * Remember a prefetched apk
+     *
+     * @param context     the context
+     * @param apkUri      the uri of the apk
+     * @param versionCode the version code read from the apk
+     */
+    static void savePrefetchedApk(Context context, Uri apkUri, long versionCode) {
+        getPreferences(context).edit()
+                .putString(KEY_PREFETCH_URI, apkUri.toString())
+                .putLong(KEY_PREFETCH_VERSION_CODE, versionCode)
+                .apply();
+    }
+
+    /**
+     * Forget the prefetched apk
+     *
+     * @param context the context
+     */
+    static void clearPrefetchedApk(Context context) {
+        getPreferences(context).edit()
+                .remove(KEY_PREFETCH_URI)
+                .remove(KEY_PREFETCH_VERSION_CODE)
+                .apply();
+    }
+
+    //endregion
+
+    // region private functions
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+    //endregion
+}
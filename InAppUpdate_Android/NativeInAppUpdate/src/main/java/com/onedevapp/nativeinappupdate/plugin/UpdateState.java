@@ -0,0 +1,59 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import com.google.android.play.core.install.model.AppUpdateType;
+import com.google.android.play.core.install.model.UpdateAvailability;
+
+/**
+ * UpdateState is a snapshot of the last update info received from the Play service.
+ */
+public class UpdateState {
+    // region Declarations
+    public final int updateAvailability;    //UpdateAvailability value
+    public final int availableVersionCode;  //version code available in the store
+    public final int stalenessDays;     //days since the update is available, -1 if unknown
+    public final int installStatus;     //InstallStatus value
+    public final boolean isFlexibleAllowed;     //whether flexible update type is allowed
+    public final boolean isImmediateAllowed;    //whether immediate update type is allowed
+    public final long updatedAt;    //wall clock time in millis when this was received
+    public final boolean isExpired; //whether this is older than the cache ttl
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     */
+    public UpdateState(int updateAvailability, int availableVersionCode, int stalenessDays, int installStatus,
+                       boolean isFlexibleAllowed, boolean isImmediateAllowed, long updatedAt, boolean isExpired) {
+        this.updateAvailability = updateAvailability;
+        this.availableVersionCode = availableVersionCode;
+        this.stalenessDays = stalenessDays;
+        this.installStatus = installStatus;
+        this.isFlexibleAllowed = isFlexibleAllowed;
+        this.isImmediateAllowed = isImmediateAllowed;
+        this.updatedAt = updatedAt;
+        this.isExpired = isExpired;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Returns whether an update is available
+     */
+    public boolean isUpdateAvailable() {
+        return updateAvailability == UpdateAvailability.UPDATE_AVAILABLE;
+    }
+
+    /**
+     * Returns whether the update type is allowed
+     *
+     * @param updateType the update type either flexible or immediate
+     */
+    public boolean isUpdateTypeAllowed(int updateType) {
+        return updateType == AppUpdateType.IMMEDIATE ? isImmediateAllowed : isFlexibleAllowed;
+    }
+    //endregion
+}
@@ -0,0 +1,172 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import com.google.android.play.core.install.model.InstallStatus;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * UpdateStatusBlock keeps the latest update status in a direct ByteBuffer with a fixed layout, so the game
+ * can read it once per frame through the buffer address without a JNI call or allocation per event.
+ * Writes are guarded by a sequence number: it is odd while a write is in progress, a reader copies the
+ * fields and retries if the sequence was odd or changed meanwhile.
+ * Every event updates the block first and is then forwarded to the listener, in status block delivery
+ * mode only the events which end a step are forwarded and progress is left to polling.
+ */
+public class UpdateStatusBlock implements OnUpdateListener {
+
+    // region Declarations
+    public static final int OFFSET_SEQUENCE = 0;        //int, odd while writing
+    public static final int OFFSET_STATUS = 4;          //int, InstallStatus value
+    public static final int OFFSET_BYTES_DOWNLOADED = 8;    //long
+    public static final int OFFSET_TOTAL_BYTES = 16;    //long
+    public static final int OFFSET_VERSION_CODE = 24;   //int, available version code
+    public static final int OFFSET_STALENESS_DAYS = 28; //int, -1 if unknown
+    public static final int OFFSET_ERROR_CODE = 32;     //int, last error code, 0 if none
+    public static final int OFFSET_UPDATE_AVAILABLE = 36;   //int, -1 unknown, else bit 0 available and bit 1 type allowed
+    public static final int SIZE = 40;
+
+    private final ByteBuffer mBuffer;
+    private final OnUpdateListener mListener;    //listener the events are forwarded to
+    private volatile boolean mIsPollingMode;        //forward only terminal events
+    private volatile int mFence;    //volatile writes order the plain buffer writes around the sequence
+    private int mSequence;
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param listener the listener events are forwarded to
+     */
+    UpdateStatusBlock(OnUpdateListener listener) {
+        this.mListener = listener;
+        mBuffer = ByteBuffer.allocateDirect(SIZE).order(ByteOrder.nativeOrder());
+        mBuffer.putInt(OFFSET_STATUS, InstallStatus.UNKNOWN);
+        mBuffer.putInt(OFFSET_STALENESS_DAYS, -1);
+        mBuffer.putInt(OFFSET_UPDATE_AVAILABLE, -1);
+    }
+
+    //endregion
+
+    // region Setters
+
+    /**
+     * Set whether only terminal events are forwarded
+     *
+     * @param isPollingMode true to leave progress and intermediate states to polling
+     */
+    void setPollingMode(boolean isPollingMode) {
+        this.mIsPollingMode = isPollingMode;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Returns the direct buffer in native byte order, it never changes so its address can be kept
+     */
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    //endregion
+
+    // region OnUpdateListener
+
+    @Override
+    public void onUpdateVersionCode(int versionCode) {
+        synchronized (this) {
+            beginWrite();
+            mBuffer.putInt(OFFSET_VERSION_CODE, versionCode);
+            endWrite();
+        }
+        mListener.onUpdateVersionCode(versionCode);
+    }
+
+    @Override
+    public void onUpdateStalenessDays(int days) {
+        synchronized (this) {
+            beginWrite();
+            mBuffer.putInt(OFFSET_STALENESS_DAYS, days);
+            endWrite();
+        }
+        mListener.onUpdateStalenessDays(days);
+    }
+
+    @Override
+    public void onUpdateAvailable(boolean isUpdateAvailable, boolean isUpdateTypeAllowed) {
+        synchronized (this) {
+            beginWrite();
+            mBuffer.putInt(OFFSET_UPDATE_AVAILABLE, (isUpdateAvailable ? 1 : 0) | (isUpdateTypeAllowed ? 2 : 0));
+            endWrite();
+        }
+        mListener.onUpdateAvailable(isUpdateAvailable, isUpdateTypeAllowed);
+    }
+
+    @Override
+    public void onUpdateInstallState(int state) {
+        synchronized (this) {
+            beginWrite();
+            mBuffer.putInt(OFFSET_STATUS, state);
+            endWrite();
+        }
+        if (!mIsPollingMode || isTerminalState(state))
+            mListener.onUpdateInstallState(state);
+    }
+
+    @Override
+    public void onUpdateDownloading(long bytesDownloaded, long totalBytesToDownload) {
+        synchronized (this) {
+            beginWrite();
+            mBuffer.putInt(OFFSET_STATUS, InstallStatus.DOWNLOADING);
+            mBuffer.putLong(OFFSET_BYTES_DOWNLOADED, bytesDownloaded);
+            mBuffer.putLong(OFFSET_TOTAL_BYTES, totalBytesToDownload);
+            endWrite();
+        }
+        if (!mIsPollingMode)
+            mListener.onUpdateDownloading(bytesDownloaded, totalBytesToDownload);
+    }
+
+    @Override
+    public void onUpdateError(int code, String error) {
+        synchronized (this) {
+            beginWrite();
+            mBuffer.putInt(OFFSET_ERROR_CODE, code);
+            endWrite();
+        }
+        mListener.onUpdateError(code, error);
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Mark the block as being written, called with the lock held
+     */
+    private void beginWrite() {
+        mBuffer.putInt(OFFSET_SEQUENCE, ++mSequence);
+        mFence = mSequence;
+    }
+
+    /**
+     * Publish the written fields, called with the lock held
+     */
+    private void endWrite() {
+        mFence = mSequence;
+        mBuffer.putInt(OFFSET_SEQUENCE, ++mSequence);
+    }
+
+    /**
+     * Whether the state ends a step and is still forwarded in polling mode
+     */
+    private static boolean isTerminalState(int state) {
+        return state == InstallStatus.DOWNLOADED || state == InstallStatus.INSTALLED
+                || state == InstallStatus.FAILED || state == InstallStatus.CANCELED;
+    }
+    //endregion
+}
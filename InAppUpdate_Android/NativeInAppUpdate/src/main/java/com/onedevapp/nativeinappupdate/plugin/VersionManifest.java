@@ -0,0 +1,202 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * VersionManifest is the small JSON document describing the latest third party release, like
+ * {"versionCode":42,"url":"https://host/app.apk","mirrors":["https://mirror/app.apk"],"size":123,"sha256":"...",
+ * "patchUrl":"https://host/41-42.patch","splits":[...]}
+ * With "splits", url is the base apk and the splits are described by ApkSplit.
+ * It is fetched with If-None-Match / If-Modified-Since against the last response kept in SharedPreferences,
+ * so an unchanged manifest costs a single 304 without a body. Manifests of content channels describe their
+ * package the same way and keep their last response apart, under the name of the channel.
+ */
+class VersionManifest {
+
+    // region Declarations
+    private static final String PREFS_NAME = "native_in_app_update";
+    private static final String KEY_URL = "manifest_url";
+    private static final String KEY_ETAG = "manifest_etag";
+    private static final String KEY_LAST_MODIFIED = "manifest_last_modified";
+    private static final String KEY_BODY = "manifest_body";
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 15000;
+    private static final int MAX_BODY_SIZE = 64 * 1024;  //a manifest is a few hundred bytes
+
+    final long versionCode; //version code of the latest release
+    final String url;       //link to download the apk, null to keep the configured one
+    final String[] mirrors; //other links of the same apk, null if none
+    final long size;        //size of the apk in bytes, 0 if unknown
+    final String sha256;    //SHA-256 of the apk as hex, null if unknown
+    final String patchUrl;  //link of a patch against the previous release, null if none
+    final List<ApkSplit> splits;    //splits next to the base apk, null for a single apk
+    final boolean isNotModified;    //whether the host answered 304 and the stored copy was used
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @param json          the manifest document
+     * @param isNotModified whether it was answered with 304
+     * @throws JSONException if the document is invalid or has no versionCode
+     */
+    private VersionManifest(String json, boolean isNotModified) throws JSONException {
+        JSONObject object = new JSONObject(json);
+        this.versionCode = object.getLong("versionCode");
+        this.url = emptyToNull(object.optString("url", null));
+        this.mirrors = toStringArray(object.optJSONArray("mirrors"));
+        this.size = object.optLong("size", 0);
+        this.sha256 = emptyToNull(object.optString("sha256", null));
+        this.patchUrl = emptyToNull(object.optString("patchUrl", null));
+        this.splits = ApkSplit.parse(object.optJSONArray("splits"));
+        this.isNotModified = isNotModified;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Fetch the manifest, blocking, must not be called on the main thread
+     *
+     * @param context     the context
+     * @param manifestUrl the link of the manifest
+     * @return the manifest
+     * @throws IOException   if the request failed
+     * @throws JSONException if the document is invalid
+     */
+    static VersionManifest fetch(Context context, String manifestUrl) throws IOException, JSONException {
+        return fetch(context, manifestUrl, null);
+    }
+
+    /**
+     * Fetch a manifest, blocking, must not be called on the main thread
+     *
+     * @param context     the context
+     * @param manifestUrl the link of the manifest
+     * @param storeName   the name to keep the last response under, null for the app manifest
+     * @return the manifest
+     * @throws IOException   if the request failed
+     * @throws JSONException if the document is invalid
+     */
+    static VersionManifest fetch(Context context, String manifestUrl, String storeName) throws IOException, JSONException {
+        SharedPreferences preferences = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String keyUrl = getKey(KEY_URL, storeName);
+        String keyEtag = getKey(KEY_ETAG, storeName);
+        String keyLastModified = getKey(KEY_LAST_MODIFIED, storeName);
+        String keyBody = getKey(KEY_BODY, storeName);
+        //Validators are only valid for the url they were received from
+        boolean isSameUrl = manifestUrl.equals(preferences.getString(keyUrl, null));
+        String storedBody = isSameUrl ? preferences.getString(keyBody, null) : null;
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(manifestUrl).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setInstanceFollowRedirects(true);
+            connection.setUseCaches(false);
+            if (storedBody != null) {
+                String etag = preferences.getString(keyEtag, null);
+                String lastModified = preferences.getString(keyLastModified, null);
+                if (etag != null)
+                    connection.setRequestProperty("If-None-Match", etag);
+                if (lastModified != null)
+                    connection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && storedBody != null) {
+                Constants.WriteLog("Version manifest not modified");
+                SegmentedDownloadEngine.drain(connection);
+                return new VersionManifest(storedBody, true);
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                SegmentedDownloadEngine.drain(connection);
+                throw new IOException("Version manifest request failed with HTTP " + responseCode);
+            }
+
+            String body = readBody(connection);
+            VersionManifest manifest = new VersionManifest(body, false);
+
+            preferences.edit()
+                    .putString(keyUrl, manifestUrl)
+                    .putString(keyEtag, connection.getHeaderField("ETag"))
+                    .putString(keyLastModified, connection.getHeaderField("Last-Modified"))
+                    .putString(keyBody, body)
+                    .apply();
+            Constants.WriteLog("Version manifest fetched : " + body.length() + " bytes");
+            return manifest;
+        } catch (IOException | JSONException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Returns the preference key of a value kept for the named manifest
+     */
+    private static String getKey(String key, String storeName) {
+        return storeName == null ? key : key + "_" + storeName;
+    }
+
+    /**
+     * Read the whole body as UTF-8
+     */
+    private static String readBody(HttpURLConnection connection) throws IOException {
+        InputStream inputStream = connection.getInputStream();
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+                if (outputStream.size() > MAX_BODY_SIZE)
+                    throw new IOException("Version manifest is too large");
+            }
+            return outputStream.toString("UTF-8");
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Returns null for a missing or empty value
+     */
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Returns the non empty strings of the array, null for a missing or empty array
+     */
+    private static String[] toStringArray(JSONArray array) {
+        if (array == null || array.length() == 0) return null;
+        List<String> values = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            String value = array.isNull(i) ? null : emptyToNull(array.optString(i, null));
+            if (value != null) values.add(value);
+        }
+        return values.isEmpty() ? null : values.toArray(new String[0]);
+    }
+    //endregion
+}
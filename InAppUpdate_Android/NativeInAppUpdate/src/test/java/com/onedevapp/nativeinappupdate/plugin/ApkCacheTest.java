@@ -0,0 +1,151 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.app.Application;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Runs with Robolectric, trimming compares with the installed version of the package.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 23, manifest = Config.NONE)
+public class ApkCacheTest {
+
+    private static final int MB = 1024 * 1024;
+
+    private UpdateServer mServer;
+    private Application mContext;
+    private DownloadJournal mJournal;
+    private ApkCache mApkCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new UpdateServer();
+        mContext = RuntimeEnvironment.getApplication();
+        shadowOf(mContext.getPackageManager()).getInternalMutablePackageInfo(mContext.getPackageName()).versionCode = 1;
+        mJournal = new DownloadJournal(mContext);
+        mApkCache = new ApkCache(mContext, mJournal);
+        //Only the release in use fits
+        mApkCache.setMaxBytes(0);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void trimKeepsPartOfActiveDownload() throws Exception {
+        File otherApk = putApk("update-2-0123456789abcdef.apk");
+        final byte[] body = randomBytes(2 * MB, 1);
+        final String url = mServer.put("/app.apk", body, "\"v3\"");
+        final String digest = sha256(body);
+        final String key = ApkCache.getKey(3, digest, url, body.length);
+        final File part = new File(Constants.getDownloadDir(mContext), mApkCache.getPartName(key));
+        mServer.setBytesPerSecond(MB);
+        mJournal.begin(url, 3, digest, body.length, Constants.DOWNLOAD_ENGINE_SEGMENTED);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread download = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    new SegmentedDownloadEngine(2, new DigestVerifier(digest, body.length), null, mJournal)
+                            .download(url, part, new DownloadEngine.ProgressListener() {
+                                @Override
+                                public void onProgress(long bytesDownloaded, long totalBytes) {
+                                    if (bytesDownloaded > 0) started.countDown();
+                                }
+                            });
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+                started.countDown();
+            }
+        });
+        download.start();
+        assertTrue(started.await(30, TimeUnit.SECONDS));
+
+        mApkCache.trim(null);
+
+        assertTrue(part.isFile());
+        assertFalse(otherApk.exists());
+        download.join(30000);
+        assertNull(failure.get());
+        assertArrayEquals(body, Files.readAllBytes(mApkCache.commit(key).toPath()));
+    }
+
+    @Test
+    public void trimKeepsJournaledApk() throws Exception {
+        File apk = putApk("update-4-fedcba9876543210.apk");
+        File otherApk = putApk("update-5-0123456789abcdef.apk");
+        mJournal.begin("https://host/app.apk", 0, null, 0, Constants.DOWNLOAD_ENGINE_SEGMENTED);
+        mJournal.setComplete(apk, mApkCache.getUri(apk));
+
+        mApkCache.trim(null);
+
+        assertTrue(apk.isFile());
+        assertFalse(otherApk.exists());
+    }
+
+    @Test
+    public void trimKeepsReleaseInUse() throws Exception {
+        File apk = putApk("update-6-fedcba9876543210.apk");
+        File supersededApk = putApk("update-1-0123456789abcdef.apk");
+
+        String key = ApkCache.getKey(mApkCache.getUri(apk));
+        mApkCache.trim(key);
+
+        assertEquals("6-fedcba9876543210", key);
+        assertTrue(apk.isFile());
+        assertFalse(supersededApk.exists());
+    }
+
+    /**
+     * Put a cache file of a few bytes into the Downloads directory
+     */
+    private File putApk(String name) throws IOException {
+        File apk = new File(Constants.getDownloadDir(mContext), name);
+        FileOutputStream outputStream = new FileOutputStream(apk);
+        try {
+            outputStream.write(randomBytes(1024, name.hashCode()));
+        } finally {
+            outputStream.close();
+        }
+        return apk;
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        return DigestVerifier.toHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,233 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ApkInspectorTest {
+
+    private static final int ATTR_VERSION_CODE = 0x0101021b;
+    private static final int SIGNATURE_SCHEME_V2_ID = 0x7109871a;
+    private static final int SIGNATURE_SCHEME_V3_ID = 0xf05368c0;
+
+    private File mApk;
+
+    @Before
+    public void setUp() throws IOException {
+        mApk = File.createTempFile("inspect", ".apk");
+    }
+
+    @After
+    public void tearDown() {
+        mApk.delete();
+    }
+
+    @Test
+    public void packageAndVersionCodeAreRead() throws Exception {
+        Files.write(mApk.toPath(), zip(manifest("com.onedevapp.game", 1234), null));
+
+        ApkInspector.ApkInfo info = inspect();
+
+        assertEquals("com.onedevapp.game", info.packageName);
+        assertEquals(1234, info.versionCode);
+        assertTrue(info.certificateDigests.isEmpty());
+    }
+
+    @Test
+    public void signerCertificatesAreReadFromSigningBlock() throws Exception {
+        byte[] first = "first certificate".getBytes("US-ASCII");
+        byte[] second = "second certificate".getBytes("US-ASCII");
+        byte[] block = signingBlock(pair(SIGNATURE_SCHEME_V2_ID, signers(first, second)),
+                pair(0x42726577, new byte[16]), pair(SIGNATURE_SCHEME_V3_ID, signers(first)));
+        Files.write(mApk.toPath(), zip(manifest("com.onedevapp.game", 7), block));
+
+        ApkInspector.ApkInfo info = inspect();
+
+        assertEquals(Arrays.asList(ApkInspector.certificateDigest(first), ApkInspector.certificateDigest(second)),
+                info.certificateDigests);
+        assertEquals(7, info.versionCode);
+    }
+
+    @Test(expected = IOException.class)
+    public void apkWithoutManifestFails() throws Exception {
+        Files.write(mApk.toPath(), zip(null, null));
+        inspect();
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFileFails() throws Exception {
+        Files.write(mApk.toPath(), new byte[4096]);
+        inspect();
+    }
+
+    private ApkInspector.ApkInfo inspect() throws IOException {
+        FileInputStream inputStream = new FileInputStream(mApk);
+        try {
+            return ApkInspector.inspect(inputStream.getChannel());
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Returns a zip with the binary manifest and a dex, with the signing block before the central directory
+     */
+    private static byte[] zip(byte[] manifest, byte[] signingBlock) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+        zipOutputStream.putNextEntry(new ZipEntry("classes.dex"));
+        zipOutputStream.write(new byte[1000]);
+        zipOutputStream.closeEntry();
+        if (manifest != null) {
+            zipOutputStream.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+            zipOutputStream.write(manifest);
+            zipOutputStream.closeEntry();
+        }
+        zipOutputStream.close();
+        byte[] zip = outputStream.toByteArray();
+        if (signingBlock == null) return zip;
+
+        ByteBuffer eocd = ByteBuffer.wrap(zip, zip.length - 22, 22).slice().order(ByteOrder.LITTLE_ENDIAN);
+        int centralDirOffset = eocd.getInt(16);
+        eocd.putInt(16, centralDirOffset + signingBlock.length);
+        ByteArrayOutputStream apk = new ByteArrayOutputStream();
+        apk.write(zip, 0, centralDirOffset);
+        apk.write(signingBlock);
+        apk.write(zip, centralDirOffset, zip.length - centralDirOffset);
+        return apk.toByteArray();
+    }
+
+    /**
+     * Returns the binary xml of a manifest element with package and versionCode attributes
+     */
+    private static byte[] manifest(String packageName, int versionCode) throws IOException {
+        //Strings: 0 versionCode, 1 package, 2 manifest, 3 the package name, only versionCode has a resource id
+        byte[] stringPool = stringPool("versionCode", "package", "manifest", packageName);
+        ByteBuffer resourceMap = chunk(0x0180, 8, 12);
+        resourceMap.putInt(8, ATTR_VERSION_CODE);
+
+        ByteBuffer element = chunk(0x0102, 16, 16 + 20 + 2 * 20);
+        element.putInt(16 + 4, 2);              //name
+        element.putShort(16 + 8, (short) 20);   //attribute start
+        element.putShort(16 + 10, (short) 20);  //attribute size
+        element.putShort(16 + 12, (short) 2);   //attribute count
+        attribute(element, 16 + 20, 1, 3, 0x03, 3);
+        attribute(element, 16 + 40, 0, -1, 0x10, versionCode);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(stringPool);
+        body.write(resourceMap.array());
+        body.write(element.array());
+        ByteBuffer xml = chunk(0x0003, 8, 8 + body.size());
+        xml.position(8);
+        xml.put(body.toByteArray());
+        return xml.array();
+    }
+
+    private static void attribute(ByteBuffer element, int offset, int name, int rawValue, int dataType, int data) {
+        element.putInt(offset, -1);     //namespace
+        element.putInt(offset + 4, name);
+        element.putInt(offset + 8, rawValue);
+        element.putShort(offset + 12, (short) 8);
+        element.put(offset + 15, (byte) dataType);
+        element.putInt(offset + 16, data);
+    }
+
+    /**
+     * Returns a UTF-8 string pool chunk
+     */
+    private static byte[] stringPool(String... strings) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int[] offsets = new int[strings.length];
+        for (int i = 0; i < strings.length; i++) {
+            offsets[i] = data.size();
+            byte[] utf8 = strings[i].getBytes("UTF-8");
+            data.write(strings[i].length());
+            data.write(utf8.length);
+            data.write(utf8);
+            data.write(0);
+        }
+        while (data.size() % 4 != 0) data.write(0);
+
+        int stringsStart = 28 + 4 * strings.length;
+        ByteBuffer pool = chunk(0x0001, 28, stringsStart + data.size());
+        pool.putInt(8, strings.length);
+        pool.putInt(16, 1 << 8);    //UTF-8
+        pool.putInt(20, stringsStart);
+        for (int i = 0; i < strings.length; i++) {
+            pool.putInt(28 + 4 * i, offsets[i]);
+        }
+        pool.position(stringsStart);
+        pool.put(data.toByteArray());
+        return pool.array();
+    }
+
+    private static ByteBuffer chunk(int type, int headerSize, int size) {
+        ByteBuffer chunk = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        chunk.putShort(0, (short) type);
+        chunk.putShort(2, (short) headerSize);
+        chunk.putInt(4, size);
+        return chunk;
+    }
+
+    /**
+     * Returns an APK Signing Block of the pairs
+     */
+    private static byte[] signingBlock(byte[]... pairs) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] pair : pairs) {
+            body.write(pair);
+        }
+        long blockSize = body.size() + 8 + 16;
+        ByteBuffer block = ByteBuffer.allocate((int) blockSize + 8).order(ByteOrder.LITTLE_ENDIAN);
+        block.putLong(blockSize);
+        block.put(body.toByteArray());
+        block.putLong(blockSize);
+        block.put("APK Sig Block 42".getBytes("US-ASCII"));
+        return block.array();
+    }
+
+    private static byte[] pair(int id, byte[] value) {
+        ByteBuffer pair = ByteBuffer.allocate(12 + value.length).order(ByteOrder.LITTLE_ENDIAN);
+        pair.putLong(4 + value.length);
+        pair.putInt(id);
+        pair.put(value);
+        return pair.array();
+    }
+
+    /**
+     * Returns the signers of a v2 or v3 block, a single signer with the certificates and no digests
+     */
+    private static byte[] signers(byte[]... certificates) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        for (byte[] certificate : certificates) {
+            encoded.write(lengthPrefixed(certificate));
+        }
+        ByteArrayOutputStream signedData = new ByteArrayOutputStream();
+        signedData.write(lengthPrefixed(new byte[0]));  //digests
+        signedData.write(lengthPrefixed(encoded.toByteArray()));
+        byte[] signer = lengthPrefixed(signedData.toByteArray());
+        return lengthPrefixed(lengthPrefixed(signer));
+    }
+
+    private static byte[] lengthPrefixed(byte[] value) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + value.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(value.length);
+        buffer.put(value);
+        return buffer.array();
+    }
+}
@@ -0,0 +1,81 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import org.json.JSONArray;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ApkSplitTest {
+
+    private static final List<ApkSplit> SPLITS = Arrays.asList(
+            split("base", null, 0),
+            split("config.x86", "x86", 0),
+            split("config.armeabi_v7a", "armeabi-v7a", 0),
+            split("config.arm64_v8a", "arm64-v8a", 0),
+            split("config.mdpi", null, 160),
+            split("config.xhdpi", null, 320),
+            split("config.xxhdpi", null, 480),
+            split("feature", null, 0));
+
+    @Test
+    public void mostPreferredAbiWins() {
+        assertEquals(Arrays.asList("base", "feature", "config.arm64_v8a", "config.xhdpi"),
+                names(ApkSplit.select(SPLITS, new String[]{"arm64-v8a", "armeabi-v7a", "armeabi"}, 320)));
+        assertEquals(Arrays.asList("base", "feature", "config.armeabi_v7a", "config.xhdpi"),
+                names(ApkSplit.select(SPLITS, new String[]{"armeabi-v7a", "armeabi"}, 320)));
+    }
+
+    @Test
+    public void closestDensityAboveTheScreenWins() {
+        assertEquals("config.xhdpi", last(ApkSplit.select(SPLITS, new String[]{"x86"}, 240)));
+        assertEquals("config.xxhdpi", last(ApkSplit.select(SPLITS, new String[]{"x86"}, 400)));
+        assertEquals("config.mdpi", last(ApkSplit.select(SPLITS, new String[]{"x86"}, 120)));
+    }
+
+    @Test
+    public void highestDensityBelowTheScreenWinsWhenNoneIsAbove() {
+        assertEquals("config.xxhdpi", last(ApkSplit.select(SPLITS, new String[]{"x86"}, 640)));
+    }
+
+    @Test
+    public void unsupportedAbiSelectsNoAbiSplit() {
+        assertEquals(Arrays.asList("base", "feature", "config.xhdpi"),
+                names(ApkSplit.select(SPLITS, new String[]{"mips"}, 320)));
+    }
+
+    @Test
+    public void splitsAreParsed() throws Exception {
+        List<ApkSplit> splits = ApkSplit.parse(new JSONArray("[{\"name\":\"base\",\"url\":\"https://host/base.apk\",\"size\":10,"
+                + "\"sha256\":\"\"},{\"name\":\"config.xxhdpi\",\"url\":\"https://host/xxhdpi.apk\",\"density\":\"XXHDPI\"},"
+                + "{\"name\":\"config.dpi\",\"url\":\"https://host/dpi.apk\",\"density\":\" 213 \",\"abi\":\"\"}]"));
+
+        assertEquals(3, splits.size());
+        assertEquals(10, splits.get(0).size);
+        assertNull(splits.get(0).sha256);
+        assertEquals(480, splits.get(1).density);
+        assertEquals(213, splits.get(2).density);
+        assertNull(splits.get(2).abi);
+        assertNull(ApkSplit.parse(new JSONArray("[]")));
+    }
+
+    private static ApkSplit split(String name, String abi, int density) {
+        return new ApkSplit(name, "https://host/" + name + ".apk", 0, null, abi, density);
+    }
+
+    private static List<String> names(List<ApkSplit> splits) {
+        List<String> names = new ArrayList<>();
+        for (ApkSplit split : splits) {
+            names.add(split.name);
+        }
+        return names;
+    }
+
+    private static String last(List<ApkSplit> splits) {
+        return splits.get(splits.size() - 1).name;
+    }
+}
@@ -0,0 +1,210 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import com.onedevapp.nativeinappupdate.patchtool.PatchGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeltaPatcherTest {
+
+    private static final DownloadEngine.ProgressListener NO_PROGRESS = new DownloadEngine.ProgressListener() {
+        @Override
+        public void onProgress(long bytesDownloaded, long totalBytes) {
+        }
+    };
+
+    private File mBase;
+    private File mOutput;
+
+    @Before
+    public void setUp() throws IOException {
+        mBase = File.createTempFile("base", ".apk");
+        mOutput = File.createTempFile("new", ".apk");
+    }
+
+    @After
+    public void tearDown() {
+        mBase.delete();
+        mOutput.delete();
+    }
+
+    @Test
+    public void installedApkPlusPatchIsNewApk() throws Exception {
+        byte[] base = randomBytes(400 * 1024, 1);
+        byte[] target = edit(base);
+        Files.write(mBase.toPath(), base);
+
+        byte[] patch = generate(base, target);
+        DigestVerifier verifier = new DigestVerifier(sha256(target), target.length);
+        long size = DeltaPatcher.apply(mBase, new ByteArrayInputStream(patch), mOutput, NO_PROGRESS, verifier);
+
+        assertEquals(target.length, size);
+        assertArrayEquals(target, Files.readAllBytes(mOutput.toPath()));
+        //Shifted code and byte-wise changes are diff bytes, mostly zeros, not carried bytes
+        assertTrue("Patch of " + patch.length + " bytes", patch.length < target.length / 10);
+    }
+
+    @Test
+    public void patchFromEmptyBaseCarriesEverything() throws Exception {
+        byte[] target = randomBytes(10000, 2);
+        Files.write(mBase.toPath(), new byte[0]);
+
+        DeltaPatcher.apply(mBase, new ByteArrayInputStream(generate(new byte[0], target)), mOutput, NO_PROGRESS, null);
+
+        assertArrayEquals(target, Files.readAllBytes(mOutput.toPath()));
+    }
+
+    @Test
+    public void progressReachesNewSize() throws Exception {
+        byte[] base = randomBytes(100 * 1024, 3);
+        byte[] target = edit(base);
+        Files.write(mBase.toPath(), base);
+        final long[] last = new long[2];
+
+        DeltaPatcher.apply(mBase, new ByteArrayInputStream(generate(base, target)), mOutput, new DownloadEngine.ProgressListener() {
+            @Override
+            public void onProgress(long bytesDownloaded, long totalBytes) {
+                assertTrue(bytesDownloaded >= last[0]);
+                last[0] = bytesDownloaded;
+                last[1] = totalBytes;
+            }
+        }, null);
+
+        assertEquals(target.length, last[0]);
+        assertEquals(target.length, last[1]);
+    }
+
+    @Test
+    public void patchedApkNotMatchingDigestFailsVerification() throws Exception {
+        byte[] base = randomBytes(100 * 1024, 4);
+        byte[] target = edit(base);
+        Files.write(mBase.toPath(), base);
+
+        try {
+            DeltaPatcher.apply(mBase, new ByteArrayInputStream(generate(base, target)), mOutput, NO_PROGRESS,
+                    new DigestVerifier(sha256(base), target.length));
+            fail();
+        } catch (DigestVerifier.VerificationException e) {
+            assertTrue(e.getMessage().contains("SHA-256"));
+        }
+    }
+
+    @Test
+    public void patchForOtherBaseIsRejectedBeforeWriting() throws Exception {
+        byte[] base = randomBytes(100 * 1024, 6);
+        byte[] patch = generate(base, edit(base));
+        base[5000]++;
+        Files.write(mBase.toPath(), base);
+
+        try {
+            DeltaPatcher.apply(mBase, new ByteArrayInputStream(patch), mOutput, NO_PROGRESS, null);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("another base"));
+        }
+        assertEquals(0, mOutput.length());
+    }
+
+    @Test
+    public void patchForBaseOfOtherSizeIsRejected() throws Exception {
+        byte[] base = randomBytes(100 * 1024, 7);
+        byte[] patch = generate(base, edit(base));
+        Files.write(mBase.toPath(), Arrays.copyOf(base, base.length - 1));
+
+        try {
+            DeltaPatcher.apply(mBase, new ByteArrayInputStream(patch), mOutput, NO_PROGRESS, null);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("base of " + base.length + " bytes"));
+        }
+    }
+
+    @Test
+    public void patchWithoutBaseHeaderIsRejected() throws Exception {
+        byte[] base = randomBytes(100 * 1024, 8);
+        byte[] patch = generate(base, edit(base));
+        Files.write(mBase.toPath(), base);
+        int baseHeaderLength = DeltaPatcher.BASE_MAGIC.length + 8 + 32;
+
+        try {
+            DeltaPatcher.apply(mBase, new ByteArrayInputStream(Arrays.copyOfRange(patch, baseHeaderLength, patch.length)),
+                    mOutput, NO_PROGRESS, null);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("no base header"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedPatchFails() throws Exception {
+        byte[] base = randomBytes(100 * 1024, 5);
+        byte[] patch = generate(base, edit(base));
+        Files.write(mBase.toPath(), base);
+
+        DeltaPatcher.apply(mBase, new ByteArrayInputStream(Arrays.copyOf(patch, patch.length / 2)), mOutput, NO_PROGRESS, null);
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFormatFails() throws Exception {
+        Files.write(mBase.toPath(), new byte[10]);
+        DeltaPatcher.apply(mBase, new ByteArrayInputStream("NIAUPAT1........................".getBytes("US-ASCII")), mOutput, NO_PROGRESS, null);
+    }
+
+    @Test
+    public void offsetsKeepTheirSign() {
+        byte[] bytes = new byte[8];
+        for (long value : new long[]{0, 1, -1, 255, -256, 1L << 40, -(1L << 40), Long.MAX_VALUE}) {
+            PatchGenerator.writeOffset(value, bytes, 0);
+            assertEquals(value, DeltaPatcher.readOffset(bytes, 0));
+        }
+    }
+
+    /**
+     * Returns base as a rebuilt apk would differ: bytes inserted and removed, so the rest moves, and code
+     * with shifted offsets, where bytes change by a small amount
+     */
+    private static byte[] edit(byte[] base) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        int third = base.length / 3;
+        outputStream.write(base, 0, third);
+        outputStream.write(randomBytes(2000, 9), 0, 2000);
+        byte[] shifted = Arrays.copyOfRange(base, third, 2 * third);
+        for (int i = 0; i < shifted.length; i += 64) {
+            shifted[i] += 4;
+        }
+        outputStream.write(shifted, 0, shifted.length);
+        outputStream.write(base, 2 * third + 5000, base.length - 2 * third - 5000);
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] generate(byte[] base, byte[] target) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        PatchGenerator.generate(base, target, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        return DigestVerifier.toHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+}
@@ -0,0 +1,129 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DigestVerifierTest {
+
+    private static final byte[] APK = randomBytes(200 * 1024);
+    private static final String APK_SHA256 = sha256(APK);
+
+    @Test
+    public void bytesFedInPiecesMatch() throws Exception {
+        DigestVerifier verifier = new DigestVerifier(APK_SHA256.toUpperCase(), APK.length);
+        for (int offset = 0; offset < APK.length; offset += 1000) {
+            verifier.update(APK, offset, Math.min(1000, APK.length - offset));
+        }
+
+        verifier.verify();
+        assertEquals(APK.length, verifier.getHashedBytes());
+    }
+
+    @Test
+    public void bytesReadBackFromFileMatch() throws Exception {
+        File file = File.createTempFile("verify", ".apk");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.write(APK);
+            DigestVerifier verifier = new DigestVerifier(APK_SHA256, APK.length);
+            //Hashing follows the writers, in steps up to the contiguous written position
+            verifier.updateFromFile(randomAccessFile.getChannel(), 70000);
+            verifier.updateFromFile(randomAccessFile.getChannel(), 70000);
+            verifier.updateFromFile(randomAccessFile.getChannel(), APK.length);
+            verifier.verify();
+        } finally {
+            randomAccessFile.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void streamMatches() throws Exception {
+        DigestVerifier verifier = new DigestVerifier(APK_SHA256, 0);
+        verifier.updateFromStream(new ByteArrayInputStream(APK));
+        verifier.verify();
+    }
+
+    @Test
+    public void otherBytesFail() throws Exception {
+        byte[] other = APK.clone();
+        other[1234] ^= 1;
+        DigestVerifier verifier = new DigestVerifier(APK_SHA256, APK.length);
+        verifier.update(other, 0, other.length);
+
+        try {
+            verifier.verify();
+            fail();
+        } catch (DigestVerifier.VerificationException e) {
+            assertTrue(e.getMessage().contains("SHA-256 mismatch"));
+        }
+    }
+
+    @Test
+    public void missingBytesFailOnSizeFirst() throws Exception {
+        DigestVerifier verifier = new DigestVerifier(APK_SHA256, APK.length);
+        verifier.update(APK, 0, APK.length - 1);
+
+        try {
+            verifier.verify();
+            fail();
+        } catch (DigestVerifier.VerificationException e) {
+            assertTrue(e.getMessage().contains("Size mismatch"));
+        }
+    }
+
+    @Test
+    public void resetStartsOver() throws Exception {
+        DigestVerifier verifier = new DigestVerifier(APK_SHA256, APK.length);
+        verifier.update(APK, 0, 5000);
+        verifier.reset();
+        verifier.update(APK, 0, APK.length);
+
+        verifier.verify();
+    }
+
+    @Test
+    public void sizeOnlyCheck() throws Exception {
+        DigestVerifier verifier = new DigestVerifier(null, 3);
+        verifier.update(new byte[3], 0, 3);
+        verifier.verify();
+    }
+
+    @Test
+    public void digestsAreValidated() {
+        assertTrue(DigestVerifier.isValidDigest(APK_SHA256));
+        assertTrue(DigestVerifier.isValidDigest(" " + APK_SHA256.toUpperCase() + " "));
+        assertFalse(DigestVerifier.isValidDigest(null));
+        assertFalse(DigestVerifier.isValidDigest(APK_SHA256.substring(1)));
+        assertFalse(DigestVerifier.isValidDigest(APK_SHA256.substring(1) + "g"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidExpectedDigestIsRejected() {
+        new DigestVerifier("abc", 0);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(1).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return DigestVerifier.toHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadThrottleTest {
+
+    private final DownloadThrottle mThrottle = DownloadThrottle.get();
+
+    @After
+    public void tearDown() {
+        //The throttle is shared by the process
+        mThrottle.setMaxBytesPerSecond(0);
+        mThrottle.setInMatchBytesPerSecond(DownloadThrottle.DEFAULT_IN_MATCH_BYTES_PER_SECOND);
+        mThrottle.setActivityLevel(Constants.ACTIVITY_LEVEL_MENU);
+    }
+
+    @Test
+    public void rateFollowsActivityLevel() {
+        assertEquals(0, mThrottle.getBytesPerSecond());
+
+        mThrottle.setMaxBytesPerSecond(1000000);
+        assertEquals(1000000, mThrottle.getBytesPerSecond());
+
+        mThrottle.setActivityLevel(Constants.ACTIVITY_LEVEL_IN_MATCH);
+        assertEquals(DownloadThrottle.DEFAULT_IN_MATCH_BYTES_PER_SECOND, mThrottle.getBytesPerSecond());
+
+        mThrottle.setInMatchBytesPerSecond(0);
+        assertEquals(1000000, mThrottle.getBytesPerSecond());
+
+        mThrottle.setMaxBytesPerSecond(0);
+        assertEquals(0, mThrottle.getBytesPerSecond());
+    }
+
+    @Test
+    public void segmentsFollowActivityLevel() {
+        assertEquals(4, mThrottle.getMaxSegments(4));
+        mThrottle.setActivityLevel(Constants.ACTIVITY_LEVEL_LOADING);
+        assertEquals(2, mThrottle.getMaxSegments(4));
+        assertEquals(1, mThrottle.getMaxSegments(1));
+        mThrottle.setActivityLevel(Constants.ACTIVITY_LEVEL_IN_MATCH);
+        assertEquals(1, mThrottle.getMaxSegments(4));
+    }
+
+    @Test
+    public void readsAreCutToAboutFiftyMillis() {
+        assertEquals(64 * 1024, mThrottle.getChunkSize(64 * 1024));
+        mThrottle.setMaxBytesPerSecond(200 * 1024);
+        assertEquals(10 * 1024, mThrottle.getChunkSize(64 * 1024));
+        mThrottle.setMaxBytesPerSecond(1024);
+        assertEquals(4 * 1024, mThrottle.getChunkSize(64 * 1024));
+    }
+
+    @Test
+    public void bytesAreTakenAtTheRate() throws Exception {
+        mThrottle.setMaxBytesPerSecond(1000 * 1000);
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            mThrottle.acquire(50 * 1000);
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        //500ms of bytes, less the 50ms burst
+        assertTrue("Took " + elapsedMs + "ms", elapsedMs >= 400 && elapsedMs < 2000);
+    }
+
+    @Test
+    public void wrappedStreamReadsWholeBody() throws Exception {
+        mThrottle.setMaxBytesPerSecond(10 * 1000 * 1000);
+        byte[] body = new byte[300 * 1000];
+        InputStream inputStream = mThrottle.wrap(new ByteArrayInputStream(body));
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            assertTrue(read <= mThrottle.getChunkSize(buffer.length));
+            total += read;
+        }
+
+        assertEquals(body.length, total);
+    }
+
+    @Test
+    public void pausedSegmentResumesWhenLevelChanges() throws Exception {
+        mThrottle.setActivityLevel(Constants.ACTIVITY_LEVEL_IN_MATCH);
+        final boolean[] resumed = new boolean[1];
+        Thread segment = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mThrottle.awaitSegment(2, 4);
+                    resumed[0] = true;
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        segment.start();
+        segment.join(200);
+        assertTrue(segment.isAlive());
+
+        mThrottle.setActivityLevel(Constants.ACTIVITY_LEVEL_MENU);
+        segment.join(2000);
+        assertTrue(resumed[0]);
+    }
+}
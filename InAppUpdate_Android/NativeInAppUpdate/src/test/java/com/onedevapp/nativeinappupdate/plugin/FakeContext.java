@@ -0,0 +1,93 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * FakeContext gives the plugin in memory preferences and a temporary files directory, system services are null.
+ */
+class FakeContext extends ContextWrapper {
+
+    // region Declarations
+    private final Map<String, FakeSharedPreferences> mPreferences = new HashMap<>();
+    private final File mFilesDir;
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     *
+     * @throws IOException if the files directory can't be created
+     */
+    FakeContext() throws IOException {
+        super(null);
+        mFilesDir = File.createTempFile("files", "");
+        if (!mFilesDir.delete() || !mFilesDir.mkdir())
+            throw new IOException("Can't create " + mFilesDir);
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Delete the files directory with everything in it
+     */
+    void deleteFiles() {
+        File[] files = mFilesDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mFilesDir.delete();
+    }
+
+    //endregion
+
+    // region Context
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        FakeSharedPreferences preferences = mPreferences.get(name);
+        if (preferences == null) {
+            preferences = new FakeSharedPreferences();
+            mPreferences.put(name, preferences);
+        }
+        return preferences;
+    }
+
+    @Override
+    public Object getSystemService(String name) {
+        return null;
+    }
+
+    @Override
+    public File getFilesDir() {
+        return mFilesDir;
+    }
+
+    @Override
+    public File getCacheDir() {
+        return mFilesDir;
+    }
+
+    @Override
+    public File getExternalFilesDir(String type) {
+        return null;
+    }
+    //endregion
+}
@@ -0,0 +1,70 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FakeHandler keeps posted runnables until the test runs them, delays are ignored.
+ */
+class FakeHandler extends Handler {
+
+    // region Declarations
+    private final List<Runnable> mRunnables = new ArrayList<>();
+
+    //endregion
+
+    //region Constructor
+
+    /**
+     * Constructor
+     */
+    FakeHandler() {
+        super(Looper.getMainLooper());
+    }
+
+    //endregion
+
+    // region Public functions
+
+    @Override
+    public synchronized boolean post(Runnable runnable) {
+        mRunnables.add(runnable);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean postDelayed(Runnable runnable, long delayMillis) {
+        mRunnables.add(runnable);
+        return true;
+    }
+
+    @Override
+    public synchronized void removeCallbacks(Runnable runnable) {
+        while (mRunnables.remove(runnable)) ;
+    }
+
+    /**
+     * Returns the number of runnables waiting
+     */
+    synchronized int getPendingCount() {
+        return mRunnables.size();
+    }
+
+    /**
+     * Run the posted runnables, including those posted while running, until none is left
+     */
+    void runAll() {
+        while (true) {
+            Runnable runnable;
+            synchronized (this) {
+                if (mRunnables.isEmpty()) return;
+                runnable = mRunnables.remove(0);
+            }
+            runnable.run();
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,85 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Behaviour and allocations of the hot paths, their timing is measured by HotPathBenchmark.
+ */
+public class HotPathTest {
+
+    @Test
+    public void dispatcherCoalescesProgressBurst() {
+        FakeHandler handler = new FakeHandler();
+        RecordingListener listener = new RecordingListener();
+        UpdateEventDispatcher dispatcher = new UpdateEventDispatcher(listener, handler);
+        long bytes = 0;
+
+        for (int i = 0; i < 1000; i++) {
+            for (int j = 0; j < 100; j++) {
+                bytes += UpdateEventDispatcher.DEFAULT_PROGRESS_BYTES;
+                dispatcher.onUpdateDownloading(bytes, Long.MAX_VALUE);
+            }
+            handler.runAll();
+        }
+
+        //A burst between two deliveries is one callback
+        assertEquals(1000, listener.events.size());
+    }
+
+    @Test
+    public void statusBlockWriteAndReadAreAllocationFree() {
+        UpdateStatusBlock statusBlock = new UpdateStatusBlock(new RecordingListener());
+        statusBlock.setPollingMode(true);
+        ByteBuffer buffer = statusBlock.getBuffer();
+        long[] read = new long[2];
+        int count = 200000;
+
+        //Warm up so class loading and compilation don't count
+        for (int i = 1; i <= count; i++) {
+            statusBlock.onUpdateDownloading(i, count);
+            readProgress(buffer, read);
+        }
+        long allocatedBefore = getAllocatedBytes();
+        for (int i = 1; i <= count; i++) {
+            statusBlock.onUpdateDownloading(i, count);
+            readProgress(buffer, read);
+        }
+        long allocatedAfter = getAllocatedBytes();
+
+        assertEquals(count, read[0]);
+        assertEquals(count, read[1]);
+        if (allocatedBefore >= 0)
+            assertTrue((allocatedAfter - allocatedBefore) + " bytes", allocatedAfter - allocatedBefore < count);
+    }
+
+    /**
+     * Read the progress the way the game does, retrying while a write is in progress
+     */
+    static void readProgress(ByteBuffer buffer, long[] progress) {
+        while (true) {
+            int sequence = buffer.getInt(UpdateStatusBlock.OFFSET_SEQUENCE);
+            progress[0] = buffer.getLong(UpdateStatusBlock.OFFSET_BYTES_DOWNLOADED);
+            progress[1] = buffer.getLong(UpdateStatusBlock.OFFSET_TOTAL_BYTES);
+            if ((sequence & 1) == 0 && sequence == buffer.getInt(UpdateStatusBlock.OFFSET_SEQUENCE))
+                return;
+        }
+    }
+
+    /**
+     * Returns the bytes allocated by this thread so far, -1 if the JVM doesn't tell
+     */
+    static long getAllocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
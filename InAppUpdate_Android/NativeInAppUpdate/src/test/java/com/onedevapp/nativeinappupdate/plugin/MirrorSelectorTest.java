@@ -0,0 +1,98 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The clock doesn't move in unit tests, so a probed mirror scores close to 0 and an unknown one 10000.
+ */
+public class MirrorSelectorTest {
+
+    private UpdateServer mServer;
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new UpdateServer();
+    }
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+        mServer.stop();
+    }
+
+    @Test
+    public void probesRunWhileIoPoolIsBusy() throws Exception {
+        MirrorSelector mirrorSelector = createSelector();
+        for (int i = 0; i < PluginExecutor.MAX_IO_THREADS; i++) {
+            PluginExecutor.get().submit(blockingTask());
+        }
+
+        mirrorSelector.probe();
+
+        for (MirrorSelector.Mirror mirror : mirrorSelector.getRanked()) {
+            assertTrue(mirrorSelector.isAvailable(mirror));
+            assertTrue(mirror.toString(), mirror.getScore() < 1000);
+        }
+    }
+
+    @Test
+    public void probesThatNeverStartedLeaveMirrorsUnknown() throws Exception {
+        MirrorSelector mirrorSelector = createSelector();
+        for (int i = 0; i < PluginExecutor.MAX_PROBE_THREADS; i++) {
+            PluginExecutor.get().submitProbe(blockingTask());
+        }
+
+        mirrorSelector.probe();
+
+        for (MirrorSelector.Mirror mirror : mirrorSelector.getRanked()) {
+            assertTrue(mirrorSelector.isAvailable(mirror));
+            assertEquals(10000, mirror.getScore());
+        }
+        assertEquals(0, mServer.getRequestCount());
+    }
+
+    @Test
+    public void failedProbeLeavesMirrorOut() throws Exception {
+        String url = mServer.put("/app.apk", new byte[128 * 1024], "\"v1\"");
+        MirrorSelector mirrorSelector = new MirrorSelector(url, new String[]{mServer.getUrl("/missing.apk")});
+
+        mirrorSelector.probe();
+
+        List<MirrorSelector.Mirror> ranked = mirrorSelector.getRanked();
+        assertEquals(url, ranked.get(0).url);
+        assertTrue(mirrorSelector.isAvailable(ranked.get(0)));
+        assertFalse(mirrorSelector.isAvailable(ranked.get(1)));
+    }
+
+    private MirrorSelector createSelector() {
+        byte[] body = new byte[128 * 1024];
+        List<String> mirrorLinks = new ArrayList<>();
+        mirrorLinks.add(mServer.put("/mirror1.apk", body, "\"v1\""));
+        mirrorLinks.add(mServer.put("/mirror2.apk", body, "\"v1\""));
+        return new MirrorSelector(mServer.put("/app.apk", body, "\"v1\""), mirrorLinks.toArray(new String[0]));
+    }
+
+    private Runnable blockingTask() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mRelease.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+    }
+}
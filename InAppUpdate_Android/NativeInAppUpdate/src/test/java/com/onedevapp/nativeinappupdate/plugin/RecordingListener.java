@@ -0,0 +1,41 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Listener recording every event as text
+ */
+class RecordingListener implements OnUpdateListener {
+    final List<String> events = new ArrayList<>();
+
+    @Override
+    public void onUpdateVersionCode(int versionCode) {
+        events.add("version " + versionCode);
+    }
+
+    @Override
+    public void onUpdateStalenessDays(int days) {
+        events.add("staleness " + days);
+    }
+
+    @Override
+    public void onUpdateAvailable(boolean isUpdateAvailable, boolean isUpdateTypeAllowed) {
+        events.add("available " + isUpdateAvailable + " " + isUpdateTypeAllowed);
+    }
+
+    @Override
+    public void onUpdateInstallState(int state) {
+        events.add("state " + state);
+    }
+
+    @Override
+    public void onUpdateDownloading(long bytesDownloaded, long totalBytesToDownload) {
+        events.add("progress " + bytesDownloaded + "/" + totalBytesToDownload);
+    }
+
+    @Override
+    public void onUpdateError(int code, String error) {
+        events.add("error " + code + " " + error);
+    }
+}
@@ -0,0 +1,235 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Downloads from the local UpdateServer with injected latency, bandwidth limits, server errors and dropped
+ * connections. End-to-end latency and throughput of every download are printed as "benchmark " JSON lines.
+ */
+public class SegmentedDownloadEngineTest {
+
+    private static final int MB = 1024 * 1024;
+
+    private UpdateServer mServer;
+    private FakeContext mContext;
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new UpdateServer();
+        mContext = new FakeContext();
+        mFile = new File(mContext.getFilesDir(), "update.part");
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+        mContext.deleteFiles();
+    }
+
+    @Test
+    public void downloadsInSegmentsAndVerifies() throws Exception {
+        byte[] body = randomBytes(6 * MB, 1);
+        String url = mServer.put("/app.apk", body, "\"v1\"");
+
+        download("segmented", new SegmentedDownloadEngine(4, verifierFor(body)), url);
+
+        assertArrayEquals(body, Files.readAllBytes(mFile.toPath()));
+        //The single byte probe and one request per 2MB segment
+        assertEquals(4, mServer.getRequestCount());
+    }
+
+    @Test
+    public void slowServerIsDownloadedInParallel() throws Exception {
+        byte[] body = randomBytes(3 * MB, 2);
+        String url = mServer.put("/app.apk", body, "\"v1\"");
+        mServer.setLatencyMs(100);
+        mServer.setBytesPerSecond(2 * MB);
+
+        Timing timing = download("segmented_latency_100ms_2MBps_per_connection", new SegmentedDownloadEngine(4, verifierFor(body)), url);
+
+        assertArrayEquals(body, Files.readAllBytes(mFile.toPath()));
+        assertTrue(timing.toString(), timing.firstByteMs >= 200);
+        //Two segments at 2MB/s each, a single stream would take 1.5s
+        assertTrue(timing.toString(), timing.totalMs < 1500);
+    }
+
+    @Test
+    public void serverErrorsAreRetried() throws Exception {
+        byte[] body = randomBytes(4 * MB, 3);
+        String url = mServer.put("/app.apk", body, "\"v1\"");
+        mServer.failNext(2, 503);
+
+        download("segmented_2_errors", new SegmentedDownloadEngine(4, verifierFor(body)), url);
+
+        assertArrayEquals(body, Files.readAllBytes(mFile.toPath()));
+    }
+
+    @Test
+    public void droppedConnectionsResumeFromLastByte() throws Exception {
+        byte[] body = randomBytes(4 * MB, 4);
+        String url = mServer.put("/app.apk", body, "\"v1\"");
+        mServer.dropNext(2, 256 * 1024);
+
+        download("segmented_2_drops", new SegmentedDownloadEngine(4, verifierFor(body)), url);
+
+        assertArrayEquals(body, Files.readAllBytes(mFile.toPath()));
+        //Nothing is fetched twice
+        assertEquals(body.length + 1, mServer.getBytesServed());
+    }
+
+    @Test
+    public void serverWithoutRangesIsDownloadedAsOneStream() throws Exception {
+        byte[] body = randomBytes(3 * MB, 5);
+        String url = mServer.put("/app.apk", body, null);
+        mServer.setRangeSupported(false);
+
+        download("single_stream", new SegmentedDownloadEngine(4, verifierFor(body)), url);
+
+        assertArrayEquals(body, Files.readAllBytes(mFile.toPath()));
+    }
+
+    @Test
+    public void wrongApkFailsVerificationAndIsDeleted() throws Exception {
+        byte[] body = randomBytes(3 * MB, 6);
+        String url = mServer.put("/app.apk", body, "\"v1\"");
+        byte[] expected = body.clone();
+        expected[MB]++;
+
+        try {
+            download("wrong_apk", new SegmentedDownloadEngine(4, verifierFor(expected)), url);
+            fail();
+        } catch (DigestVerifier.VerificationException e) {
+            assertTrue(e.getMessage().contains("SHA-256"));
+        }
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void persistentServerErrorsFailTheDownload() throws Exception {
+        byte[] body = randomBytes(MB, 7);
+        String url = mServer.put("/app.apk", body, "\"v1\"");
+        mServer.failNext(SegmentedDownloadEngine.MAX_RETRIES + 1, 500);
+
+        try {
+            download("failing", new SegmentedDownloadEngine(1, verifierFor(body)), url);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("500"));
+        }
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void journaledSegmentsAreResumed() throws Exception {
+        byte[] body = randomBytes(4 * MB, 8);
+        String url = mServer.put("/app.apk", body, "\"v1\"");
+        DownloadJournal journal = new DownloadJournal(mContext);
+        journal.begin(url, 42, null, body.length, Constants.DOWNLOAD_ENGINE_SEGMENTED);
+
+        //A killed download of 2 segments, with 1MB of the first and 512KB of the second written
+        long[] positions = {MB, 2 * MB + MB / 2};
+        RandomAccessFile randomAccessFile = new RandomAccessFile(mFile, "rw");
+        try {
+            randomAccessFile.setLength(body.length);
+            randomAccessFile.write(body, 0, MB);
+            randomAccessFile.seek(2 * MB);
+            randomAccessFile.write(body, 2 * MB, MB / 2);
+        } finally {
+            randomAccessFile.close();
+        }
+        journal.setSegments(mFile, body.length, "\"v1\"", new long[]{0, 2 * MB});
+        journal.checkpoint(positions);
+
+        download("segmented_resumed", new SegmentedDownloadEngine(4, verifierFor(body), null, journal), url);
+
+        assertArrayEquals(body, Files.readAllBytes(mFile.toPath()));
+        assertEquals(body.length - MB - MB / 2 + 1, mServer.getBytesServed());
+    }
+
+    @Test
+    public void changedFileIsNotResumed() throws Exception {
+        byte[] body = randomBytes(4 * MB, 9);
+        String url = mServer.put("/app.apk", body, "\"v2\"");
+        DownloadJournal journal = new DownloadJournal(mContext);
+        journal.begin(url, 42, null, body.length, Constants.DOWNLOAD_ENGINE_SEGMENTED);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(mFile, "rw");
+        randomAccessFile.setLength(body.length);
+        randomAccessFile.close();
+        journal.setSegments(mFile, body.length, "\"v1\"", new long[]{MB, 3 * MB});
+
+        download("segmented_changed", new SegmentedDownloadEngine(4, verifierFor(body), null, journal), url);
+
+        assertArrayEquals(body, Files.readAllBytes(mFile.toPath()));
+        assertEquals(body.length + 1, mServer.getBytesServed());
+    }
+
+    /**
+     * Download into mFile and print the timing
+     */
+    private Timing download(String name, SegmentedDownloadEngine engine, String url) throws IOException {
+        final Timing timing = new Timing(name);
+        final long start = System.nanoTime();
+        try {
+            engine.download(url, mFile, new DownloadEngine.ProgressListener() {
+                @Override
+                public void onProgress(long bytesDownloaded, long totalBytes) {
+                    if (timing.firstByteMs < 0 && bytesDownloaded > 0)
+                        timing.firstByteMs = (System.nanoTime() - start) / 1000000;
+                    timing.bytes = bytesDownloaded;
+                }
+            });
+        } finally {
+            timing.totalMs = (System.nanoTime() - start) / 1000000;
+            System.out.println("benchmark " + timing);
+        }
+        return timing;
+    }
+
+    private static DigestVerifier verifierFor(byte[] body) throws Exception {
+        return new DigestVerifier(DigestVerifier.toHex(MessageDigest.getInstance("SHA-256").digest(body)), body.length);
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * End-to-end timing of one download
+     */
+    private static class Timing {
+        final String name;
+        volatile long firstByteMs = -1;
+        volatile long bytes;
+        long totalMs;
+
+        Timing(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            long bytesPerSecond = totalMs > 0 ? bytes * 1000 / totalMs : -1;
+            return String.format(Locale.US, "{\"name\":\"%s\",\"ttfbMs\":%d,\"totalMs\":%d,\"bytes\":%d,\"bytesPerSecond\":%d}",
+                    name, firstByteMs, totalMs, bytes, bytesPerSecond);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import com.google.android.play.core.install.model.InstallStatus;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class UpdateEventDispatcherTest {
+
+    private FakeHandler mHandler;
+    private RecordingListener mListener;
+    private UpdateEventDispatcher mDispatcher;
+
+    @Before
+    public void setUp() {
+        mHandler = new FakeHandler();
+        mListener = new RecordingListener();
+        mDispatcher = new UpdateEventDispatcher(mListener, mHandler);
+        mDispatcher.setProgressThrottle(0, 0);
+    }
+
+    @Test
+    public void progressAfterErrorIsDeliveredAfterIt() {
+        mDispatcher.onUpdateDownloading(10, 100);
+        mDispatcher.onUpdateError(-1, "failed");
+        mDispatcher.onUpdateDownloading(50, 100);
+        mHandler.runAll();
+
+        assertEquals(Arrays.asList("progress 10/100", "error -1 failed", "progress 50/100"), mListener.events);
+    }
+
+    @Test
+    public void completeProgressIsDeliveredBeforeDownloaded() {
+        mDispatcher.onUpdateDownloading(10, 100);
+        mDispatcher.onUpdateDownloading(100, 100);
+        mDispatcher.onUpdateInstallState(InstallStatus.DOWNLOADED);
+        mDispatcher.onUpdateDownloading(100, 100);
+        mHandler.runAll();
+
+        assertEquals(Arrays.asList("progress 100/100", "state " + InstallStatus.DOWNLOADED, "progress 100/100"), mListener.events);
+    }
+
+    @Test
+    public void pendingProgressIsCoalesced() {
+        mDispatcher.onUpdateDownloading(10, 100);
+        mDispatcher.onUpdateDownloading(20, 100);
+        mDispatcher.onUpdateDownloading(30, 100);
+        mHandler.runAll();
+
+        assertEquals(Arrays.asList("progress 30/100"), mListener.events);
+    }
+
+    @Test
+    public void smallProgressStepsAreSkipped() {
+        mDispatcher.setProgressThrottle(0, 1000);
+        mDispatcher.onUpdateDownloading(0, 10000);
+        mHandler.runAll();
+        mDispatcher.onUpdateDownloading(500, 10000);
+        mHandler.runAll();
+        mDispatcher.onUpdateDownloading(1500, 10000);
+        mHandler.runAll();
+
+        assertEquals(Arrays.asList("progress 0/10000", "progress 1500/10000"), mListener.events);
+    }
+
+    @Test
+    public void batchListenerGetsEventsInOneCall() {
+        RecordingBatchListener listener = new RecordingBatchListener();
+        UpdateEventDispatcher dispatcher = new UpdateEventDispatcher(listener, mHandler);
+        dispatcher.setProgressThrottle(0, 0);
+        dispatcher.onUpdateAvailable(true, true);
+        dispatcher.onUpdateVersionCode(42);
+        dispatcher.onUpdateDownloading(5, 10);
+        mHandler.runAll();
+
+        assertEquals(1, listener.batches.size());
+        UpdateEvent[] events = listener.batches.get(0);
+        assertEquals(3, events.length);
+        assertEquals(UpdateEvent.TYPE_UPDATE_AVAILABLE, events[0].type);
+        assertEquals(UpdateEvent.TYPE_VERSION_CODE, events[1].type);
+        assertEquals(42, events[1].value1);
+        assertEquals(UpdateEvent.TYPE_DOWNLOADING, events[2].type);
+    }
+
+    /**
+     * Batch listener recording every batch
+     */
+    static class RecordingBatchListener extends RecordingListener implements OnUpdateBatchListener {
+        final List<UpdateEvent[]> batches = new ArrayList<>();
+
+        @Override
+        public void onUpdateEvents(UpdateEvent[] events) {
+            batches.add(events);
+        }
+    }
+}
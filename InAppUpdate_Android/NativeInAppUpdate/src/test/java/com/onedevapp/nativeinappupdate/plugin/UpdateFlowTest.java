@@ -0,0 +1,231 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+import android.os.Looper;
+
+import com.google.android.play.core.appupdate.testing.FakeAppUpdateManager;
+import com.google.android.play.core.install.model.InstallStatus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowNetworkCapabilities;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * checkUpdate(), startUpdate() and completeUpdate() through UpdateManager, third party update against
+ * UpdateServer and Play Store update against the FakeAppUpdateManager of Play Core.
+ * The listeners are called on the main looper, which only runs while a test waits for an event.
+ * Runs with Robolectric, the Play Core fake needs a real context and the installer intent a real activity.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 23, manifest = Config.NONE)
+public class UpdateFlowTest {
+
+    private static final long TIMEOUT_MS = 30000;
+    private static final int MB = 1024 * 1024;
+    private static final int INSTALLED_VERSION_CODE = 1;
+
+    private UpdateServer mServer;
+    private Activity mActivity;
+    private RecordingListener mListener;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new UpdateServer();
+        mActivity = Robolectric.buildActivity(Activity.class).setup().get();
+        shadowOf(mActivity.getPackageManager()).getInternalMutablePackageInfo(mActivity.getPackageName())
+                .versionCode = INSTALLED_VERSION_CODE;
+        //The default network of Robolectric has no internet capability
+        ConnectivityManager connectivityManager = (ConnectivityManager) mActivity.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkCapabilities capabilities = ShadowNetworkCapabilities.newInstance();
+        shadowOf(capabilities).addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        shadowOf(capabilities).addCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+        shadowOf(capabilities).addTransportType(NetworkCapabilities.TRANSPORT_WIFI);
+        shadowOf(connectivityManager).setNetworkCapabilities(connectivityManager.getActiveNetwork(), capabilities);
+        mListener = new RecordingListener();
+        UpdateManager.clearInstance();
+    }
+
+    @After
+    public void tearDown() {
+        UpdateManager.clearInstance();
+        mServer.stop();
+    }
+
+    @Test
+    public void thirdPartyUpdateInstallsApkOfManifest() throws Exception {
+        mServer.setLatencyMs(50);
+        mServer.setBytesPerSecond(16 * MB);
+        byte[] apk = putRelease(2, 4 * MB);
+        UpdateManager updateManager = buildThirdParty();
+
+        updateManager.checkUpdate();
+        awaitEvent("version 2");
+        assertTrue(mListener.events.contains("available true true"));
+
+        updateManager.startUpdate();
+        awaitEvent("state " + InstallStatus.DOWNLOADED);
+
+        updateManager.completeUpdate();
+        awaitEvent("state " + InstallStatus.INSTALLING);
+        assertInstallerStarted();
+
+        UpdateMetricsSnapshot metrics = updateManager.getMetrics();
+        assertEquals(apk.length, metrics.downloadedBytes);
+        assertTrue(metrics.toJson(), metrics.checkLatencyMs > 0);
+        assertTrue(metrics.toJson(), metrics.timeToFirstByteMs > 0);
+        assertTrue(metrics.toJson(), metrics.throughputAvg > 0);
+        assertEquals(0, metrics.failures);
+    }
+
+    @Test
+    public void thirdPartyUpdateRecoversFromServerFaults() throws Exception {
+        mServer.setLatencyMs(50);
+        byte[] apk = putRelease(3, 4 * MB);
+        UpdateManager updateManager = buildThirdParty();
+
+        updateManager.checkUpdate();
+        awaitEvent("version 3");
+
+        //The apk requests after the manifest fail, then connections drop midway
+        mServer.failNext(2, 503);
+        mServer.dropNext(2, 256 * 1024);
+        updateManager.startUpdate();
+        awaitEvent("state " + InstallStatus.DOWNLOADED);
+
+        updateManager.completeUpdate();
+        awaitEvent("state " + InstallStatus.INSTALLING);
+        assertInstallerStarted();
+
+        //The digest of the manifest was checked before DOWNLOADED
+        UpdateMetricsSnapshot metrics = updateManager.getMetrics();
+        assertEquals(apk.length, metrics.downloadedBytes);
+        assertTrue(metrics.toJson(), metrics.retries > 0);
+    }
+
+    @Test
+    public void playStoreUpdateCompletesFlexibleFlow() throws Exception {
+        FakeAppUpdateManager fakeAppUpdateManager = new FakeAppUpdateManager(mActivity);
+        fakeAppUpdateManager.setUpdateAvailable(2);
+        UpdateManager updateManager = UpdateManager.Builder(mActivity)
+                .updateMode(Constants.PLAY_STORE_UPDATE)
+                .appUpdateManager(fakeAppUpdateManager)
+                .handler(mListener)
+                .updateType(0);
+
+        updateManager.checkUpdate();
+        awaitEvent("version 2");
+        assertTrue(mListener.events.contains("available true true"));
+
+        updateManager.startUpdate();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!fakeAppUpdateManager.isConfirmationDialogVisible()) {
+            if (System.currentTimeMillis() > deadline)
+                fail("No confirmation dialog " + mListener.events);
+            Thread.sleep(10);
+        }
+
+        fakeAppUpdateManager.userAcceptsUpdate();
+        fakeAppUpdateManager.setTotalBytesToDownload(4 * MB);
+        fakeAppUpdateManager.downloadStarts();
+        fakeAppUpdateManager.setBytesDownloaded(2 * MB);
+        fakeAppUpdateManager.downloadCompletes();
+        awaitEvent("state " + InstallStatus.DOWNLOADED);
+
+        updateManager.completeUpdate();
+        awaitEvent("state " + InstallStatus.INSTALLING);
+        assertTrue(fakeAppUpdateManager.isInstallSplashScreenVisible());
+
+        fakeAppUpdateManager.installCompletes();
+        awaitEvent("state " + InstallStatus.INSTALLED);
+    }
+
+    /**
+     * Put an apk of random bytes and its manifest on the server
+     *
+     * @param versionCode the version code of the release
+     * @param size        the size of the apk
+     * @return the apk
+     */
+    private byte[] putRelease(int versionCode, int size) throws Exception {
+        byte[] apk = new byte[size];
+        new Random(versionCode).nextBytes(apk);
+        String apkUrl = mServer.put("/app-" + versionCode + ".apk", apk, "\"v" + versionCode + "\"");
+        String manifest = "{\"versionCode\":" + versionCode + ",\"url\":\"" + apkUrl + "\",\"size\":" + size
+                + ",\"sha256\":\"" + sha256(apk) + "\"}";
+        mServer.put("/manifest.json", manifest.getBytes("UTF-8"), "\"m" + versionCode + "\"");
+        return apk;
+    }
+
+    /**
+     * Returns a manager for third party update of the manifest, the random apk is not validated
+     */
+    private UpdateManager buildThirdParty() {
+        return UpdateManager.Builder(mActivity)
+                .updateMode(Constants.THIRD_PARTY_UPDATE)
+                .handler(mListener)
+                .updateManifestLink(mServer.getUrl("/manifest.json"))
+                .downloadEngine(Constants.DOWNLOAD_ENGINE_SEGMENTED, 4)
+                .apkValidation(false);
+    }
+
+    /**
+     * Run the main looper until the listener received the event, failing on an error
+     */
+    private void awaitEvent(String event) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!mListener.events.contains(event)) {
+            for (String received : mListener.events) {
+                if (received.startsWith("error"))
+                    fail(received + " before " + event);
+            }
+            if (System.currentTimeMillis() > deadline)
+                fail("No " + event + " in " + mListener.events);
+            long now = System.currentTimeMillis();
+            Thread.sleep(10);
+            //The clock only moves with the looper, keeping it on time lets the metrics measure the flow
+            shadowOf(Looper.getMainLooper()).idleFor(System.currentTimeMillis() - now, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Wait for the installer intent, INSTALLING is reported right before it is started
+     */
+    private void assertInstallerStarted() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        Intent intent;
+        while ((intent = shadowOf(mActivity).getNextStartedActivity()) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotNull(intent);
+        assertEquals(Intent.ACTION_VIEW, intent.getAction());
+        assertTrue(intent.getData().toString(), intent.getData().getPath().endsWith(".apk"));
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
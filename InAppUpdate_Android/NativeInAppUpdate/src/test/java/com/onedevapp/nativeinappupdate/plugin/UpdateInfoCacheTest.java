@@ -0,0 +1,51 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class UpdateInfoCacheTest {
+
+    private FakeContext mContext;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = new FakeContext();
+        //What put() stores for an update to 20 found by the installed version 10
+        mContext.getSharedPreferences("native_in_app_update", Context.MODE_PRIVATE).edit()
+                .putInt("play_update_availability", 2)
+                .putInt("play_available_version_code", 20)
+                .putLong("play_updated_at", System.currentTimeMillis())
+                .putLong("play_installed_version_code", 10)
+                .apply();
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteFiles();
+    }
+
+    @Test
+    public void entryOfInstalledVersionIsFresh() {
+        UpdateState state = new UpdateInfoCache(mContext, 10).getFresh();
+
+        assertNotNull(state);
+        assertEquals(20, state.availableVersionCode);
+    }
+
+    @Test
+    public void entryOfOtherInstalledVersionIsMiss() {
+        UpdateInfoCache updateInfoCache = new UpdateInfoCache(mContext, 20);
+
+        assertNull(updateInfoCache.getFresh());
+        assertNull(updateInfoCache.get());
+    }
+}
@@ -0,0 +1,99 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import com.google.android.play.core.install.model.InstallStatus;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The clock doesn't move in unit tests, so durations of measured phases are 0 and of others -1.
+ */
+public class UpdateMetricsTest {
+
+    private RecordingListener mListener;
+    private UpdateMetrics mMetrics;
+
+    @Before
+    public void setUp() {
+        mListener = new RecordingListener();
+        mMetrics = new UpdateMetrics(mListener);
+    }
+
+    @Test
+    public void nothingIsMeasuredAtStart() {
+        UpdateMetricsSnapshot snapshot = mMetrics.snapshot();
+
+        assertEquals(-1, snapshot.checkLatencyMs);
+        assertEquals(-1, snapshot.timeToFirstByteMs);
+        assertEquals(-1, snapshot.downloadDurationMs);
+        assertEquals(-1, snapshot.throughputAvg);
+        assertEquals(-1, snapshot.downloadedWaitMs);
+        assertEquals(0, snapshot.failures);
+        assertEquals(0, snapshot.failureCodes.length);
+    }
+
+    @Test
+    public void pipelineIsMeasuredAndEventsForwarded() {
+        mMetrics.onCheckStarted();
+        mMetrics.onUpdateAvailable(true, true);
+        mMetrics.onDownloadStarted();
+        mMetrics.onUpdateDownloading(0, 100);
+        assertEquals(-1, mMetrics.snapshot().timeToFirstByteMs);
+        mMetrics.onUpdateDownloading(100, 100);
+        mMetrics.onRetry();
+        mMetrics.onUpdateInstallState(InstallStatus.DOWNLOADED);
+        mMetrics.onCompleteRequested();
+
+        UpdateMetricsSnapshot snapshot = mMetrics.snapshot();
+        assertEquals(0, snapshot.checkLatencyMs);
+        assertEquals(0, snapshot.timeToFirstByteMs);
+        assertEquals(0, snapshot.downloadDurationMs);
+        assertEquals(100, snapshot.downloadedBytes);
+        assertEquals(0, snapshot.downloadedWaitMs);
+        assertEquals(1, snapshot.retries);
+        assertEquals(Arrays.asList("available true true", "progress 0/100", "progress 100/100", "state " + InstallStatus.DOWNLOADED),
+                mListener.events);
+    }
+
+    @Test
+    public void lastFailureCodesAreKeptOldestFirst() {
+        for (int code = 1; code <= 20; code++) {
+            mMetrics.onUpdateError(-code, "failed");
+        }
+
+        UpdateMetricsSnapshot snapshot = mMetrics.snapshot();
+        assertEquals(20, snapshot.failures);
+        assertArrayEquals(new int[]{-5, -6, -7, -8, -9, -10, -11, -12, -13, -14, -15, -16, -17, -18, -19, -20},
+                snapshot.failureCodes);
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        mMetrics.onCheckStarted();
+        mMetrics.onUpdateError(-1, "failed");
+        mMetrics.onRetry();
+        mMetrics.reset();
+
+        UpdateMetricsSnapshot snapshot = mMetrics.snapshot();
+        assertEquals(-1, snapshot.checkLatencyMs);
+        assertEquals(0, snapshot.failures);
+        assertEquals(0, snapshot.retries);
+    }
+
+    @Test
+    public void snapshotIsCompactJson() throws Exception {
+        mMetrics.onUpdateError(-104, "failed");
+
+        JSONObject json = new JSONObject(mMetrics.snapshot().toJson());
+        assertEquals(-1, json.getLong("check"));
+        assertEquals(1, json.getInt("failures"));
+        assertEquals(-104, json.getJSONArray("codes").getInt(0));
+        assertEquals(0, json.getJSONObject("bps").getInt("n"));
+    }
+}
@@ -0,0 +1,268 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UpdateServer serves apk and manifest fixtures on the loopback interface, with range requests, ETag
+ * validation and injected latency, bandwidth limit, error responses and dropped connections.
+ * Faults apply to requests for more than one byte in the order they were queued, so the single byte
+ * probe of a download always gets through.
+ */
+class UpdateServer {
+
+    // region Declarations
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final Map<String, Resource> mResources = new ConcurrentHashMap<>();
+    private final Queue<Fault> mFaults = new ArrayDeque<>();    //guarded by this
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicLong mBytesServed = new AtomicLong();
+    private volatile long mLatencyMs;
+    private volatile long mBytesPerSecond;      //per connection, 0 for no limit
+    private volatile boolean mIsRangeSupported = true;
+
+    //endregion
+
+    /**
+     * A served file.
+     */
+    private static class Resource {
+        final byte[] body;
+        final String etag;  //null for none
+
+        Resource(byte[] body, String etag) {
+            this.body = body;
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * A fault for one request, either an error response or a body cut after some bytes.
+     */
+    private static class Fault {
+        final int responseCode;     //0 to send the body
+        final long dropAfterBytes;
+
+        Fault(int responseCode, long dropAfterBytes) {
+            this.responseCode = responseCode;
+            this.dropAfterBytes = dropAfterBytes;
+        }
+    }
+
+    //region Constructor
+
+    /**
+     * Constructor, the server is started on a free port
+     *
+     * @throws IOException if the server can't be started
+     */
+    UpdateServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } catch (IOException e) {
+                    //The client went away or the connection was dropped on purpose
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    //endregion
+
+    // region Setters
+
+    /**
+     * Set the delay before every response
+     */
+    void setLatencyMs(long latencyMs) {
+        this.mLatencyMs = latencyMs;
+    }
+
+    /**
+     * Set the bandwidth of every connection, 0 for no limit
+     */
+    void setBytesPerSecond(long bytesPerSecond) {
+        this.mBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Set whether range requests are answered with 206, else the whole body is sent with 200
+     */
+    void setRangeSupported(boolean isRangeSupported) {
+        this.mIsRangeSupported = isRangeSupported;
+    }
+
+    //endregion
+
+    // region Public functions
+
+    /**
+     * Serve a body at the path
+     *
+     * @param path the path, starting with /
+     * @param body the body
+     * @param etag the ETag, null for none
+     * @return the url of the body
+     */
+    String put(String path, byte[] body, String etag) {
+        mResources.put(path, new Resource(body, etag));
+        return getUrl(path);
+    }
+
+    /**
+     * Returns the url of a path
+     */
+    String getUrl(String path) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+    }
+
+    /**
+     * Answer the next requests with an error
+     *
+     * @param count        the number of requests
+     * @param responseCode the response code
+     */
+    synchronized void failNext(int count, int responseCode) {
+        for (int i = 0; i < count; i++) {
+            mFaults.add(new Fault(responseCode, 0));
+        }
+    }
+
+    /**
+     * Cut the body of the next requests
+     *
+     * @param count          the number of requests
+     * @param dropAfterBytes the bytes sent before the connection is closed
+     */
+    synchronized void dropNext(int count, long dropAfterBytes) {
+        for (int i = 0; i < count; i++) {
+            mFaults.add(new Fault(0, dropAfterBytes));
+        }
+    }
+
+    /**
+     * Returns the number of requests received
+     */
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Returns the body bytes sent
+     */
+    long getBytesServed() {
+        return mBytesServed.get();
+    }
+
+    /**
+     * Stop the server
+     */
+    void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    //endregion
+
+    // region private functions
+
+    private void serve(HttpExchange exchange) throws IOException {
+        mRequestCount.incrementAndGet();
+        sleep(mLatencyMs);
+
+        Resource resource = mResources.get(exchange.getRequestURI().getPath());
+        if (resource == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        if (resource.etag != null) {
+            exchange.getResponseHeaders().set("ETag", resource.etag);
+            if (resource.etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+        }
+
+        long start = 0;
+        long end = resource.body.length - 1;
+        int responseCode = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && mIsRangeSupported && range.startsWith("bytes=")) {
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            start = Long.parseLong(bounds[0]);
+            if (!bounds[1].isEmpty()) end = Math.min(end, Long.parseLong(bounds[1]));
+            if (start > end) {
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            responseCode = 206;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + resource.body.length);
+        }
+
+        long length = end - start + 1;
+        Fault fault = length > 1 ? nextFault() : null;
+        if (fault != null && fault.responseCode > 0) {
+            byte[] error = ("HTTP " + fault.responseCode).getBytes("US-ASCII");
+            exchange.sendResponseHeaders(fault.responseCode, error.length);
+            exchange.getResponseBody().write(error);
+            return;
+        }
+
+        exchange.sendResponseHeaders(responseCode, length);
+        long sendBytes = fault != null ? Math.min(length, fault.dropAfterBytes) : length;
+        OutputStream outputStream = exchange.getResponseBody();
+        long bytesPerSecond = mBytesPerSecond;
+        long startTime = System.nanoTime();
+        long sent = 0;
+        while (sent < sendBytes) {
+            int chunk = (int) Math.min(CHUNK_SIZE, sendBytes - sent);
+            outputStream.write(resource.body, (int) (start + sent), chunk);
+            outputStream.flush();
+            sent += chunk;
+            mBytesServed.addAndGet(chunk);
+            if (bytesPerSecond > 0)
+                sleep(sent * 1000 / bytesPerSecond - (System.nanoTime() - startTime) / 1000000);
+        }
+        if (fault != null)
+            throw new IOException("Dropped after " + sent + " bytes");
+    }
+
+    private synchronized Fault nextFault() {
+        return mFaults.poll();
+    }
+
+    private static void sleep(long ms) throws InterruptedIOException {
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,107 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import com.google.android.play.core.install.model.InstallStatus;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UpdateStatusBlockTest {
+
+    private RecordingListener mListener;
+    private UpdateStatusBlock mStatusBlock;
+    private ByteBuffer mBuffer;
+    private volatile int mFence;
+
+    @Before
+    public void setUp() {
+        mListener = new RecordingListener();
+        mStatusBlock = new UpdateStatusBlock(mListener);
+        mBuffer = mStatusBlock.getBuffer();
+    }
+
+    @Test
+    public void blockStartsUnknown() {
+        assertTrue(mBuffer.isDirect());
+        assertEquals(UpdateStatusBlock.SIZE, mBuffer.capacity());
+        assertEquals(0, mBuffer.getInt(UpdateStatusBlock.OFFSET_SEQUENCE));
+        assertEquals(InstallStatus.UNKNOWN, mBuffer.getInt(UpdateStatusBlock.OFFSET_STATUS));
+        assertEquals(-1, mBuffer.getInt(UpdateStatusBlock.OFFSET_STALENESS_DAYS));
+        assertEquals(-1, mBuffer.getInt(UpdateStatusBlock.OFFSET_UPDATE_AVAILABLE));
+    }
+
+    @Test
+    public void eventsAreWrittenAndForwarded() {
+        mStatusBlock.onUpdateAvailable(true, false);
+        mStatusBlock.onUpdateVersionCode(42);
+        mStatusBlock.onUpdateStalenessDays(3);
+        mStatusBlock.onUpdateDownloading(10, 100);
+        mStatusBlock.onUpdateError(-104, "failed");
+
+        assertEquals(1, mBuffer.getInt(UpdateStatusBlock.OFFSET_UPDATE_AVAILABLE));
+        assertEquals(42, mBuffer.getInt(UpdateStatusBlock.OFFSET_VERSION_CODE));
+        assertEquals(3, mBuffer.getInt(UpdateStatusBlock.OFFSET_STALENESS_DAYS));
+        assertEquals(InstallStatus.DOWNLOADING, mBuffer.getInt(UpdateStatusBlock.OFFSET_STATUS));
+        assertEquals(10, mBuffer.getLong(UpdateStatusBlock.OFFSET_BYTES_DOWNLOADED));
+        assertEquals(100, mBuffer.getLong(UpdateStatusBlock.OFFSET_TOTAL_BYTES));
+        assertEquals(-104, mBuffer.getInt(UpdateStatusBlock.OFFSET_ERROR_CODE));
+        //Every write moves the sequence from even to odd and back
+        assertEquals(10, mBuffer.getInt(UpdateStatusBlock.OFFSET_SEQUENCE));
+        assertEquals(Arrays.asList("available true false", "version 42", "staleness 3", "progress 10/100", "error -104 failed"),
+                mListener.events);
+    }
+
+    @Test
+    public void pollingModeForwardsOnlyTerminalEvents() {
+        mStatusBlock.setPollingMode(true);
+        mStatusBlock.onUpdateInstallState(InstallStatus.DOWNLOADING);
+        mStatusBlock.onUpdateDownloading(50, 100);
+        mStatusBlock.onUpdateInstallState(InstallStatus.DOWNLOADED);
+
+        assertEquals(InstallStatus.DOWNLOADED, mBuffer.getInt(UpdateStatusBlock.OFFSET_STATUS));
+        assertEquals(50, mBuffer.getLong(UpdateStatusBlock.OFFSET_BYTES_DOWNLOADED));
+        assertEquals(Arrays.asList("state " + InstallStatus.DOWNLOADED), mListener.events);
+    }
+
+    @Test
+    public void readerNeverSeesHalfWrittenProgress() throws Exception {
+        mStatusBlock.setPollingMode(true);
+        final int count = 200000;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= count; i++) {
+                    mStatusBlock.onUpdateDownloading(i, 2L * i);
+                }
+            }
+        });
+        writer.start();
+
+        long lastBytes = 0;
+        int consistentReads = 0;
+        while (writer.isAlive() || lastBytes < count) {
+            //The volatile accesses keep the reads in order, as the barriers of the native reader do
+            int sequence = mBuffer.getInt(UpdateStatusBlock.OFFSET_SEQUENCE);
+            int fence = mFence;
+            long bytes = mBuffer.getLong(UpdateStatusBlock.OFFSET_BYTES_DOWNLOADED);
+            long total = mBuffer.getLong(UpdateStatusBlock.OFFSET_TOTAL_BYTES);
+            mFence = fence;
+            if ((sequence & 1) != 0 || sequence != mBuffer.getInt(UpdateStatusBlock.OFFSET_SEQUENCE))
+                continue;
+
+            assertEquals(2 * bytes, total);
+            assertTrue(bytes >= lastBytes);
+            lastBytes = bytes;
+            consistentReads++;
+        }
+        writer.join();
+
+        assertEquals(count, lastBytes);
+        assertTrue(consistentReads > 0);
+    }
+}
@@ -0,0 +1,110 @@
+package com.onedevapp.nativeinappupdate.plugin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VersionManifestTest {
+
+    private static final String MANIFEST = "{\"versionCode\":42,\"url\":\"https://host/app.apk\","
+            + "\"mirrors\":[\"https://mirror/app.apk\",null,\"\"],\"size\":123,\"sha256\":\"\",\"patchUrl\":\"https://host/41-42.patch\"}";
+
+    private UpdateServer mServer;
+    private FakeContext mContext;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new UpdateServer();
+        mContext = new FakeContext();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+        mContext.deleteFiles();
+    }
+
+    @Test
+    public void manifestIsParsed() throws Exception {
+        String url = mServer.put("/manifest.json", MANIFEST.getBytes("UTF-8"), "\"m1\"");
+
+        VersionManifest manifest = VersionManifest.fetch(mContext, url);
+
+        assertEquals(42, manifest.versionCode);
+        assertEquals("https://host/app.apk", manifest.url);
+        assertArrayEquals(new String[]{"https://mirror/app.apk"}, manifest.mirrors);
+        assertEquals(123, manifest.size);
+        assertNull(manifest.sha256);
+        assertEquals("https://host/41-42.patch", manifest.patchUrl);
+        assertNull(manifest.splits);
+        assertFalse(manifest.isNotModified);
+    }
+
+    @Test
+    public void unchangedManifestIsAnsweredWithoutBody() throws Exception {
+        String url = mServer.put("/manifest.json", MANIFEST.getBytes("UTF-8"), "\"m1\"");
+        VersionManifest.fetch(mContext, url);
+
+        VersionManifest manifest = VersionManifest.fetch(mContext, url);
+
+        assertTrue(manifest.isNotModified);
+        assertEquals(42, manifest.versionCode);
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(MANIFEST.length(), mServer.getBytesServed());
+    }
+
+    @Test
+    public void changedManifestIsFetchedAgain() throws Exception {
+        String url = mServer.put("/manifest.json", MANIFEST.getBytes("UTF-8"), "\"m1\"");
+        VersionManifest.fetch(mContext, url);
+        mServer.put("/manifest.json", "{\"versionCode\":43}".getBytes("UTF-8"), "\"m2\"");
+
+        VersionManifest manifest = VersionManifest.fetch(mContext, url);
+
+        assertFalse(manifest.isNotModified);
+        assertEquals(43, manifest.versionCode);
+        assertNull(manifest.url);
+        assertNull(manifest.mirrors);
+    }
+
+    @Test
+    public void validatorsOfAnotherLinkAreNotSent() throws Exception {
+        String url = mServer.put("/manifest.json", MANIFEST.getBytes("UTF-8"), "\"m1\"");
+        String otherUrl = mServer.put("/other.json", MANIFEST.getBytes("UTF-8"), "\"m1\"");
+        VersionManifest.fetch(mContext, url);
+
+        assertFalse(VersionManifest.fetch(mContext, otherUrl).isNotModified);
+    }
+
+    @Test
+    public void channelManifestsAreKeptApart() throws Exception {
+        String url = mServer.put("/manifest.json", MANIFEST.getBytes("UTF-8"), "\"m1\"");
+        VersionManifest.fetch(mContext, url);
+
+        assertFalse(VersionManifest.fetch(mContext, url, "maps").isNotModified);
+        assertTrue(VersionManifest.fetch(mContext, url, "maps").isNotModified);
+        assertTrue(VersionManifest.fetch(mContext, url).isNotModified);
+    }
+
+    @Test
+    public void serverErrorFails() throws Exception {
+        String url = mServer.put("/manifest.json", MANIFEST.getBytes("UTF-8"), "\"m1\"");
+        mServer.failNext(1, 503);
+
+        try {
+            VersionManifest.fetch(mContext, url);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("503"));
+        }
+    }
+}
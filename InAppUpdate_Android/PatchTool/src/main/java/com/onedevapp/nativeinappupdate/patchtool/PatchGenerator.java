@@ -0,0 +1,433 @@
+package com.onedevapp.nativeinappupdate.patchtool;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * PatchGenerator makes the patch from the previous apk to the new one that the plugin applies for a third party
+ * update, the patchUrl of the version manifest. It is bsdiff 4.3 by Colin Percival in the ENDSLEY/BSDIFF43
+ * layout of Matthew Endsley, entries interleaved so the patch can be applied while it streams in, with the body
+ * gzip compressed instead of bzip2 since Android has no bzip2 decoder. A header with the size and SHA-256 of
+ * the previous apk comes first, the plugin only applies the patch to that exact apk.
+ * <p>
+ * Usage: java -jar PatchTool.jar previous.apk new.apk out.patch
+ * <br>
+ * or java -jar PatchTool.jar --base previous.apk bsdiff.patch out.patch to add the header to a patch made elsewhere
+ * <p>
+ * The suffix array takes 8 bytes per byte of the previous apk, give the JVM enough heap for large apks.
+ */
+public final class PatchGenerator {
+
+    // region Declarations
+    public static final byte[] BASE_MAGIC = {'I', 'N', 'A', 'P', 'P', 'U', 'P', 'D', 'A', 'T', 'E', '/', 'B', 'A', 'S', 'E'};
+    public static final byte[] MAGIC = {'E', 'N', 'D', 'S', 'L', 'E', 'Y', '/', 'B', 'S', 'D', 'I', 'F', 'F', '4', '3'};
+    private static final long STACK_SIZE = 512L * 1024 * 1024;     //sorting recurses deeply on repetitive input
+
+    //endregion
+
+    private PatchGenerator() {
+    }
+
+    // region Public functions
+
+    /**
+     * Write the patch from previous.apk to new.apk, or with --base add the header to a patch made elsewhere
+     *
+     * @param args the previous apk, the new apk and the patch to write, or --base, the previous apk,
+     *             the patch and the patch to write
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length == 4 && args[0].equals("--base")) {
+            addBase(new File(args[1]), new File(args[2]), new File(args[3]));
+            return;
+        }
+        if (args.length != 3) {
+            System.err.println("Usage: PatchGenerator previous.apk new.apk out.patch");
+            System.err.println("       PatchGenerator --base previous.apk bsdiff.patch out.patch");
+            System.exit(2);
+        }
+
+        final Exception[] error = new Exception[1];
+        Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] base = Files.readAllBytes(new File(args[0]).toPath());
+                    byte[] target = Files.readAllBytes(new File(args[1]).toPath());
+                    OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(args[2]));
+                    try {
+                        generate(base, target, outputStream);
+                    } finally {
+                        outputStream.close();
+                    }
+                    System.out.println("Patch of " + new File(args[2]).length() + " bytes for " + target.length + " bytes");
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            }
+        }, "PatchGenerator", STACK_SIZE);
+        thread.start();
+        thread.join();
+        if (error[0] != null) throw error[0];
+    }
+
+    /**
+     * Write the patch turning base into target
+     *
+     * @param base         the previous apk
+     * @param target       the new apk
+     * @param outputStream the stream the patch is written to, left open
+     * @throws IOException if writing failed
+     */
+    public static void generate(byte[] base, byte[] target, OutputStream outputStream) throws IOException {
+        writeBaseHeader(base, outputStream);
+
+        byte[] header = new byte[MAGIC.length + 8];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        writeOffset(target.length, header, MAGIC.length);
+        outputStream.write(header);
+
+        GZIPOutputStream body = new GZIPOutputStream(outputStream, 64 * 1024);
+        diff(base, target, body);
+        body.finish();
+        outputStream.flush();
+    }
+
+    /**
+     * Write the header naming the previous apk the patch applies to, its size and SHA-256
+     *
+     * @param base         the previous apk
+     * @param outputStream the stream the patch is written to, left open
+     * @throws IOException if writing failed
+     */
+    public static void writeBaseHeader(byte[] base, OutputStream outputStream) throws IOException {
+        byte[] header = new byte[BASE_MAGIC.length + 8];
+        System.arraycopy(BASE_MAGIC, 0, header, 0, BASE_MAGIC.length);
+        writeOffset(base.length, header, BASE_MAGIC.length);
+        outputStream.write(header);
+        try {
+            outputStream.write(MessageDigest.getInstance("SHA-256").digest(base));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Store an offset at index, 8 bytes of magnitude little endian with the sign in the top bit
+     *
+     * @param value the offset
+     * @param bytes the bytes
+     * @param index the index of the first byte
+     */
+    public static void writeOffset(long value, byte[] bytes, int index) {
+        long magnitude = Math.abs(value);
+        for (int i = 0; i < 8; i++) {
+            bytes[index + i] = (byte) (magnitude >>> (8 * i));
+        }
+        if (value < 0) bytes[index + 7] |= (byte) 0x80;
+    }
+
+    //endregion
+
+    // region private functions
+
+    /**
+     * Write the patch with the header of the previous apk in front, the patch must not have one yet
+     */
+    private static void addBase(File base, File patch, File output) throws IOException {
+        byte[] patchBytes = Files.readAllBytes(patch.toPath());
+        if (patchBytes.length < MAGIC.length || !Arrays.equals(Arrays.copyOf(patchBytes, MAGIC.length), MAGIC))
+            throw new IOException(patch + " is not an ENDSLEY/BSDIFF43 patch");
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(output));
+        try {
+            writeBaseHeader(Files.readAllBytes(base.toPath()), outputStream);
+            outputStream.write(patchBytes);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Write the entries turning base into target, the bsdiff main loop
+     */
+    private static void diff(byte[] base, byte[] target, OutputStream out) throws IOException {
+        int baseSize = base.length;
+        int targetSize = target.length;
+        int[] suffixes = suffixSort(base);
+
+        byte[] control = new byte[24];
+        int scan = 0;
+        int length = 0;
+        int lastScan = 0;
+        int lastPosition = 0;
+        int lastOffset = 0;
+        int[] position = new int[1];
+
+        while (scan < targetSize) {
+            int oldScore = 0;
+            int scoreScan = scan += length;
+            for (; scan < targetSize; scan++) {
+                length = search(suffixes, base, target, scan, 0, baseSize, position);
+                for (; scoreScan < scan + length; scoreScan++) {
+                    if (scoreScan + lastOffset < baseSize && base[scoreScan + lastOffset] == target[scoreScan])
+                        oldScore++;
+                }
+                if ((length == oldScore && length != 0) || length > oldScore + 8) break;
+                if (scan + lastOffset < baseSize && base[scan + lastOffset] == target[scan])
+                    oldScore--;
+            }
+
+            if (length == oldScore && scan != targetSize) continue;
+
+            //Extend the last match forward and the new match backward as long as more than half of the bytes match
+            int score = 0;
+            int bestScore = 0;
+            int lengthForward = 0;
+            for (int i = 0; lastScan + i < scan && lastPosition + i < baseSize; ) {
+                if (base[lastPosition + i] == target[lastScan + i]) score++;
+                i++;
+                if (score * 2 - i > bestScore * 2 - lengthForward) {
+                    bestScore = score;
+                    lengthForward = i;
+                }
+            }
+
+            int lengthBackward = 0;
+            if (scan < targetSize) {
+                score = 0;
+                bestScore = 0;
+                for (int i = 1; scan >= lastScan + i && position[0] >= i; i++) {
+                    if (base[position[0] - i] == target[scan - i]) score++;
+                    if (score * 2 - i > bestScore * 2 - lengthBackward) {
+                        bestScore = score;
+                        lengthBackward = i;
+                    }
+                }
+            }
+
+            //Split an overlap where it matches best
+            if (lastScan + lengthForward > scan - lengthBackward) {
+                int overlap = (lastScan + lengthForward) - (scan - lengthBackward);
+                score = 0;
+                bestScore = 0;
+                int lengthSplit = 0;
+                for (int i = 0; i < overlap; i++) {
+                    if (target[lastScan + lengthForward - overlap + i] == base[lastPosition + lengthForward - overlap + i])
+                        score++;
+                    if (target[scan - lengthBackward + i] == base[position[0] - lengthBackward + i])
+                        score--;
+                    if (score > bestScore) {
+                        bestScore = score;
+                        lengthSplit = i + 1;
+                    }
+                }
+                lengthForward += lengthSplit - overlap;
+                lengthBackward -= lengthSplit;
+            }
+
+            int copyLength = (scan - lengthBackward) - (lastScan + lengthForward);
+            writeOffset(lengthForward, control, 0);
+            writeOffset(copyLength, control, 8);
+            writeOffset((position[0] - lengthBackward) - (lastPosition + lengthForward), control, 16);
+            out.write(control);
+
+            byte[] bytes = new byte[Math.max(lengthForward, copyLength)];
+            for (int i = 0; i < lengthForward; i++) {
+                bytes[i] = (byte) (target[lastScan + i] - base[lastPosition + i]);
+            }
+            out.write(bytes, 0, lengthForward);
+            out.write(target, lastScan + lengthForward, copyLength);
+
+            lastScan = scan - lengthBackward;
+            lastPosition = position[0] - lengthBackward;
+            lastOffset = position[0] - scan;
+        }
+    }
+
+    /**
+     * Returns the suffix array of bytes, the qsufsort of Larsson and Sadakane
+     */
+    private static int[] suffixSort(byte[] bytes) {
+        int size = bytes.length;
+        int[] suffixes = new int[size + 1];
+        int[] groups = new int[size + 1];
+        int[] buckets = new int[256];
+
+        for (byte value : bytes) {
+            buckets[value & 0xFF]++;
+        }
+        for (int i = 1; i < 256; i++) {
+            buckets[i] += buckets[i - 1];
+        }
+        for (int i = 255; i > 0; i--) {
+            buckets[i] = buckets[i - 1];
+        }
+        buckets[0] = 0;
+
+        for (int i = 0; i < size; i++) {
+            suffixes[++buckets[bytes[i] & 0xFF]] = i;
+        }
+        suffixes[0] = size;
+        for (int i = 0; i < size; i++) {
+            groups[i] = buckets[bytes[i] & 0xFF];
+        }
+        groups[size] = 0;
+        for (int i = 1; i < 256; i++) {
+            if (buckets[i] == buckets[i - 1] + 1) suffixes[buckets[i]] = -1;
+        }
+        suffixes[0] = -1;
+
+        for (int h = 1; suffixes[0] != -(size + 1); h += h) {
+            int length = 0;
+            int i = 0;
+            while (i < size + 1) {
+                if (suffixes[i] < 0) {
+                    length -= suffixes[i];
+                    i -= suffixes[i];
+                } else {
+                    if (length != 0) suffixes[i - length] = -length;
+                    length = groups[suffixes[i]] + 1 - i;
+                    split(suffixes, groups, i, length, h);
+                    i += length;
+                    length = 0;
+                }
+            }
+            if (length != 0) suffixes[i - length] = -length;
+        }
+
+        for (int i = 0; i < size + 1; i++) {
+            suffixes[groups[i]] = i;
+        }
+        return suffixes;
+    }
+
+    /**
+     * Sort a group of suffixes by the group of the suffix h bytes further
+     */
+    private static void split(int[] suffixes, int[] groups, int start, int length, int h) {
+        int i, j, k, x, tmp;
+
+        if (length < 16) {
+            for (k = start; k < start + length; k += j) {
+                j = 1;
+                x = groups[suffixes[k] + h];
+                for (i = 1; k + i < start + length; i++) {
+                    if (groups[suffixes[k + i] + h] < x) {
+                        x = groups[suffixes[k + i] + h];
+                        j = 0;
+                    }
+                    if (groups[suffixes[k + i] + h] == x) {
+                        tmp = suffixes[k + j];
+                        suffixes[k + j] = suffixes[k + i];
+                        suffixes[k + i] = tmp;
+                        j++;
+                    }
+                }
+                for (i = 0; i < j; i++) {
+                    groups[suffixes[k + i]] = k + j - 1;
+                }
+                if (j == 1) suffixes[k] = -1;
+            }
+            return;
+        }
+
+        x = groups[suffixes[start + length / 2] + h];
+        int lessEnd = 0;
+        int equalEnd = 0;
+        for (i = start; i < start + length; i++) {
+            if (groups[suffixes[i] + h] < x) lessEnd++;
+            if (groups[suffixes[i] + h] == x) equalEnd++;
+        }
+        lessEnd += start;
+        equalEnd += lessEnd;
+
+        i = start;
+        j = 0;
+        k = 0;
+        while (i < lessEnd) {
+            if (groups[suffixes[i] + h] < x) {
+                i++;
+            } else if (groups[suffixes[i] + h] == x) {
+                tmp = suffixes[i];
+                suffixes[i] = suffixes[lessEnd + j];
+                suffixes[lessEnd + j] = tmp;
+                j++;
+            } else {
+                tmp = suffixes[i];
+                suffixes[i] = suffixes[equalEnd + k];
+                suffixes[equalEnd + k] = tmp;
+                k++;
+            }
+        }
+        while (lessEnd + j < equalEnd) {
+            if (groups[suffixes[lessEnd + j] + h] == x) {
+                j++;
+            } else {
+                tmp = suffixes[lessEnd + j];
+                suffixes[lessEnd + j] = suffixes[equalEnd + k];
+                suffixes[equalEnd + k] = tmp;
+                k++;
+            }
+        }
+
+        if (lessEnd > start) split(suffixes, groups, start, lessEnd - start, h);
+        for (i = 0; i < equalEnd - lessEnd; i++) {
+            groups[suffixes[lessEnd + i]] = equalEnd - 1;
+        }
+        if (lessEnd == equalEnd - 1) suffixes[lessEnd] = -1;
+        if (start + length > equalEnd) split(suffixes, groups, equalEnd, start + length - equalEnd, h);
+    }
+
+    /**
+     * Returns the length of the longest match of target from offset in base, its position in position[0]
+     */
+    private static int search(int[] suffixes, byte[] base, byte[] target, int offset, int start, int end, int[] position) {
+        while (end - start >= 2) {
+            int middle = start + (end - start) / 2;
+            if (compare(base, suffixes[middle], target, offset) < 0)
+                start = middle;
+            else
+                end = middle;
+        }
+        int startLength = matchLength(base, suffixes[start], target, offset);
+        int endLength = matchLength(base, suffixes[end], target, offset);
+        if (startLength > endLength) {
+            position[0] = suffixes[start];
+            return startLength;
+        }
+        position[0] = suffixes[end];
+        return endLength;
+    }
+
+    /**
+     * Returns the number of equal bytes from base at baseOffset and target at targetOffset
+     */
+    private static int matchLength(byte[] base, int baseOffset, byte[] target, int targetOffset) {
+        int i = 0;
+        while (baseOffset + i < base.length && targetOffset + i < target.length && base[baseOffset + i] == target[targetOffset + i]) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Compare base from baseOffset to target from targetOffset as unsigned bytes, over the shorter of both
+     */
+    private static int compare(byte[] base, int baseOffset, byte[] target, int targetOffset) {
+        int length = Math.min(base.length - baseOffset, target.length - targetOffset);
+        for (int i = 0; i < length; i++) {
+            int difference = (base[baseOffset + i] & 0xFF) - (target[targetOffset + i] & 0xFF);
+            if (difference != 0) return difference;
+        }
+        return 0;
+    }
+    //endregion
+}